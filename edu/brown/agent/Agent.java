@@ -1,8 +1,11 @@
 package brown.agent;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import brown.exceptions.AgentCreationException;
+import brown.markets.BookReplica;
 import brown.markets.ContinuousDoubleAuction;
 import brown.markets.LMSR;
 import brown.markets.SimpleAuction;
@@ -11,6 +14,7 @@ import brown.messages.BankUpdate;
 import brown.messages.Message;
 import brown.messages.Registration;
 import brown.messages.auctions.BidRequest;
+import brown.messages.markets.BookUpdate;
 import brown.messages.markets.GameReport;
 import brown.messages.trades.NegotiateRequest;
 import brown.setup.Setup;
@@ -39,6 +43,16 @@ public abstract class Agent {
 	 */
 	public Integer ID;
 
+	/**
+	 * Books kept from incremental updates, by market ID
+	 */
+	protected final Map<Integer, BookReplica> BOOKS;
+
+	/**
+	 * Server in this JVM the agent talks to, or null over the network
+	 */
+	private final LocalServer LOCAL;
+
 	/**
 	 * Implementations should always invoke super()
 	 * 
@@ -51,6 +65,8 @@ public abstract class Agent {
 			throws AgentCreationException {
 		this.CLIENT = new Client();
 		this.ID = null;
+		this.BOOKS = new HashMap<Integer, BookReplica>();
+		this.LOCAL = null;
 
 		CLIENT.start();
 		Log.TRACE();
@@ -81,6 +97,33 @@ public abstract class Agent {
 		CLIENT.sendTCP(new Registration(-1));
 	}
 
+	/**
+	 * Runs the agent in the same JVM as its server, which calls it
+	 * directly and takes its messages through send; nothing is
+	 * serialized and no sockets are opened
+	 * 
+	 * @param server
+	 */
+	public Agent(LocalServer server) {
+		this.CLIENT = null;
+		this.BOOKS = new HashMap<Integer, BookReplica>();
+		this.LOCAL = server;
+		this.ID = server.register(this);
+	}
+
+	/**
+	 * Sends a message to the server
+	 * 
+	 * @param message
+	 */
+	public void send(Message message) {
+		if (this.LOCAL != null) {
+			this.LOCAL.receive(this, message);
+		} else {
+			this.CLIENT.sendTCP(message);
+		}
+	}
+
 	/**
 	 * Provides response to sealed bid auction
 	 * @param SealedBid wrapper
@@ -105,6 +148,22 @@ public abstract class Agent {
 	 */
 	public abstract void onContinuousDoubleAuction(ContinuousDoubleAuction market);
 
+	/**
+	 * Applies an incremental book update and, once the book is current,
+	 * hands it to onContinuousDoubleAuction like a full market update
+	 * @param update : level changes and trades since the last sequence
+	 */
+	public void onBookUpdate(BookUpdate update) {
+		BookReplica book = this.BOOKS.get(update.MARKETID);
+		if (book == null) {
+			book = new BookReplica(update.MARKETID, update.TYPE);
+			this.BOOKS.put(update.MARKETID, book);
+		}
+		if (book.apply(update)) {
+			this.onContinuousDoubleAuction(book.wrap());
+		}
+	}
+
 	/**
 	 * Agents must accept their IDs from the server
 	 * 
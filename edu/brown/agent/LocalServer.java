@@ -0,0 +1,23 @@
+package brown.agent;
+
+import brown.messages.Message;
+
+/**
+ * A server running in the same JVM as its agents, which it calls
+ * directly instead of over the network
+ */
+public interface LocalServer {
+	/**
+	 * Signs an agent up, as a Registration would
+	 * @param agent
+	 * @return the agent's private ID
+	 */
+	public Integer register(Agent agent);
+
+	/**
+	 * Takes a message from an agent
+	 * @param agent : the sender
+	 * @param message
+	 */
+	public void receive(Agent agent, Message message);
+}
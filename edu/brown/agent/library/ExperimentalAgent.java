@@ -1,6 +1,7 @@
 package brown.agent.library;
 
 import brown.agent.Agent;
+import brown.agent.LocalServer;
 import brown.exceptions.AgentCreationException;
 import brown.markets.ContinuousDoubleAuction;
 import brown.markets.SimpleAuction;
@@ -26,6 +27,14 @@ public abstract class ExperimentalAgent extends Agent {
 		this.CURRENTTIME = 0;
 	}
 
+	public ExperimentalAgent(LocalServer server, double signal) {
+		super(server);
+		this.SIGNAL = signal;
+		this.BUDGET = 0;
+		this.TIME = -1;
+		this.CURRENTTIME = 0;
+	}
+
 	@Override
 	public void onSimpleSealed(SimpleAuction simpleWrapper) {
 		// Noop
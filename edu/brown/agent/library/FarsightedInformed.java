@@ -1,5 +1,6 @@
 package brown.agent.library;
 
+import brown.agent.LocalServer;
 import brown.assets.value.TradeableType;
 import brown.exceptions.AgentCreationException;
 import brown.markets.LMSR;
@@ -12,6 +13,10 @@ public class FarsightedInformed extends ShortsightedInformed {
 		super(host, port, gameSetup, signal);
 	}
 
+	public FarsightedInformed(LocalServer server, double signal) {
+		super(server, signal);
+	}
+
 	@Override
 	public void onLMSR(LMSR market) {
 		this.SIGNAL = market.getTradeableType().TYPE.equals(TradeableType.PredictionYes) ?
@@ -1,5 +1,6 @@
 package brown.agent.library;
 
+import brown.agent.LocalServer;
 import brown.assets.value.TradeableType;
 import brown.exceptions.AgentCreationException;
 import brown.markets.LMSR;
@@ -10,6 +11,10 @@ public class FarsightedUninformed extends ShortsightedInformed {
 	public FarsightedUninformed(String host, int port, Setup gameSetup) throws AgentCreationException {
 		super(host, port, gameSetup, 1);
 	}
+
+	public FarsightedUninformed(LocalServer server) {
+		super(server, 1);
+	}
 	
 	@Override
 	public void onLMSR(LMSR market) {
@@ -1,5 +1,6 @@
 package brown.agent.library;
 
+import brown.agent.LocalServer;
 import brown.assets.value.TradeableType;
 import brown.exceptions.AgentCreationException;
 import brown.markets.LMSR;
@@ -11,6 +12,10 @@ public class ShortsightedInformed extends ExperimentalAgent {
 		super(host, port, gameSetup, signal);
 	}
 
+	public ShortsightedInformed(LocalServer server, double signal) {
+		super(server, signal);
+	}
+
 	@Override
 	public void onLMSR(LMSR market) {
 		if (market.getTradeableType().TYPE.equals(TradeableType.PredictionYes)) {
@@ -1,5 +1,6 @@
 package brown.agent.library;
 
+import brown.agent.LocalServer;
 import brown.assets.value.TradeableType;
 import brown.exceptions.AgentCreationException;
 import brown.markets.LMSR;
@@ -11,6 +12,10 @@ public class ShortsightedUninformed extends ShortsightedInformed {
 		super(host, port, gameSetup, 1);
 	}
 
+	public ShortsightedUninformed(LocalServer server) {
+		super(server, 1);
+	}
+
 	@Override
 	public void onLMSR(LMSR market) {
 		if (market.getTradeableType().TYPE.equals(TradeableType.PredictionYes)) {
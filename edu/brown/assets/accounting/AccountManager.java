@@ -7,24 +7,90 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class AccountManager {
 	private Map<Integer, Account> accounts;
+	// One per agent, for every change to its account
+	private final Map<Integer, Object> LOCKS;
+	// Money set aside for each agent's buys waiting to be matched
+	private final Map<Integer, Double> HELD;
 
 	/**
 	 * a manager that stores accounts for use in the server.
 	 */
 	public AccountManager() {
 		this.accounts = new ConcurrentHashMap<Integer, Account>();
+		this.LOCKS = new ConcurrentHashMap<Integer, Object>();
+		this.HELD = new ConcurrentHashMap<Integer, Double>();
 	}
 	
 	public void setAccount(Integer ID, Account account) {
-		synchronized (ID) {
+		synchronized (this.getLock(ID)) {
 			accounts.put(ID, account);
 		}
 	}
+
+	/**
+	 * The object to hold while reading an agent's account and setting a
+	 * new one. Boxed IDs are not shared between threads, so they cannot
+	 * be locked on.
+	 * @param ID : owner ID
+	 * @return the same object for every call with an equal ID
+	 */
+	public Object getLock(Integer ID) {
+		Object lock = this.LOCKS.get(ID);
+		if (lock == null) {
+			Object fresh = new Object();
+			lock = this.LOCKS.putIfAbsent(ID, fresh);
+			if (lock == null) {
+				lock = fresh;
+			}
+		}
+		return lock;
+	}
 	
 
 	public Account getAccount(Integer ID) {
 		return accounts.get(ID);
 	}
+
+	/**
+	 * Monies an agent has not set aside for buys waiting to be matched.
+	 * Hold getLock(ID) from reading this until the order is held.
+	 * @param ID : owner ID
+	 * @return spendable monies
+	 */
+	public double getSpendable(Integer ID) {
+		Double held = this.HELD.get(ID);
+		return accounts.get(ID).monies - (held == null ? 0 : held);
+	}
+
+	/**
+	 * Sets monies aside for an order; they stay in the account
+	 * @param ID : owner ID
+	 * @param amount
+	 */
+	public void hold(Integer ID, double amount) {
+		synchronized (this.getLock(ID)) {
+			Double held = this.HELD.get(ID);
+			this.HELD.put(ID, (held == null ? 0 : held) + amount);
+		}
+	}
+
+	/**
+	 * Gives back monies held for an order once it is rejected, traded
+	 * or left resting
+	 * @param ID : owner ID
+	 * @param amount : as held
+	 */
+	public void release(Integer ID, double amount) {
+		synchronized (this.getLock(ID)) {
+			Double held = this.HELD.get(ID);
+			double left = (held == null ? 0 : held) - amount;
+			if (left > 0) {
+				this.HELD.put(ID, left);
+			} else {
+				this.HELD.remove(ID);
+			}
+		}
+	}
 	
 	public List<Account> getAccounts() {
 		List<Account> accountsList = new ArrayList<Account>(accounts.values());
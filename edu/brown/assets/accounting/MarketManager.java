@@ -9,6 +9,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import brown.markets.Market;
 import brown.markets.TwoSidedAuction;
 import brown.server.AgentServer;
+import brown.server.MatchingEngine;
+import brown.server.MatchingEngine.Result;
+import brown.server.RingBuffer;
 import brown.setup.Logging;
 import brown.states.StateOfTheWorld;
 import brown.tradeables.Tradeable;
@@ -18,12 +21,19 @@ public class MarketManager {
 	private Map<Integer, Market> tsauctions;
 	
 	private Map<Integer, TwoSidedAuction> twosided;
+	// Worker owning each two-sided market once sharded
+	private Map<Integer, MatchingEngine> owners;
+	private MatchingEngine[] shards;
+	private int nextShard;
 
 	public MarketManager() {
 		this.ledgers = new ConcurrentHashMap<Market, Ledger>();
 		this.tsauctions = new ConcurrentHashMap<Integer, Market>();
 		
 		this.twosided = new ConcurrentHashMap<Integer,TwoSidedAuction>();
+		this.owners = new ConcurrentHashMap<Integer, MatchingEngine>();
+		this.shards = null;
+		this.nextShard = 0;
 	}
 	
 	/**
@@ -159,12 +169,17 @@ public class MarketManager {
 	}
 
 	/**
-	 * Gets the ledger for this market ID
+	 * Gets the ledger for this market ID; sharded two-sided markets
+	 * keep theirs in their shard
 	 * @param ID
 	 * @return
 	 */
 	public Ledger getLedger(Integer ID) {
-		return ledgers.get(tsauctions.get(ID));
+		Market market = tsauctions.get(ID);
+		if (market == null && this.owners.containsKey(ID)) {
+			return this.owners.get(ID).getLedger(ID);
+		}
+		return ledgers.get(market);
 	}
 
 	/**
@@ -188,8 +203,96 @@ public class MarketManager {
 		return this.twosided.get(marketID);
 	}
 
-	public void openTwoSided(TwoSidedAuction tsa) {
+	/**
+	 * Gets all of the two-sided markets
+	 * @return
+	 */
+	public Collection<TwoSidedAuction> getAllTwoSided() {
+		return this.twosided.values();
+	}
+
+	public synchronized void openTwoSided(TwoSidedAuction tsa) {
 		this.twosided.put(tsa.getID(), tsa);
+		if (this.shards != null) {
+			this.assign(tsa);
+		}
+	}
+
+	/**
+	 * Pins every two-sided market, open now or later, to one of workers
+	 * matching threads, dealing them out in the order they opened.
+	 * Markets on different workers match in parallel; markets sharing a
+	 * worker are matched one order at a time.
+	 * @param workers : matching threads
+	 * @param capacity : orders that may wait per worker
+	 * @param outbound : where every worker sends its results
+	 */
+	public synchronized void shard(int workers, int capacity, RingBuffer<Result> outbound) {
+		if (this.shards != null || workers <= 0) {
+			throw new IllegalStateException();
+		}
+		this.shards = new MatchingEngine[workers];
+		for (int i = 0; i < workers; i++) {
+			this.shards[i] = new MatchingEngine("matching-" + i, capacity, outbound);
+		}
+		for (TwoSidedAuction tsa : this.twosided.values()) {
+			this.assign(tsa);
+		}
+		for (MatchingEngine shard : this.shards) {
+			shard.start();
+		}
+	}
+
+	/**
+	 * Stops every worker once it has matched everything queued to it.
+	 * Markets stay with their workers, which turn away any more orders,
+	 * until unshard.
+	 */
+	public synchronized void stopShards() {
+		if (this.shards == null) {
+			return;
+		}
+		for (MatchingEngine shard : this.shards) {
+			shard.stop();
+		}
+	}
+
+	/**
+	 * Stops every worker; two-sided markets are no longer sharded. The
+	 * workers' results should be settled before this.
+	 */
+	public synchronized void unshard() {
+		if (this.shards == null) {
+			return;
+		}
+		this.stopShards();
+		this.owners.clear();
+		this.shards = null;
+		this.nextShard = 0;
+	}
+
+	private void assign(TwoSidedAuction tsa) {
+		MatchingEngine shard = this.shards[this.nextShard++ % this.shards.length];
+		shard.open(tsa);
+		this.owners.put(tsa.getID(), shard);
+	}
+
+	/**
+	 * Worker that owns a two-sided market
+	 * @param marketID
+	 * @return worker, or null if the market is matched inline
+	 */
+	public MatchingEngine getShard(Integer marketID) {
+		return this.owners.get(marketID);
+	}
+
+	/**
+	 * Number of matching workers
+	 * @return workers, or 0 if not sharded
+	 */
+	public int getShardCount() {
+		MatchingEngine[] current = this.shards;
+		return current == null ? 0 : current.length;
 	}
 
 
@@ -3,5 +3,6 @@ package brown.assets.value;
 public enum TradeableType {
 	PredictionYes,
 	PredictionNo,
-	Custom, Good;
+	Custom, Good,
+	PredictionOutcome;
 }
@@ -0,0 +1,221 @@
+package brown.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
+import brown.rules.clearingrules.ClearingRule;
+import brown.rules.clearingrules.ClosestMatchClearing;
+import brown.rules.clearingrules.LowestPriceClearing;
+import brown.rules.clearingrules.PriceLadderClearing;
+import brown.rules.clearingrules.UniformPriceClearing;
+import brown.tradeables.Tradeable;
+
+/**
+ * Replays synthetic order flows through every clearing rule, calling
+ * the ClearingRule interface directly, and reports for each pair:
+ *
+ * - throughput, from an untimed pass over the flow
+ * - latency percentiles, from a pass timing each op on its own; these
+ *   include the cost of reading the clock, which is printed first
+ * - bytes allocated per op on the benchmark thread, where the JVM
+ *   can count them
+ *
+ * Each iteration starts from an empty rule. Warmup iterations are run
+ * and thrown away first so the rules are compiled before measuring.
+ *
+ * Usage: ClearingRuleBenchmark [ops] [iterations] [rule]
+ */
+public class ClearingRuleBenchmark {
+	private static final FullType TYPE = new FullType(TradeableType.Good, 0);
+	private static final int WARMUP = 3;
+	private static final long SEED = 20170301;
+
+	private final Map<String, Supplier<ClearingRule>> RULES;
+	private final OrderFlow[] FLOWS;
+	private final int ITERATIONS;
+	private final ThreadMXBean THREADS;
+	private final boolean COUNTING;
+
+	// Keeps results live so matching cannot be optimized away
+	private long sink;
+
+	/**
+	 * Constructor
+	 * @param ops : operations in each flow
+	 * @param iterations : measured replays of each flow per rule
+	 */
+	public ClearingRuleBenchmark(int ops, int iterations) {
+		this.RULES = new LinkedHashMap<String, Supplier<ClearingRule>>();
+		this.RULES.put("ClosestMatch", ClosestMatchClearing::new);
+		this.RULES.put("LowestPrice", LowestPriceClearing::new);
+		this.RULES.put("PriceLadder", PriceLadderClearing::new);
+		this.RULES.put("UniformPrice", UniformPriceClearing::new);
+		this.FLOWS = new OrderFlow[] {
+				OrderFlow.uniform(ops, SEED),
+				OrderFlow.clustered(ops, SEED),
+				OrderFlow.marketMaking(ops, SEED),
+				OrderFlow.sweeps(ops, SEED) };
+		this.ITERATIONS = iterations;
+		this.THREADS = ManagementFactory.getThreadMXBean();
+		this.COUNTING = this.THREADS instanceof com.sun.management.ThreadMXBean;
+		this.sink = 0;
+	}
+
+	/**
+	 * Runs every flow against the named rules
+	 * @param only : rule to run, or null for all of them
+	 */
+	public void run(String only) {
+		System.out.println("clock read: " + this.clock() + " ns");
+		System.out.println(String.format("%-13s %-13s %12s %8s %8s %8s %8s %10s %10s",
+				"rule", "flow", "ops/s", "p50", "p90", "p99", "p99.9", "max", "bytes/op"));
+		for (Map.Entry<String, Supplier<ClearingRule>> rule : this.RULES.entrySet()) {
+			if (only != null && !only.equals(rule.getKey())) {
+				continue;
+			}
+			for (OrderFlow flow : this.FLOWS) {
+				this.measure(rule.getKey(), rule.getValue(), flow);
+			}
+		}
+		if (this.sink == 42) {
+			System.out.println();
+		}
+	}
+
+	private void measure(String name, Supplier<ClearingRule> rules, OrderFlow flow) {
+		int n = flow.size();
+		for (int w = 0; w < WARMUP; w++) {
+			this.replay(rules.get(), flow, this.goods(flow), new long[n], null);
+			this.replay(rules.get(), flow, this.goods(flow), new long[n], new long[n]);
+		}
+
+		long elapsed = 0;
+		long allocated = 0;
+		long[] latencies = new long[n * this.ITERATIONS];
+		long[] each = new long[n];
+		long[] ids = new long[n];
+		for (int i = 0; i < this.ITERATIONS; i++) {
+			Tradeable[] goods = this.goods(flow);
+			ClearingRule rule = rules.get();
+			long bytes = this.allocated();
+			long start = System.nanoTime();
+			this.replay(rule, flow, goods, ids, null);
+			elapsed += System.nanoTime() - start;
+			allocated += this.allocated() - bytes;
+
+			this.replay(rules.get(), flow, this.goods(flow), ids, each);
+			System.arraycopy(each, 0, latencies, i * n, n);
+		}
+
+		Arrays.sort(latencies);
+		long ops = (long) n * this.ITERATIONS;
+		System.out.println(String.format("%-13s %-13s %12.0f %8d %8d %8d %8d %10d %10s",
+				name, flow.NAME, ops / (elapsed / 1e9),
+				percentile(latencies, .5), percentile(latencies, .9),
+				percentile(latencies, .99), percentile(latencies, .999),
+				latencies[latencies.length - 1],
+				!this.COUNTING ? "n/a" : String.format("%.1f", (double) allocated / ops)));
+	}
+
+	/*
+	 * Applies every op in the flow to the rule, noting the ID of each
+	 * order left resting in ids, and timing each op into latencies if
+	 * it is given
+	 */
+	private void replay(ClearingRule rule, OrderFlow flow, Tradeable[] goods,
+			long[] ids, long[] latencies) {
+		long start = 0;
+		for (int i = 0; i < flow.size(); i++) {
+			if (latencies != null) {
+				start = System.nanoTime();
+			}
+
+			Integer agent = flow.AGENT[i];
+			switch (flow.KIND[i]) {
+			case OrderFlow.BUY:
+				this.sink += rule.buy(agent, flow.QUANTITY[i], flow.PRICE[i]).size();
+				ids[i] = rule.lastOrderID();
+				break;
+			case OrderFlow.SELL:
+				this.sink += rule.sell(agent, goods[i], flow.PRICE[i]).size();
+				ids[i] = rule.lastOrderID();
+				break;
+			case OrderFlow.CANCEL:
+				int target = flow.TARGET[i];
+				if (ids[target] != -1) {
+					rule.cancel(agent, ids[target]);
+				} else {
+					rule.cancel(agent, flow.KIND[target] == OrderFlow.BUY,
+							flow.QUANTITY[i], flow.PRICE[i]);
+				}
+				break;
+			case OrderFlow.QUOTE:
+				double cost = flow.KIND[flow.TARGET[i]] == OrderFlow.BUY
+						? rule.quoteBid(flow.QUANTITY[i], flow.PRICE[i])
+						: rule.quoteAsk(flow.QUANTITY[i], flow.PRICE[i]);
+				this.sink += (long) cost;
+				break;
+			default:
+				this.sink += rule.tick(i).size();
+			}
+
+			if (latencies != null) {
+				latencies[i] = System.nanoTime() - start;
+			}
+		}
+	}
+
+	/*
+	 * A fresh tradeable for each sell, made before the clock starts
+	 */
+	private Tradeable[] goods(OrderFlow flow) {
+		Tradeable[] goods = new Tradeable[flow.size()];
+		for (int i = 0; i < goods.length; i++) {
+			if (flow.KIND[i] == OrderFlow.SELL) {
+				goods[i] = new Tradeable(TYPE, flow.QUANTITY[i], flow.AGENT[i]);
+			}
+		}
+		return goods;
+	}
+
+	/*
+	 * Bytes this thread has allocated so far, or 0 if the JVM does not
+	 * count them
+	 */
+	private long allocated() {
+		if (!this.COUNTING) {
+			return 0;
+		}
+		return ((com.sun.management.ThreadMXBean) this.THREADS)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/*
+	 * Median time to read the clock twice, which every timed op pays
+	 */
+	private long clock() {
+		long[] reads = new long[100001];
+		for (int i = 0; i < reads.length; i++) {
+			long start = System.nanoTime();
+			reads[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(reads);
+		return reads[reads.length / 2];
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+	}
+
+	public static void main(String[] args) {
+		int ops = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		new ClearingRuleBenchmark(ops, iterations).run(args.length > 2 ? args[2] : null);
+	}
+}
@@ -0,0 +1,183 @@
+package brown.benchmarks;
+
+import java.util.Random;
+
+/**
+ * A synthetic stream of order operations, generated up front so that
+ * replaying it against a clearing rule measures only the rule. Every
+ * flow is seeded, so each rule sees the same orders.
+ */
+public class OrderFlow {
+	public static final byte BUY = 0;
+	public static final byte SELL = 1;
+	public static final byte CANCEL = 2;
+	public static final byte QUOTE = 3;
+	public static final byte TICK = 4;
+
+	// Price grid every flow is rounded to
+	private static final double CENT = .01;
+	// Ops between ticks, for rules that only clear on tick
+	private static final int TICKEVERY = 64;
+
+	public final String NAME;
+	public final byte[] KIND;
+	public final int[] AGENT;
+	public final double[] QUANTITY;
+	public final double[] PRICE;
+	// For cancels, the op that placed the order being cancelled, and
+	// for quotes, the order whose side is quoted
+	public final int[] TARGET;
+
+	private int size;
+	private int nextTick;
+
+	private OrderFlow(String name, int ops) {
+		this.NAME = name;
+		this.KIND = new byte[ops];
+		this.AGENT = new int[ops];
+		this.QUANTITY = new double[ops];
+		this.PRICE = new double[ops];
+		this.TARGET = new int[ops];
+		this.size = 0;
+		this.nextTick = TICKEVERY;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Buys and sells at prices spread evenly over the ladder, so most
+	 * orders rest on a level of their own
+	 * @param ops
+	 * @param seed
+	 * @return flow
+	 */
+	public static OrderFlow uniform(int ops, long seed) {
+		Random random = new Random(seed);
+		OrderFlow flow = new OrderFlow("uniform", ops);
+		while (flow.room()) {
+			boolean buy = random.nextBoolean();
+			flow.order(buy, random.nextInt(100), 1 + random.nextInt(10),
+					1 + random.nextDouble() * 99);
+		}
+		return flow;
+	}
+
+	/**
+	 * Buys and sells bunched a few cents either side of a drifting
+	 * price, so levels are deep and most orders cross
+	 * @param ops
+	 * @param seed
+	 * @return flow
+	 */
+	public static OrderFlow clustered(int ops, long seed) {
+		Random random = new Random(seed);
+		OrderFlow flow = new OrderFlow("clustered", ops);
+		double mid = 50;
+		while (flow.room()) {
+			mid = Math.min(Math.max(mid + random.nextGaussian() * CENT, 10), 90);
+			boolean buy = random.nextBoolean();
+			flow.order(buy, random.nextInt(100), 1 + random.nextInt(10),
+					mid + random.nextGaussian() * 5 * CENT);
+		}
+		return flow;
+	}
+
+	/**
+	 * A handful of market makers quoting both sides around a drifting
+	 * price, cancelling and requoting every step, with the odd taker
+	 * crossing the spread
+	 * @param ops
+	 * @param seed
+	 * @return flow
+	 */
+	public static OrderFlow marketMaking(int ops, long seed) {
+		Random random = new Random(seed);
+		OrderFlow flow = new OrderFlow("marketmaking", ops);
+		int makers = 8;
+		int[] bids = new int[makers];
+		int[] asks = new int[makers];
+		for (int m = 0; m < makers; m++) {
+			bids[m] = -1;
+			asks[m] = -1;
+		}
+
+		double mid = 50;
+		while (flow.room()) {
+			mid = Math.min(Math.max(mid + random.nextGaussian() * CENT, 10), 90);
+			int maker = random.nextInt(makers);
+			double spread = (1 + random.nextInt(5)) * CENT;
+			if (random.nextInt(10) == 0) {
+				boolean buy = random.nextBoolean();
+				flow.order(buy, makers + random.nextInt(100), 1 + random.nextInt(5),
+						buy ? mid + 10 * CENT : mid - 10 * CENT);
+				continue;
+			}
+
+			flow.cancel(bids[maker]);
+			flow.cancel(asks[maker]);
+			bids[maker] = flow.order(true, maker, 5, mid - spread);
+			asks[maker] = flow.order(false, maker, 5, mid + spread);
+		}
+		return flow;
+	}
+
+	/**
+	 * Many small orders resting over a wide range of levels, broken up
+	 * by large orders that sweep through dozens of them
+	 * @param ops
+	 * @param seed
+	 * @return flow
+	 */
+	public static OrderFlow sweeps(int ops, long seed) {
+		Random random = new Random(seed);
+		OrderFlow flow = new OrderFlow("sweeps", ops);
+		while (flow.room()) {
+			boolean buy = random.nextBoolean();
+			if (random.nextInt(20) == 0) {
+				flow.order(buy, random.nextInt(100), 50 + random.nextInt(100),
+						buy ? 99 : 1);
+			} else {
+				double offset = 1 + random.nextDouble() * 40;
+				flow.order(buy, random.nextInt(100), 1, buy ? 50 - offset : 50 + offset);
+			}
+		}
+		return flow;
+	}
+
+	/*
+	 * Whether there is room for one more step of any flow, which adds
+	 * at most two cancels and two orders, each with a quote and a tick
+	 */
+	private boolean room() {
+		return this.size + 8 <= this.KIND.length;
+	}
+
+	private int order(boolean buy, int agent, double quantity, double price) {
+		int op = this.add(buy ? BUY : SELL, agent, quantity, Math.round(price / CENT) * CENT, -1);
+		if (op % 16 == 15) {
+			this.add(QUOTE, agent, quantity, buy ? 100 : 0, op);
+		}
+		if (this.size >= this.nextTick) {
+			this.add(TICK, 0, 0, 0, -1);
+			this.nextTick += TICKEVERY;
+		}
+		return op;
+	}
+
+	private void cancel(int op) {
+		if (op != -1) {
+			this.add(CANCEL, this.AGENT[op], this.QUANTITY[op], this.PRICE[op], op);
+		}
+	}
+
+	private int add(byte kind, int agent, double quantity, double price, int target) {
+		this.KIND[this.size] = kind;
+		this.AGENT[this.size] = agent;
+		this.QUANTITY[this.size] = quantity;
+		this.PRICE[this.size] = price;
+		this.TARGET[this.size] = target;
+		return this.size++;
+	}
+}
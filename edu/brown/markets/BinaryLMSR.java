@@ -0,0 +1,95 @@
+package brown.markets;
+
+import brown.agent.Agent;
+import brown.assets.accounting.Ledger;
+import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
+
+/**
+ * An agent's view of a binary LMSR market. One update holds the market
+ * maker, so it carries the yes and the no price together; agents see it
+ * as the two LMSR views from side(), the no side first, each placing
+ * orders in its own side of the one market.
+ */
+public class BinaryLMSR implements ITwoSidedAuction, ITwoSidedPriceTaker {
+	private final BinaryLMSRServer LMSR;
+	private final Ledger LEDGER;
+
+	public BinaryLMSR() {
+		this.LMSR = null;
+		this.LEDGER = null;
+	}
+
+	public BinaryLMSR(BinaryLMSRServer lmsr, Ledger ledger) {
+		this.LMSR = lmsr;
+		this.LEDGER = ledger;
+	}
+
+	/**
+	 * Gets one side of the market
+	 * @param direction : true for yes, false for no
+	 * @return the side, whose orders name it
+	 */
+	public LMSR side(boolean direction) {
+		TradeableType side = direction ? TradeableType.PredictionYes
+				: TradeableType.PredictionNo;
+		return new LMSR(this.LMSR.side(side), this.LEDGER, side);
+	}
+
+	/**
+	 * Gets the price of one side
+	 * @param direction : true for yes, false for no
+	 * @return price : double
+	 */
+	public double price(boolean direction) {
+		return this.LMSR.price(direction);
+	}
+
+	@Override
+	public Integer getAuctionID() {
+		return this.LMSR.getID();
+	}
+
+	@Override
+	public FullType getTradeableType() {
+		return this.LMSR.getTradeableType();
+	}
+
+	@Override
+	public void buy(Agent agent, double shareNum, double maxPrice) {
+		this.side(true).buy(agent, shareNum, maxPrice);
+	}
+
+	@Override
+	public void sell(Agent agent, double shareNum, double maxPrice) {
+		this.side(true).sell(agent, shareNum, maxPrice);
+	}
+
+	@Override
+	public void cancel(Agent agent, boolean buy, double shareNum,
+			double maxPrice) {
+		this.side(true).cancel(agent, buy, shareNum, maxPrice);
+	}
+
+	@Override
+	public double quoteBid(double shareNum) {
+		return this.LMSR.quoteBid(shareNum, -1);
+	}
+
+	@Override
+	public double quoteAsk(double shareNum) {
+		return this.LMSR.quoteAsk(shareNum, -1);
+	}
+
+	@Override
+	public void dispatchMessage(Agent agent) {
+		agent.onLMSR(this.side(false));
+		agent.onLMSR(this.side(true));
+	}
+
+	@Override
+	public Ledger getLedger() {
+		return this.LEDGER;
+	}
+
+}
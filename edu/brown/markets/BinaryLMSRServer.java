@@ -0,0 +1,227 @@
+package brown.markets;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+
+import brown.assets.accounting.Ledger;
+import brown.assets.accounting.Order;
+import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
+import brown.auctions.arules.MechanismType;
+import brown.messages.markets.BookUpdate;
+import brown.messages.markets.OrderType;
+import brown.rules.clearingrules.LMSRBatch;
+import brown.tradeables.Tradeable;
+
+/**
+ * Both sides of a binary LMSR market as one market. Yes and no orders
+ * arrive under the same ID, naming their side, so they share one lock
+ * and one ledger, and a single update carries the market maker and with
+ * it both prices.
+ *
+ * Orders that name no side trade yes, as a lone LMSRServer for yes
+ * would; side() gives the market an order for the no side trades in.
+ */
+public class BinaryLMSRServer implements LMSRMarket {
+	private final Integer ID;
+	private final LMSRServer YES;
+	private final LMSRServer NO;
+	private final LMSRBackend BACKEND;
+
+	public BinaryLMSRServer() {
+		this.ID = null;
+		this.YES = null;
+		this.NO = null;
+		this.BACKEND = null;
+	}
+
+	/**
+	 * Constructor
+	 * @param ID
+	 * @param backend
+	 * @param shortSelling
+	 */
+	public BinaryLMSRServer(Integer ID, LMSRBackend backend, boolean shortSelling) {
+		this.ID = ID;
+		this.YES = new LMSRServer(ID, true, backend, shortSelling);
+		this.NO = new LMSRServer(ID, false, backend, shortSelling);
+		this.BACKEND = backend;
+	}
+
+	/**
+	 * Constructor for a market that fills in batches on tick, netting
+	 * the yes and no orders against each other
+	 * @param ID
+	 * @param batch
+	 * @param shortSelling
+	 */
+	public BinaryLMSRServer(Integer ID, LMSRBatch batch, boolean shortSelling) {
+		this.ID = ID;
+		this.YES = new LMSRServer(ID, true, batch, shortSelling);
+		this.NO = new LMSRServer(ID, false, batch, shortSelling);
+		this.BACKEND = batch.getBackend();
+	}
+
+	/**
+	 * The side an order trades in. Both sides have this market's ID, so
+	 * trades in either are settled and logged as this market's.
+	 * @param side : PredictionNo for no, anything else for yes
+	 * @return market for that side
+	 */
+	public LMSRServer side(TradeableType side) {
+		return side == TradeableType.PredictionNo ? this.NO : this.YES;
+	}
+
+	/**
+	 * Gets the price of one side
+	 * @param direction : true for yes, false for no
+	 * @return price
+	 */
+	public double price(boolean direction) {
+		return this.BACKEND.price(direction);
+	}
+
+	public LMSRBackend getBackend() {
+		return this.BACKEND;
+	}
+
+	@Override
+	public Integer getID() {
+		return this.ID;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return false;
+	}
+
+	@Override
+	public MechanismType getMechanismType() {
+		return MechanismType.LMSR;
+	}
+
+	@Override
+	public FullType getTradeableType() {
+		return this.YES.getTradeableType();
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice) {
+		return this.YES.buy(agentID, shareNum, sharePrice);
+	}
+
+	/**
+	 * Sells into the side the shares were bought in
+	 */
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice) {
+		return this.side(opp.getType().TYPE).sell(agentID, opp, sharePrice);
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		return this.YES.buy(agentID, shareNum, sharePrice, type);
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		return this.side(opp.getType().TYPE).sell(agentID, opp, sharePrice, type);
+	}
+
+	@Override
+	public double quoteBid(double shareNum, double sharePrice) {
+		return this.YES.quoteBid(shareNum, sharePrice);
+	}
+
+	@Override
+	public double quoteAsk(double shareNum, double sharePrice) {
+		return this.YES.quoteAsk(shareNum, sharePrice);
+	}
+
+	@Override
+	public SortedMap<Double, Set<Order>> getBuyBook() {
+		// Noop
+		return null;
+	}
+
+	@Override
+	public SortedMap<Double, Set<Order>> getSellBook() {
+		// Noop
+		return null;
+	}
+
+	/**
+	 * Fills a batched market if it is due
+	 * @return fills on both sides
+	 */
+	@Override
+	public List<Order> tick(double time) {
+		List<Order> trans = new LinkedList<Order>(this.YES.tick(time));
+		trans.addAll(this.NO.tick(time));
+		return trans;
+	}
+
+	@Override
+	public ITwoSidedAuction wrap(Ledger ledger) {
+		return new BinaryLMSR(this, ledger);
+	}
+
+	@Override
+	public boolean permitShort() {
+		return this.YES.permitShort();
+	}
+
+	@Override
+	public void cancel(Integer agentID, boolean buy, double shareNum,
+			double sharePrice) {
+		// Noop
+	}
+
+	@Override
+	public BookUpdate getBookUpdate() {
+		// Noop
+		return null;
+	}
+
+	@Override
+	public long lastOrderID() {
+		// Noop
+		return -1;
+	}
+
+	@Override
+	public boolean cancel(Integer agentID, long orderID) {
+		// Noop
+		return false;
+	}
+
+	@Override
+	public boolean amend(Integer agentID, long orderID, double shareNum,
+			double budget) {
+		// Noop
+		return false;
+	}
+
+	@Override
+	public double price() {
+		return this.YES.price();
+	}
+
+	@Override
+	public double moniesToShares(double monies) {
+		return this.YES.moniesToShares(monies);
+	}
+
+	@Override
+	public double priceToShares(double price) {
+		return this.YES.priceToShares(price);
+	}
+
+	@Override
+	public long getSequence() {
+		return this.BACKEND.getSequence();
+	}
+
+}
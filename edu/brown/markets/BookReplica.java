@@ -0,0 +1,75 @@
+package brown.markets;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import brown.assets.value.FullType;
+import brown.messages.markets.BookUpdate;
+
+/**
+ * Agent side copy of a market's aggregated book, kept current by
+ * applying BookUpdates in sequence. After a missed sequence the
+ * replica ignores deltas until the next snapshot arrives.
+ */
+public class BookReplica {
+	private final Integer MARKETID;
+	private final FullType TYPE;
+	private final SortedMap<Double, Double> BUYBOOK;
+	private final SortedMap<Double, Double> SELLBOOK;
+	private long sequence;
+
+	public BookReplica(Integer marketID, FullType type) {
+		this.MARKETID = marketID;
+		this.TYPE = type;
+		this.BUYBOOK = new TreeMap<Double, Double>();
+		this.SELLBOOK = new TreeMap<Double, Double>();
+		this.sequence = -1;
+	}
+
+	/**
+	 * Applies an update
+	 * @param update
+	 * @return true if the replica is now current
+	 */
+	public boolean apply(BookUpdate update) {
+		if (update.SNAPSHOT) {
+			this.BUYBOOK.clear();
+			this.SELLBOOK.clear();
+		} else if (this.sequence == -1 || update.SEQUENCE != this.sequence + 1) {
+			this.sequence = -1;
+			return false;
+		}
+
+		apply(this.BUYBOOK, update.BIDPRICES, update.BIDQUANTITIES);
+		apply(this.SELLBOOK, update.ASKPRICES, update.ASKQUANTITIES);
+		this.sequence = update.SEQUENCE;
+		return true;
+	}
+
+	private static void apply(SortedMap<Double, Double> book, double[] prices, double[] quantities) {
+		for (int i = 0; i < prices.length; i++) {
+			if (quantities[i] > 0) {
+				book.put(prices[i], quantities[i]);
+			} else {
+				book.remove(prices[i]);
+			}
+		}
+	}
+
+	/**
+	 * Last sequence applied
+	 * @return sequence, or -1 while waiting for a snapshot
+	 */
+	public long getSequence() {
+		return this.sequence;
+	}
+
+	/**
+	 * Wraps the live book for agents; the maps are shared, not copied
+	 * @return wrapper
+	 */
+	public ContinuousDoubleAuction wrap() {
+		return new ContinuousDoubleAuction(this.MARKETID, this.TYPE, 
+				this.BUYBOOK, this.SELLBOOK, null);
+	}
+}
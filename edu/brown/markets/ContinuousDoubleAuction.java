@@ -10,6 +10,7 @@ import brown.assets.accounting.Ledger;
 import brown.assets.accounting.Order;
 import brown.assets.value.FullType;
 import brown.messages.markets.MarketOrder;
+import brown.messages.markets.OrderType;
 
 public class ContinuousDoubleAuction implements ITwoSidedPriceSetter {
 	private final Integer MARKETID;
@@ -18,6 +19,13 @@ public class ContinuousDoubleAuction implements ITwoSidedPriceSetter {
 	private final SortedMap<Double, Double> SELLBOOK;
 	private final Ledger LEDGER;
 	
+	private transient double[] bidPrices;
+	private transient double[] bidDepth;
+	private transient double[] bidNotional;
+	private transient double[] askPrices;
+	private transient double[] askDepth;
+	private transient double[] askNotional;
+	
 	public ContinuousDoubleAuction() {
 		this.TYPE = null;
 		this.MARKETID = null;
@@ -50,6 +58,23 @@ public class ContinuousDoubleAuction implements ITwoSidedPriceSetter {
 		}
 	}
 
+	/**
+	 * Wraps an aggregated book without copying it
+	 * @param marketID
+	 * @param type
+	 * @param buyBook : price to resting quantity
+	 * @param sellBook : price to resting quantity
+	 * @param ledger
+	 */
+	public ContinuousDoubleAuction(Integer marketID, FullType type, 
+			SortedMap<Double, Double> buyBook, SortedMap<Double, Double> sellBook, Ledger ledger) {
+		this.MARKETID = marketID;
+		this.TYPE = type;
+		this.BUYBOOK = buyBook;
+		this.SELLBOOK = sellBook;
+		this.LEDGER = ledger;
+	}
+
 	@Override
 	public Integer getAuctionID() {
 		return this.MARKETID;
@@ -62,24 +87,116 @@ public class ContinuousDoubleAuction implements ITwoSidedPriceSetter {
 
 	@Override
 	public void buy(Agent agent, double shareNum, double sharePrice) {
-		agent.CLIENT.sendTCP(new MarketOrder(0,this.MARKETID, shareNum, 0, sharePrice));
+		agent.send(new MarketOrder(0,this.MARKETID, shareNum, 0, sharePrice));
 	}
 
 	@Override
 	public void sell(Agent agent, double shareNum, double sharePrice) {
-		agent.CLIENT.sendTCP(new MarketOrder(0, this.MARKETID, 0, shareNum, sharePrice));
+		agent.send(new MarketOrder(0, this.MARKETID, 0, shareNum, sharePrice));
+	}
+
+	/**
+	 * Buys with a time in force other than a plain limit
+	 * @param agent
+	 * @param shareNum
+	 * @param sharePrice : ignored for market orders
+	 * @param type
+	 */
+	public void buy(Agent agent, double shareNum, double sharePrice, OrderType type) {
+		agent.send(new MarketOrder(0, this.MARKETID, shareNum, 0, sharePrice, type));
+	}
+
+	/**
+	 * Sells with a time in force other than a plain limit
+	 * @param agent
+	 * @param shareNum
+	 * @param sharePrice : ignored for market orders
+	 * @param type
+	 */
+	public void sell(Agent agent, double shareNum, double sharePrice, OrderType type) {
+		agent.send(new MarketOrder(0, this.MARKETID, 0, shareNum, sharePrice, type));
 	}
 
 	@Override
 	public double quoteBid(double shareNum, double sharePrice) {
-		//TODO: Fix
-		return -1;
+		if (this.askDepth == null) {
+			this.askPrices = new double[this.SELLBOOK.size()];
+			this.askDepth = new double[this.SELLBOOK.size()];
+			this.askNotional = new double[this.SELLBOOK.size()];
+			accumulate(this.SELLBOOK, this.askPrices, this.askDepth, this.askNotional, false);
+		}
+		return quote(this.askPrices, this.askDepth, this.askNotional, shareNum, sharePrice, false);
 	}
 
 	@Override
 	public double quoteAsk(double shareNum, double sharePrice) {
-		//TODO: Fix
-		return -1;
+		if (this.bidDepth == null) {
+			this.bidPrices = new double[this.BUYBOOK.size()];
+			this.bidDepth = new double[this.BUYBOOK.size()];
+			this.bidNotional = new double[this.BUYBOOK.size()];
+			accumulate(this.BUYBOOK, this.bidPrices, this.bidDepth, this.bidNotional, true);
+		}
+		return quote(this.bidPrices, this.bidDepth, this.bidNotional, shareNum, sharePrice, true);
+	}
+	
+	/*
+	 * Fills cumulative depth and notional, best level first; books are
+	 * kept in ascending order so bids are read back to front
+	 */
+	private static void accumulate(SortedMap<Double, Double> book, double[] prices, 
+			double[] depth, double[] notional, boolean reverse) {
+		int i = reverse ? prices.length - 1 : 0;
+		for (Map.Entry<Double, Double> level : book.entrySet()) {
+			prices[i] = level.getKey();
+			depth[i] = level.getValue();
+			i += reverse ? -1 : 1;
+		}
+		
+		double shares = 0;
+		double monies = 0;
+		for (i = 0; i < prices.length; i++) {
+			shares += depth[i];
+			monies += depth[i] * prices[i];
+			depth[i] = shares;
+			notional[i] = monies;
+		}
+	}
+	
+	/*
+	 * Cost of taking shareNum from the levels that cross the limit,
+	 * with any remainder valued at the limit; two binary searches
+	 */
+	private static double quote(double[] prices, double[] depth, double[] notional,
+			double shareNum, double sharePrice, boolean bids) {
+		int lo = 0;
+		int hi = prices.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (bids ? prices[mid] >= sharePrice : prices[mid] <= sharePrice) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int crossing = lo;
+		if (crossing == 0 || depth[crossing - 1] < shareNum) {
+			return crossing == 0 ? shareNum * sharePrice
+					: notional[crossing - 1] + (shareNum - depth[crossing - 1]) * sharePrice;
+		}
+
+		lo = 0;
+		hi = crossing - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (depth[mid] < shareNum) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		double before = lo == 0 ? 0 : depth[lo - 1];
+		double spent = lo == 0 ? 0 : notional[lo - 1];
+		return spent + (shareNum - before) * prices[lo];
 	}
 
 	@Override
@@ -95,12 +212,31 @@ public class ContinuousDoubleAuction implements ITwoSidedPriceSetter {
 	@Override
 	public void cancel(Agent agent, boolean buy, double shareNum, double sharePrice) {
 		if (buy) {
-			agent.CLIENT.sendTCP(new MarketOrder(0,this.MARKETID, shareNum, 0, sharePrice, true));
+			agent.send(new MarketOrder(0,this.MARKETID, shareNum, 0, sharePrice, true));
 		} else {
-			agent.CLIENT.sendTCP(new MarketOrder(0, this.MARKETID, 0, shareNum, sharePrice, true));
+			agent.send(new MarketOrder(0, this.MARKETID, 0, shareNum, sharePrice, true));
 		}
 	}
 
+	/**
+	 * Cancels a resting order by the ID it was acked with
+	 * @param agent
+	 * @param orderID
+	 */
+	public void cancel(Agent agent, long orderID) {
+		agent.send(new MarketOrder(0, this.MARKETID, orderID));
+	}
+	
+	/**
+	 * Changes the open quantity of a resting order
+	 * @param agent
+	 * @param orderID
+	 * @param shareNum : new open quantity
+	 */
+	public void amend(Agent agent, long orderID, double shareNum) {
+		agent.send(new MarketOrder(0, this.MARKETID, orderID, shareNum));
+	}
+
 	@Override
 	public void dispatchMessage(Agent agent) {
 		agent.onContinuousDoubleAuction(this);
@@ -3,20 +3,44 @@ package brown.markets;
 import brown.agent.Agent;
 import brown.assets.accounting.Ledger;
 import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
 import brown.messages.markets.MarketOrder;
 
+/**
+ * An agent's view of an LMSR market. The market arrives with a copy of
+ * its market maker, so price, quotes, moniesToShares and priceToShares
+ * are all worked out exactly on the agent's side without asking the
+ * server. Orders carry the sequence of the copy they were priced
+ * against; if the market has moved by the time one arrives, the server
+ * prices it again. A view of one side of a binary market names that
+ * side on its orders.
+ */
 public class LMSR implements ITwoSidedAuction, ITwoSidedPriceTaker {
-	private final LMSRServer LMSR;
+	private final LMSRMarket LMSR;
 	private final Ledger LEDGER;
+	// Side of a binary market orders are for, or null
+	private final TradeableType SIDE;
 	
 	public LMSR() {
 		this.LMSR = null;
 		this.LEDGER = null;
+		this.SIDE = null;
 	}
 	
-	public LMSR(LMSRServer lmsr, Ledger ledger) {
+	public LMSR(LMSRMarket lmsr, Ledger ledger) {
+		this(lmsr, ledger, null);
+	}
+	
+	/**
+	 * Constructor for one side of a binary market
+	 * @param lmsr : the side
+	 * @param ledger
+	 * @param side : PredictionYes or PredictionNo
+	 */
+	public LMSR(LMSRMarket lmsr, Ledger ledger, TradeableType side) {
 		this.LMSR = lmsr;
 		this.LEDGER = ledger;
+		this.SIDE = side;
 	}
 
 	@Override
@@ -31,12 +55,14 @@ public class LMSR implements ITwoSidedAuction, ITwoSidedPriceTaker {
 
 	@Override
 	public void buy(Agent agent, double shareNum, double maxPrice) {
-		agent.CLIENT.sendTCP(new MarketOrder(0, this.LMSR, shareNum,0.0,maxPrice));
+		agent.send(new MarketOrder(0, this.LMSR.getID(), shareNum, 0,
+				maxPrice, this.LMSR.getSequence(), this.SIDE));
 	}
 
 	@Override
 	public void sell(Agent agent, double shareNum, double maxPrice) {
-		agent.CLIENT.sendTCP(new MarketOrder(0, this.LMSR, 0,shareNum,maxPrice));
+		agent.send(new MarketOrder(0, this.LMSR.getID(), 0, shareNum,
+				maxPrice, this.LMSR.getSequence(), this.SIDE));
 	}
 
 	@Override
@@ -66,9 +92,9 @@ public class LMSR implements ITwoSidedAuction, ITwoSidedPriceTaker {
 	public void cancel(Agent agent, boolean buy, double shareNum,
 			double maxPrice) {
 		if (buy) {
-			agent.CLIENT.sendTCP(new MarketOrder(0, this.LMSR, 0,shareNum,maxPrice));
+			agent.send(new MarketOrder(0, this.LMSR, 0,shareNum,maxPrice));
 		} else {
-			agent.CLIENT.sendTCP(new MarketOrder(0, this.LMSR, shareNum,0.0,maxPrice));
+			agent.send(new MarketOrder(0, this.LMSR, shareNum,0.0,maxPrice));
 		}
 	}
 
@@ -95,4 +121,13 @@ public class LMSR implements ITwoSidedAuction, ITwoSidedPriceTaker {
 	public double priceToShares(double price) {
 		return this.LMSR.priceToShares(price);
 	}
+	
+	/**
+	 * Gets the sequence of the market maker state this view holds,
+	 * which orders placed through it carry
+	 * @return sequence
+	 */
+	public long getSequence() {
+		return this.LMSR.getSequence();
+	}
 }
@@ -1,46 +1,54 @@
 package brown.markets;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * Private backend prediction market implementation
  * Agents are provided pointers to the public face
  * to prevent illegal modifications
+ * 
+ * Prices and costs are worked in log space around a log-sum-exp of
+ * the quantities, so a quote takes one exp and stays finite however
+ * small b is.
+ * 
+ * The quantities, b and profit live in an immutable State, which each
+ * trade replaces by compare-and-set, retrying from the newer state if
+ * another trade got there first. Quotes read one state without locking,
+ * and the yes and no markets sharing a backend always see each other's
+ * trades whole. Each state caches its own log-sum-exp, and carries a
+ * sequence number that agents quoting from a copy of the backend send
+ * back with their orders.
  * @author lcamery
  *
  */
 public class LMSRBackend {
+	// Default width, in shares, of the bracket sharesToPrice stops at
+	public static final double TOLERANCE = 1e-9;
+	// Most shares sharesToPrice will consider buying
+	public static final double MAXSHARES = 1e6;
+
+	private static final AtomicReferenceFieldUpdater<LMSRBackend, State> STATE =
+			AtomicReferenceFieldUpdater.newUpdater(LMSRBackend.class, State.class, "state");
+
 	private final int ID;
-	public double yes;
-	public double no;
-	public double b;
 	public double alpha;
-	public double profit;
+	private double tolerance;
+	private volatile State state;
 	
 	public LMSRBackend() {
-		this.yes = 0;
-		this.no = 0;
-		this.b = 1;
-		this.alpha = 0;
-		this.ID = -1;
-		this.profit = 0;
+		this(-1, 1);
 	}
 	
 	public LMSRBackend(int ID, double b) {
-		this.yes = 0;
-		this.no = 0;
-		this.b = b;
-		this.alpha = 0;
-		this.ID = ID;
-		this.profit = 0;
+		this(ID, b, 0, 0);
 	}
 	
 	public LMSRBackend(int ID, double b, double yes, double no) {
-		this.b = b;
-		this.yes = yes;
-		this.no = no;
 		this.alpha = 0;
 		this.ID = ID;
-		this.profit = 0;
+		this.tolerance = TOLERANCE;
+		this.state = new State(yes, no, b, 0, 0, 0);
 	}
 	
 	/*
@@ -49,21 +57,97 @@ public class LMSRBackend {
 	 * @return price : double
 	 */
 	public double price(boolean direction) {
-		double up = Math.exp(yes/b);
-		double down = Math.exp(no/b);
-		return direction ? up/(up+down) : down/(down+up);
+		return price(this.state, direction);
 	}
 	
 	/*
-	 * Cost function
+	 * Price the market would quote holding other quantities. Subclasses
+	 * with their own price function override price(State, boolean), and
+	 * sharesToPrice inverts it for them.
+	 * @param yes : quantity yes
+	 * @param no : quantity no
+	 * @param direction : boolean
+	 * @return price : double
+	 */
+	public double price(double yes, double no, boolean direction) {
+		return price(this.state.at(yes, no), direction);
+	}
+	
+	/*
+	 * Price function in one state
+	 */
+	protected double price(State s, boolean direction) {
+		Kernel k = kernel(s);
+		return Math.exp(direction ? k.LOGYES : k.LOGNO);
+	}
+	
+	/*
+	 * Cost function, as the change in b*log(exp(yes/b) + exp(no/b))
+	 * taken from the current log prices
 	 * @param qd1 : new quantity yes
 	 * @param qd2 : new quantity no
 	 * @return cost : double
-	 * I have the suspicion this can be simplified...
 	 */
 	public double cost(double newq1, double newq2) {
-		return b*Math.log(Math.exp((newq1 + yes)/b) + Math.exp((newq2+no)/b))
-				- b*Math.log(Math.exp(yes/b) + Math.exp(no/b));
+		return cost(this.state, newq1, newq2);
+	}
+	
+	/*
+	 * Cost function in one state
+	 */
+	protected double cost(State s, double newq1, double newq2) {
+		Kernel k = kernel(s);
+		return k.B*logSumExp(k.LOGYES + newq1/k.B, k.LOGNO + newq2/k.B);
+	}
+	
+	/*
+	 * b*log(exp(yes/b) + exp(no/b)) without overflow
+	 */
+	protected static double potential(double yes, double no, double b) {
+		return Math.max(yes, no) + b*Math.log1p(Math.exp(-Math.abs(yes - no)/b));
+	}
+	
+	/*
+	 * log(exp(x) + exp(y)) without overflow
+	 */
+	protected static double logSumExp(double x, double y) {
+		return Math.max(x, y) + Math.log1p(Math.exp(-Math.abs(x - y)));
+	}
+	
+	/*
+	 * Liquidity at the current quantities
+	 */
+	public double getB() {
+		return getB(this.state);
+	}
+	
+	/*
+	 * Liquidity in one state; subclasses whose b moves with the
+	 * quantities override this
+	 */
+	protected double getB(State s) {
+		return s.B;
+	}
+	
+	/*
+	 * The kernel for a state, built on its first quote
+	 */
+	protected Kernel kernel(State s) {
+		Kernel k = s.kernel;
+		if (k == null) {
+			k = new Kernel(s.YES, s.NO, getB(s));
+			s.kernel = k;
+		}
+		return k;
+	}
+	
+	/**
+	 * The market as it stands; it never changes, so everything read
+	 * from it agrees
+	 * @return state
+	 */
+	public State snapshot() {
+		return this.state;
 	}
 	
 	/*
@@ -87,19 +171,50 @@ public class LMSRBackend {
 	/*
 	 * Returns a share to an agent that buys yes
 	 * @param shareNum : int
+	 * @return cost : double
 	 */
-	public void yes(Integer agentID, double shareNum) {
-		this.profit += cost(shareNum, 0);
-		this.yes += shareNum;
+	public double yes(Integer agentID, double shareNum) {
+		return this.trade(shareNum, 0, true);
 	}
 	
 	/*
 	 * Returns a share to an agent that buys no
 	 * @param shareNum : int
+	 * @return cost : double
+	 */
+	public double no(Integer agentID, double shareNum) {
+		return this.trade(0, shareNum, true);
+	}
+	
+	/*
+	 * Moves both quantities in one trade, as a netted batch of orders
+	 * does, so the whole move is priced by one evaluation of the cost
+	 * @param yes : net yes shares bought
+	 * @param no : net no shares bought
+	 * @return cost : double
 	 */
-	public void no(Integer agentID, double shareNum) {
-		this.profit += cost(0, shareNum);
-		this.no += shareNum;
+	public double net(double yes, double no) {
+		return this.trade(yes, no, true);
+	}
+
+	/*
+	 * Moves the quantities as one step, priced in the state it replaces,
+	 * trying again from the newest state until no other trade cuts in
+	 * @param yes : change in quantity yes
+	 * @param no : change in quantity no
+	 * @param charge : whether the cost counts as profit
+	 * @return cost : double
+	 */
+	protected final double trade(double yes, double no, boolean charge) {
+		while (true) {
+			State s = this.state;
+			double cost = cost(s, yes, no);
+			State next = new State(s.YES + yes, s.NO + no, s.B,
+					charge ? s.PROFIT + cost : s.PROFIT, s.TRADES + 1, s.SEQUENCE + 1);
+			if (STATE.compareAndSet(this, s, next)) {
+				return cost;
+			}
+		}
 	}
 	
 	/**
@@ -108,32 +223,85 @@ public class LMSRBackend {
 	 */
 	public double howMany(double price, boolean direction) {
 		//System.out.println("Wanted " + price + " with " + direction + " currently at " + this.price(direction));
-	  double top = !direction ? this.yes : this.no;
-	  double side = direction ? this.yes : this.no;
+	  State s = this.state;
+	  double top = !direction ? s.YES : s.NO;
+	  double side = direction ? s.YES : s.NO;
 	  double p = direction ? price : (1-price);
-	  double temp = this.b*Math.log((p*Math.exp(top/this.b))/(1-p)) - side;
-	  return temp;
+	  return s.B*Math.log(p/(1-p)) + top - side;
+	}
+	
+	/**
+	 * How many shares does it take to get to the desired price, found by
+	 * bracketing the answer and solving with Brent's method on the price
+	 * function. Works for any cost function whose price rises with the
+	 * shares bought.
+	 * @param price : desired yes price
+	 * @param direction : true to buy yes, false to buy no
+	 * @return shares, 0 if the price is already there or past it, and
+	 * MAXSHARES if it cannot be reached
+	 */
+	public double sharesToPrice(double price, boolean direction) {
+		State s = this.state;
+		double sign = direction ? 1 : -1;
+		DoubleUnaryOperator gap = shares -> sign * (this.price(s.at(
+				direction ? s.YES + shares : s.YES,
+				direction ? s.NO : s.NO + shares), true) - price);
+		if (!(gap.applyAsDouble(0) < 0)) {
+			return 0;
+		}
+
+		double lo = 0;
+		double hi = 1;
+		while (!(gap.applyAsDouble(hi) >= 0)) {
+			if (hi >= MAXSHARES) {
+				return MAXSHARES;
+			}
+			lo = hi;
+			hi = Math.min(hi * 2, MAXSHARES);
+		}
+		return RootFinder.brent(gap, lo, hi, this.tolerance);
+	}
+	
+	/*
+	 * Sets how closely sharesToPrice solves, in shares
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+	
+	public double getTolerance() {
+		return this.tolerance;
 	}
 	
 	/**
 	 * How many shares does it take to fill this budget
 	 */
 	public double budgetToShares(double budget, boolean direction) {
-		  double top = !direction ? this.yes : this.no;
-		  double side = direction ? this.yes : this.no;
-		  return this.b
-	        * Math.log(Math.exp(budget
-	            / this.b
-	            + Math.log(Math.pow(Math.E, this.yes / this.b)
-	                + Math.pow(Math.E, this.no / this.b)))
-	            - Math.exp(top / this.b)) - side;
+		Kernel k = kernel(this.state);
+		double side = direction ? k.LOGYES : k.LOGNO;
+		double top = direction ? k.LOGNO : k.LOGYES;
+		return budget - k.B*side + k.B*Math.log1p(-Math.exp(top - budget/k.B));
 	}
 	
 	/*
 	 * Allows the market maker to update b
 	 */
 	public void setB(double b) {
-		this.b = b;
+		while (true) {
+			State s = this.state;
+			if (STATE.compareAndSet(this, s, new State(s.YES, s.NO, b, s.PROFIT, s.TRADES, s.SEQUENCE + 1))) {
+				return;
+			}
+		}
+	}
+	
+	/*
+	 * Starts the market over at these quantities, keeping b, with no
+	 * profit taken and no trades made
+	 */
+	public void reset(double yes, double no) {
+		State s = this.state;
+		this.state = new State(yes, no, s.B, 0, 0, s.SEQUENCE + 1);
 	}
 
 	/**
@@ -145,7 +313,23 @@ public class LMSRBackend {
 	}
 	
 	public double getProfit() {
-		return this.profit;
+		return this.state.PROFIT;
+	}
+	
+	public double getYes() {
+		return this.state.YES;
+	}
+	
+	public double getNo() {
+		return this.state.NO;
+	}
+	
+	/**
+	 * @return sequence number of the current state, which every change
+	 * to the market advances
+	 */
+	public long getSequence() {
+		return this.state.SEQUENCE;
 	}
 	
 	public static void main(String[] args) {
@@ -156,11 +340,72 @@ public class LMSRBackend {
 			double num = backend.howMany(price, dir);
 			//System.out.println("> " + backend.budgetToShares(1, dir) + " " + num + " " + price + " " + backend.price(true));
 			if (dir) {
-				backend.yes += Math.min(backend.budgetToShares(1, dir), num);
+				backend.yes(null, Math.min(backend.budgetToShares(1, dir), num));
 			} else {
-				backend.no += Math.min(backend.budgetToShares(1, dir), num);
+				backend.no(null, Math.min(backend.budgetToShares(1, dir), num));
 			}
-			System.out.println( i + " \t" + backend.price(true) + " \t" + backend.yes + " \t" + backend.no);
+			System.out.println( i + " \t" + backend.price(true) + " \t" + backend.getYes() + " \t" + backend.getNo());
+		}
+	}
+	
+	/**
+	 * Quantities, liquidity and profit at one moment. A state is never
+	 * changed once made; trades replace it whole.
+	 */
+	public static class State {
+		public final double YES;
+		public final double NO;
+		public final double B;
+		public final double PROFIT;
+		// Trades made since the market opened
+		public final long TRADES;
+		// Advances with every new state, trade or not
+		public final long SEQUENCE;
+		// Built by the first quote from this state
+		private transient Kernel kernel;
+		
+		public State() {
+			this(0, 0, 1, 0, 0, 0);
+		}
+		
+		public State(double yes, double no, double b, double profit, long trades, long sequence) {
+			this.YES = yes;
+			this.NO = no;
+			this.B = b;
+			this.PROFIT = profit;
+			this.TRADES = trades;
+			this.SEQUENCE = sequence;
+		}
+		
+		/*
+		 * The same market holding other quantities, for pricing a trade
+		 * before it is made
+		 */
+		public State at(double yes, double no) {
+			return new State(yes, no, this.B, this.PROFIT, this.TRADES, this.SEQUENCE);
+		}
+	}
+	
+	/**
+	 * Log prices and cost potential at one set of quantities
+	 */
+	protected static class Kernel {
+		public final double YES;
+		public final double NO;
+		public final double B;
+		public final double LOGYES;
+		public final double LOGNO;
+		public final double POTENTIAL;
+		
+		public Kernel(double yes, double no, double b) {
+			this.YES = yes;
+			this.NO = no;
+			this.B = b;
+			double d = (yes - no)/b;
+			double l = Math.log1p(Math.exp(-Math.abs(d)));
+			this.LOGYES = d >= 0 ? -l : d - l;
+			this.LOGNO = d >= 0 ? -d - l : -l;
+			this.POTENTIAL = Math.max(yes, no) + b*l;
 		}
 	}
 	
@@ -0,0 +1,35 @@
+package brown.markets;
+
+/**
+ * A two-sided market run by an LMSR market maker, which agents see
+ * through the LMSR wrapper
+ */
+public interface LMSRMarket extends TwoSidedAuction {
+	/**
+	 * Gets the market price
+	 * @return price
+	 */
+	public double price();
+
+	/**
+	 * How many shares does it take to fill this budget?
+	 * @param monies
+	 * @return shares
+	 */
+	public double moniesToShares(double monies);
+
+	/**
+	 * How many shares does it take to get to this price?
+	 * @param price
+	 * @return shares
+	 */
+	public double priceToShares(double price);
+
+	/**
+	 * Sequence number of the market maker's state, which moves on with
+	 * every trade; an order priced against a copy of the market carries
+	 * the one it saw
+	 * @return sequence
+	 */
+	public long getSequence();
+}
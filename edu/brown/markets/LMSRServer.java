@@ -9,12 +9,16 @@ import brown.assets.accounting.Order;
 import brown.assets.value.FullType;
 import brown.assets.value.TradeableType;
 import brown.auctions.arules.MechanismType;
+import brown.messages.markets.BookUpdate;
+import brown.messages.markets.OrderType;
 import brown.rules.clearingrules.ClearingRule;
+import brown.rules.clearingrules.LMSRBatch;
+import brown.rules.clearingrules.LMSRBatchClearing;
 import brown.rules.clearingrules.LMSRNoClearing;
 import brown.rules.clearingrules.LMSRYesClearing;
 import brown.tradeables.Tradeable;
 
-public class LMSRServer implements TwoSidedAuction {
+public class LMSRServer implements LMSRMarket {
 	private final Integer ID;
 	private final ClearingRule RULE;
 	private final FullType TYPE;
@@ -34,6 +38,22 @@ public class LMSRServer implements TwoSidedAuction {
 				backend.getId());
 		this.BACKEND = backend;
 	}
+	
+	/**
+	 * Constructor for a side that fills in batches on tick; open the
+	 * yes and no servers over the same batch so their orders net
+	 * @param ID
+	 * @param dir : true for yes, false for no
+	 * @param batch
+	 * @param shortSelling
+	 */
+	public LMSRServer(Integer ID, boolean dir, LMSRBatch batch, boolean shortSelling) {
+		this.ID = ID;
+		this.RULE = new LMSRBatchClearing(batch, dir, shortSelling);
+		this.TYPE = new FullType(dir ? TradeableType.PredictionYes : TradeableType.PredictionNo, 
+				batch.getBackend().getId());
+		this.BACKEND = batch.getBackend();
+	}
 
 	@Override
 	public Integer getID() {
@@ -65,6 +85,16 @@ public class LMSRServer implements TwoSidedAuction {
 		return this.RULE.sell(agentID, opp, sharePrice);
 	}
 
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		return this.RULE.buy(agentID, shareNum, sharePrice, type);
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		return this.RULE.sell(agentID, opp, sharePrice, type);
+	}
+
 	@Override
 	public double quoteBid(double shareNum, double sharePrice) {
 		return this.RULE.quoteBid(shareNum, sharePrice);
@@ -88,8 +118,8 @@ public class LMSRServer implements TwoSidedAuction {
 	}
 
 	@Override
-	public void tick(double time) {
-		// Noop
+	public List<Order> tick(double time) {
+		return this.RULE.tick(time);
 	}
 
 	@Override
@@ -108,6 +138,31 @@ public class LMSRServer implements TwoSidedAuction {
 		//Noop		
 	}
 
+	@Override
+	public BookUpdate getBookUpdate() {
+		// Noop
+		return null;
+	}
+
+	@Override
+	public long lastOrderID() {
+		// Noop
+		return -1;
+	}
+
+	@Override
+	public boolean cancel(Integer agentID, long orderID) {
+		// Noop
+		return false;
+	}
+
+	@Override
+	public boolean amend(Integer agentID, long orderID, double shareNum,
+			double budget) {
+		// Noop
+		return false;
+	}
+
 	/**
 	 * Gets the market price
 	 * @return price
@@ -134,4 +189,9 @@ public class LMSRServer implements TwoSidedAuction {
 		return this.BACKEND.howMany(price, this.TYPE.TYPE.equals(TradeableType.PredictionYes));
 	}
 
+	@Override
+	public long getSequence() {
+		return this.BACKEND.getSequence();
+	}
+
 }
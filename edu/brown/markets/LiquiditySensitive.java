@@ -10,98 +10,52 @@ public class LiquiditySensitive extends LMSRBackend {
 	 * @alpha : commission of the market maker
 	 */
 	public LiquiditySensitive(double alpha) {
-		this.yes = 1;
-		this.no = 1;
-		this.b = 0;
+		super(-1, 0, 1, 1);
 		this.alpha = alpha;
 	}
 	
 	public LiquiditySensitive() {
-		this.yes = 1;
-		this.no = 1;
-		this.b = 0;
+		super(-1, 0, 1, 1);
 		this.alpha = 0; 
 	}
 	
 	/*
-	 * Price function
+	 * Price function in one state, with b(q) taken there
+	 * @param s : state
 	 * @param direction : boolean
 	 * @return price : double
 	 */
-	public double price(boolean direction) {
-		double eYes = Math.exp(yes/getB());
-		double eNo = Math.exp(no/getB());
-		double first = alpha*Math.log(eYes + eNo);
-		double a = no * (eYes - eNo);
-		double b = yes * (eNo - eYes);
-		double denom = (no+yes)*(eNo + eYes);
-		double p1 = first + a/denom;
-		double p2 = first + b/denom;
-		
-		return (direction ? p1 : p2)/(p1+p2);
-	}
-	
-	/*
-	 * Price function
-	 * @param direction : boolean
-	 * @return price : double
-	 */
-	private double testPrice(double yes, double no, boolean direction) {
-		double eYes = Math.exp(yes/(alpha*(yes+no)));
-		double eNo = Math.exp(no/(alpha*(yes+no)));
-		double first = alpha*Math.log(eYes + eNo);
-		double a = no * (eYes - eNo);
-		double b = yes * (eNo - eYes);
-		double denom = (no+yes)*(eNo + eYes);
-		double p1 = first + a/denom;
-		double p2 = first + b/denom;
+	@Override
+	protected double price(State s, boolean direction) {
+		Kernel k = kernel(s);
+		double pYes = Math.exp(k.LOGYES);
+		double pNo = Math.exp(k.LOGNO);
+		double first = alpha*k.POTENTIAL/k.B;
+		double p1 = first + s.NO*(pYes - pNo)/(s.NO+s.YES);
+		double p2 = first + s.YES*(pNo - pYes)/(s.NO+s.YES);
 		
 		return (direction ? p1 : p2)/(p1+p2);
 	}
 	
 	/*
 	 * Cost function
+	 * @param s : state
 	 * @param qd1 : new quantity yes
 	 * @param qd2 : new quantity no
 	 * @return cost : double
 	 */
-	public double cost(double newq1, double newq2) {
-		return getB(newq1+newq2)*Math.log(Math.exp((newq1 + yes)/getB(newq1+newq2)) + Math.exp((newq2+no)/getB(newq1+newq2)))
-				- getB()*Math.log(Math.exp(yes/getB()) + Math.exp(no/getB()));
-	}
-	
-	/*
-	 * Computes b(q)
-	 */
-	protected double getB(double newq) {
-		return alpha * (newq + yes + no);
-	}
-	
-	/*
-	 * Computes b(q)
-	 */
-	protected double getB() {
-		return alpha * (yes + no);
-	}
-	
-	/*
-	 * Returns a share to an agent that buys yes
-	 * @param shareNum : int
-	 */
 	@Override
-	public void yes(Integer agentID, double shareNum) {
-		this.profit += cost(shareNum, 0);
-		this.yes += shareNum;
+	protected double cost(State s, double newq1, double newq2) {
+		State next = s.at(s.YES + newq1, s.NO + newq2);
+		return potential(next.YES, next.NO, getB(next)) - kernel(s).POTENTIAL;
 	}
 	
 	/*
-	 * Returns a share to an agent that buys no
-	 * @param shareNum : int
+	 * Computes b(q)
 	 */
 	@Override
-	public void no(Integer agentID, double shareNum) {
-		this.profit += cost(0, shareNum);
-		this.no += shareNum;
+	protected double getB(State s) {
+		return alpha * (s.YES + s.NO);
 	}
 	
 	/*
@@ -117,29 +71,9 @@ public class LiquiditySensitive extends LMSRBackend {
 	 * How many shares does it take to get to the desired price
 	 * @param desired price : double 
 	 */
+	@Override
 	public double howMany(double price, boolean direction) {
-		double amt = .00001;
-		while(Math.abs(testPrice(direction ? yes+amt : yes,direction ? no : no+amt,true) - price) > .00001) {
-			amt += .00001;
-			if (amt > 5) {
-				return 1000;
-			}
-		}
-		return amt;
-	}
-	
-	/*
-	 * How many shares does it take to fill this budget
-	 */
-	public double budgetToShares(double budget, boolean direction) {
-		double top = !direction ? this.yes : this.no;
-		double side = direction ? this.yes : this.no;
-		return getB()
-		    * Math.log(Math.exp(budget
-		        / getB()
-		        + Math.log(Math.pow(Math.E, this.yes / getB())
-		            + Math.pow(Math.E, this.no / getB())))
-		        - Math.exp(top / getB())) - side;
+		return this.sharesToPrice(price, direction);
 	}
 	
 	public static void main(String[] args) {
@@ -2,46 +2,23 @@ package brown.markets;
 
 
 public class LukeMM extends LiquiditySensitive {
-	private int count;
+	// Trades counted toward b before the first one
+	private static final int START = 2;
 
 	public LukeMM(double alpha) {
 		super(alpha);
-		this.count = 2;
 	}
 	
 	public LukeMM() {
 		super(0);
-		this.count = 2;
 	}
 	
 	/*
-	 * Returns a share to an agent that buys yes
-	 * @param shareNum : int
+	 * b(q) grows with the number of trades as well as the quantities
 	 */
-	public void yes(Integer agentID, double shareNum) {
-		this.profit += cost(shareNum, 0);
-		this.yes += shareNum;
-		count++;
-	}
-	
-	/*
-	 * Returns a share to an agent that buys no
-	 * @param shareNum : int
-	 */
-	public void no(Integer agentID, double shareNum) {
-		this.profit += cost(0, shareNum);
-		this.no += shareNum;
-		count++;
-	}
-	
-	@Override
-	protected double getB() {
-		return (this.alpha) * (this.yes + this.no) * this.count;
-	}
-	
 	@Override
-	protected double getB(double newq) {
-		return (this.alpha) * (newq+this.yes + this.no) * this.count;
+	protected double getB(State s) {
+		return (this.alpha) * (s.YES + s.NO) * (START + s.TRADES);
 	}
 	
 	public static void main(String[] args) {
@@ -0,0 +1,268 @@
+package brown.markets;
+
+/**
+ * LMSR market maker over any number of mutually exclusive outcomes,
+ * one of which will pay 1.
+ *
+ * Each outcome keeps exp(q/b - shift), and the normalizer is their
+ * sum, so a trade in one outcome changes one term and the sum in O(1).
+ * The shift is moved, and every term rebuilt, only when a term would
+ * grow past what a double holds comfortably or when a trade takes
+ * away most of the sum; the sum is also rebuilt every REFRESH trades
+ * so rounding cannot pile up.
+ *
+ * Outcomes are traded through separate markets sharing this backend,
+ * so every method that reads or moves the quantities is synchronized.
+ */
+public class MultiLMSRBackend {
+	// Largest exponent a term may reach before the shift is moved
+	private static final double HEADROOM = 16;
+	// Trades between rebuilds of the normalizer
+	private static final int REFRESH = 1024;
+
+	private final int ID;
+	private final double[] QUANTITIES;
+	private final double[] TERMS;
+	private double b;
+	private double shift;
+	private double sum;
+	private int trades;
+	private long sequence;
+	public double profit;
+
+	public MultiLMSRBackend() {
+		this.ID = -1;
+		this.QUANTITIES = null;
+		this.TERMS = null;
+		this.b = 1;
+		this.profit = 0;
+	}
+
+	/**
+	 * Constructor
+	 * @param ID : question the market asks
+	 * @param outcomes : how many outcomes it has
+	 * @param b : liquidity
+	 */
+	public MultiLMSRBackend(int ID, int outcomes, double b) {
+		this(ID, new double[outcomes], b);
+	}
+
+	/**
+	 * Constructor
+	 * @param ID : question the market asks
+	 * @param quantities : shares already sold in each outcome
+	 * @param b : liquidity
+	 */
+	public MultiLMSRBackend(int ID, double[] quantities, double b) {
+		if (quantities.length < 2) {
+			throw new IllegalArgumentException("needs two outcomes");
+		}
+		this.ID = ID;
+		this.QUANTITIES = quantities.clone();
+		this.TERMS = new double[quantities.length];
+		this.b = b;
+		this.profit = 0;
+		this.rebuild();
+	}
+
+	/**
+	 * @return number of outcomes
+	 */
+	public int size() {
+		return this.QUANTITIES.length;
+	}
+
+	/**
+	 * Price of one outcome
+	 * @param outcome
+	 * @return price : double
+	 */
+	public synchronized double price(int outcome) {
+		return this.TERMS[outcome] / this.sum;
+	}
+
+	/**
+	 * Prices of every outcome at once
+	 * @param out : filled with the prices if it is the right length
+	 * @return prices : double[]
+	 */
+	public synchronized double[] prices(double[] out) {
+		double[] prices = out != null && out.length == this.TERMS.length
+				? out : new double[this.TERMS.length];
+		double norm = 1 / this.sum;
+		for (int i = 0; i < prices.length; i++) {
+			prices[i] = this.TERMS[i] * norm;
+		}
+		return prices;
+	}
+
+	/**
+	 * Cost of buying shares of one outcome; negative shares sell, and
+	 * cost what the market maker pays back
+	 * @param outcome
+	 * @param shares
+	 * @return cost : double
+	 */
+	public synchronized double cost(int outcome, double shares) {
+		double x = shares / this.b;
+		double logp = this.logPrice(outcome);
+		if (x > 1) {
+			return this.b * LMSRBackend.logSumExp(Math.log1p(-Math.exp(logp)), logp + x);
+		}
+		return this.b * Math.log1p(Math.exp(logp) * Math.expm1(x));
+	}
+
+	/**
+	 * Cost of buying a bundle of shares across outcomes at once
+	 * @param shares : shares of each outcome, negative to sell
+	 * @return cost : double
+	 */
+	public synchronized double cost(double[] shares) {
+		if (shares.length != this.QUANTITIES.length) {
+			throw new IllegalArgumentException();
+		}
+		double top = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < shares.length; i++) {
+			top = Math.max(top, this.QUANTITIES[i] + shares[i]);
+		}
+		double total = 0;
+		for (int i = 0; i < shares.length; i++) {
+			total += Math.exp((this.QUANTITIES[i] + shares[i] - top) / this.b);
+		}
+		return top + this.b * Math.log(total) - this.b * (this.shift + Math.log(this.sum));
+	}
+
+	/**
+	 * Sells shares of one outcome to an agent
+	 * @param agentID
+	 * @param outcome
+	 * @param shares : negative to buy them back
+	 * @return what the agent pays
+	 */
+	public synchronized double buy(Integer agentID, int outcome, double shares) {
+		double cost = this.cost(outcome, shares);
+		this.profit += cost;
+		this.QUANTITIES[outcome] += shares;
+		this.sequence++;
+
+		double exponent = this.QUANTITIES[outcome] / this.b - this.shift;
+		double term = Math.exp(exponent);
+		double old = this.TERMS[outcome];
+		if (exponent > HEADROOM || ++this.trades >= REFRESH
+				|| (old > this.sum / 2 && term < old / 2)) {
+			this.rebuild();
+		} else {
+			this.TERMS[outcome] = term;
+			this.sum += term - old;
+		}
+		return cost;
+	}
+
+	/**
+	 * Sells shares of every outcome at once
+	 * @param agentID
+	 * @param shares : shares of each outcome, negative to buy them back
+	 * @return what the agent pays
+	 */
+	public synchronized double buy(Integer agentID, double[] shares) {
+		double cost = this.cost(shares);
+		this.profit += cost;
+		for (int i = 0; i < shares.length; i++) {
+			this.QUANTITIES[i] += shares[i];
+		}
+		this.sequence++;
+		this.rebuild();
+		return cost;
+	}
+
+	/**
+	 * How many shares of an outcome it takes to move its price to price;
+	 * negative if it must fall
+	 * @param outcome
+	 * @param price
+	 * @return shares
+	 */
+	public synchronized double sharesToPrice(int outcome, double price) {
+		double logp = this.logPrice(outcome);
+		return this.b * (Math.log(price / (1 - price)) + Math.log1p(-Math.exp(logp)) - logp);
+	}
+
+	/**
+	 * How many shares of an outcome this budget buys
+	 * @param outcome
+	 * @param budget
+	 * @return shares
+	 */
+	public synchronized double budgetToShares(int outcome, double budget) {
+		double x = budget / this.b;
+		double logp = this.logPrice(outcome);
+		return this.b * (x + Math.log1p(-(1 - Math.exp(logp)) * Math.exp(-x)) - logp);
+	}
+
+	/**
+	 * @return shares sold in each outcome
+	 */
+	public synchronized double[] getQuantities() {
+		return this.QUANTITIES.clone();
+	}
+
+	public synchronized double getB() {
+		return this.b;
+	}
+
+	/*
+	 * Allows the market maker to update b
+	 */
+	public synchronized void setB(double b) {
+		this.b = b;
+		this.sequence++;
+		this.rebuild();
+	}
+
+	/**
+	 * ID corresponds to type of PM this is; ie. what is this the question
+	 * @return ID
+	 */
+	public Integer getId() {
+		return this.ID;
+	}
+
+	public synchronized double getProfit() {
+		return this.profit;
+	}
+
+	/**
+	 * @return count of changes to the market, which orders priced
+	 * against a copy of it carry
+	 */
+	public synchronized long getSequence() {
+		return this.sequence;
+	}
+
+	/*
+	 * Log price of one outcome, exact even where the price underflows
+	 */
+	private double logPrice(int outcome) {
+		return this.QUANTITIES[outcome] / this.b - this.shift - Math.log(this.sum);
+	}
+
+	/*
+	 * Moves the shift to the largest exponent and recomputes every term
+	 * and the normalizer from the quantities
+	 */
+	private void rebuild() {
+		double top = Double.NEGATIVE_INFINITY;
+		for (double q : this.QUANTITIES) {
+			top = Math.max(top, q / this.b);
+		}
+		this.shift = top;
+		this.sum = 0;
+		for (int i = 0; i < this.TERMS.length; i++) {
+			this.TERMS[i] = Math.exp(this.QUANTITIES[i] / this.b - top);
+			this.sum += this.TERMS[i];
+		}
+		this.trades = 0;
+	}
+
+}
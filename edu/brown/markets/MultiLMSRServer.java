@@ -0,0 +1,280 @@
+package brown.markets;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+
+import brown.assets.accounting.Account;
+import brown.assets.accounting.Ledger;
+import brown.assets.accounting.Order;
+import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
+import brown.auctions.arules.MechanismType;
+import brown.messages.markets.BookUpdate;
+import brown.messages.markets.OrderType;
+import brown.tradeables.Tradeable;
+
+/**
+ * One LMSR market maker serving every outcome of a question. Orders
+ * name a single market, so each outcome is a two-sided market of its
+ * own, with ID firstID + outcome, and all of them trade against the
+ * same backend. Open each of getOutcomes() with the market manager.
+ */
+public class MultiLMSRServer {
+	private final MultiLMSRBackend BACKEND;
+	private final List<Outcome> OUTCOMES;
+
+	public MultiLMSRServer() {
+		this.BACKEND = null;
+		this.OUTCOMES = null;
+	}
+
+	/**
+	 * Constructor
+	 * @param firstID : market ID of the first outcome
+	 * @param backend
+	 * @param shortSelling : may agents sell shares they do not hold
+	 */
+	public MultiLMSRServer(Integer firstID, MultiLMSRBackend backend, boolean shortSelling) {
+		this.BACKEND = backend;
+		Outcome[] outcomes = new Outcome[backend.size()];
+		for (int i = 0; i < outcomes.length; i++) {
+			outcomes[i] = new Outcome(firstID + i, i, backend, shortSelling);
+		}
+		this.OUTCOMES = Collections.unmodifiableList(Arrays.asList(outcomes));
+	}
+
+	/**
+	 * @return the market for each outcome, in order
+	 */
+	public List<Outcome> getOutcomes() {
+		return this.OUTCOMES;
+	}
+
+	/**
+	 * @param outcome
+	 * @return the market for this outcome
+	 */
+	public Outcome getOutcome(int outcome) {
+		return this.OUTCOMES.get(outcome);
+	}
+
+	/**
+	 * Prices of every outcome at once
+	 * @return prices
+	 */
+	public double[] prices() {
+		return this.BACKEND.prices(null);
+	}
+
+	public MultiLMSRBackend getBackend() {
+		return this.BACKEND;
+	}
+
+	/**
+	 * The market for one outcome. Its shares pay 1 if the world ends
+	 * in that outcome.
+	 */
+	public static class Outcome implements LMSRMarket {
+		private final Integer ID;
+		private final int OUTCOME;
+		private final FullType TYPE;
+		private final MultiLMSRBackend BACKEND;
+		private final boolean SHORT;
+
+		public Outcome() {
+			this.ID = null;
+			this.OUTCOME = -1;
+			this.TYPE = null;
+			this.BACKEND = null;
+			this.SHORT = true;
+		}
+
+		public Outcome(Integer ID, int outcome, MultiLMSRBackend backend, boolean shortSelling) {
+			this.ID = ID;
+			this.OUTCOME = outcome;
+			this.TYPE = new FullType(TradeableType.PredictionOutcome, ID);
+			this.BACKEND = backend;
+			this.SHORT = shortSelling;
+		}
+
+		@Override
+		public Integer getID() {
+			return this.ID;
+		}
+
+		/**
+		 * @return which outcome this market trades
+		 */
+		public int getOutcome() {
+			return this.OUTCOME;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return false;
+		}
+
+		@Override
+		public MechanismType getMechanismType() {
+			return MechanismType.LMSR;
+		}
+
+		@Override
+		public FullType getTradeableType() {
+			return this.TYPE;
+		}
+
+		@Override
+		public List<Order> buy(Integer agentID, double shareNum, double sharePrice) {
+			double cost = this.BACKEND.buy(agentID, this.OUTCOME, shareNum);
+			List<Order> trans = new LinkedList<Order>();
+			trans.add(new Order(agentID, null, cost, shareNum, this.security(agentID, shareNum)));
+			return trans;
+		}
+
+		@Override
+		public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice) {
+			List<Order> trans = new LinkedList<Order>();
+			if (this.SHORT && opp.getAgentID() == null) {
+				opp = this.security(agentID, opp.getCount());
+			} else if (opp.getAgentID() == null) {
+				return trans;
+			}
+			double cost = this.BACKEND.buy(agentID, this.OUTCOME, -1 * opp.getCount());
+			trans.add(new Order(null, agentID, cost, opp.getCount(), opp));
+			return trans;
+		}
+
+		/*
+		 * Shares of this outcome, paying 1 each if it happens
+		 */
+		private Tradeable security(Integer agentID, double shareNum) {
+			int outcome = this.OUTCOME;
+			return new Tradeable(this.TYPE, shareNum, agentID, state -> {
+				List<Account> list = new LinkedList<Account>();
+				if (state.STATE.getState() == outcome) {
+					list.add(new Account(null).add(state.QUANTITY));
+				}
+				return list;
+			});
+		}
+
+		/**
+		 * The market maker fills every order in full on arrival, so only
+		 * post only orders, which may never take, are turned away
+		 */
+		@Override
+		public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+			if (type == OrderType.PostOnly) {
+				return new LinkedList<Order>();
+			}
+			return this.buy(agentID, shareNum, sharePrice);
+		}
+
+		@Override
+		public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+			if (type == OrderType.PostOnly) {
+				return new LinkedList<Order>();
+			}
+			return this.sell(agentID, opp, sharePrice);
+		}
+
+		@Override
+		public double quoteBid(double shareNum, double sharePrice) {
+			return this.BACKEND.cost(this.OUTCOME, shareNum);
+		}
+
+		/**
+		 * What selling shareNum shares costs, which is negative since the
+		 * market maker pays for them
+		 */
+		@Override
+		public double quoteAsk(double shareNum, double sharePrice) {
+			return this.BACKEND.cost(this.OUTCOME, -1 * shareNum);
+		}
+
+		@Override
+		public SortedMap<Double, Set<Order>> getBuyBook() {
+			// Noop
+			return null;
+		}
+
+		@Override
+		public SortedMap<Double, Set<Order>> getSellBook() {
+			// Noop
+			return null;
+		}
+
+		@Override
+		public List<Order> tick(double time) {
+			// Noop
+			return new LinkedList<Order>();
+		}
+
+		@Override
+		public ITwoSidedAuction wrap(Ledger ledger) {
+			return new LMSR(this, ledger);
+		}
+
+		@Override
+		public boolean permitShort() {
+			return this.SHORT;
+		}
+
+		@Override
+		public void cancel(Integer agentID, boolean buy, double shareNum,
+				double sharePrice) {
+			// Noop
+		}
+
+		@Override
+		public BookUpdate getBookUpdate() {
+			// Noop
+			return null;
+		}
+
+		@Override
+		public long lastOrderID() {
+			// Noop
+			return -1;
+		}
+
+		@Override
+		public boolean cancel(Integer agentID, long orderID) {
+			// Noop
+			return false;
+		}
+
+		@Override
+		public boolean amend(Integer agentID, long orderID, double shareNum,
+				double budget) {
+			// Noop
+			return false;
+		}
+
+		@Override
+		public double price() {
+			return this.BACKEND.price(this.OUTCOME);
+		}
+
+		@Override
+		public double moniesToShares(double monies) {
+			return this.BACKEND.budgetToShares(this.OUTCOME, monies);
+		}
+
+		@Override
+		public double priceToShares(double price) {
+			return this.BACKEND.sharesToPrice(this.OUTCOME, price);
+		}
+
+		@Override
+		public long getSequence() {
+			return this.BACKEND.getSequence();
+		}
+	}
+
+}
@@ -1,26 +1,27 @@
 package brown.markets;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public abstract class NoRegret extends LMSRBackend {
-	protected Map<Integer, Double> weights;
-	
+	protected NoRegretWeights weights;
+
 	public NoRegret(Integer ID, double b, NoRegretMemory memory) {
 		super(ID, b);
 		this.weights = memory.WEIGHTS;
 		if (this.weights == null) {
-			this.weights = new HashMap<Integer, Double>();
+			this.weights = new NoRegretWeights();
 		}
 	}
-	
+
 	public abstract NoRegretMemory update(boolean outcome);
-	
+
+	/**
+	 * What a no regret market maker carries into the next round. The
+	 * weights are handed on, not copied, so rounds cost nothing to chain.
+	 */
 	public static class NoRegretMemory {
-		public final Map<Integer, Double> WEIGHTS;
+		public final NoRegretWeights WEIGHTS;
 		public final double T;
-		
-		public NoRegretMemory(Map<Integer, Double> weights, double T) {
+
+		public NoRegretMemory(NoRegretWeights weights, double T) {
 			this.WEIGHTS = weights;
 			this.T = T;
 		}
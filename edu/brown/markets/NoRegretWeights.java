@@ -0,0 +1,218 @@
+package brown.markets;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exponential weights over the agents trading with a no regret market
+ * maker, kept in arrays indexed densely in the order agents first trade.
+ *
+ * Agent i weighs exp(-learning * loss_i) / sum, where loss_i counts its
+ * wrong predictions. Each agent keeps exp(-learning * loss_i - shift),
+ * and the sum of those is kept as terms change, so a weight is one
+ * division. update() charges every prediction made since the last
+ * update in one pass, touching only the agents that predicted; the
+ * shift is moved and every term rebuilt only when the learning rate
+ * changes or updates have taken away half the sum since the last
+ * rebuild, so rounding in the sum cannot pile up.
+ *
+ * Agents on both sides of a market trade here, so every method that
+ * reads or moves the weights is synchronized.
+ */
+public class NoRegretWeights {
+	// No prediction since the last update
+	private static final byte NONE = 0;
+	private static final byte YES = 1;
+	private static final byte NO = 2;
+
+	private final Map<Integer, Integer> INDEX;
+	private double[] losses;
+	private double[] terms;
+	private byte[] predictions;
+	// Agents with a prediction, each once
+	private int[] predicted;
+	private int predictors;
+	private int size;
+	private double learning;
+	private double shift;
+	private double sum;
+	// The sum as last rebuilt
+	private double base;
+
+	public NoRegretWeights() {
+		this(0);
+	}
+
+	/**
+	 * Constructor
+	 * @param learning : learning rate
+	 */
+	public NoRegretWeights(double learning) {
+		this.INDEX = new HashMap<Integer, Integer>();
+		this.losses = new double[16];
+		this.terms = new double[16];
+		this.predictions = new byte[16];
+		this.predicted = new int[16];
+		this.predictors = 0;
+		this.size = 0;
+		this.learning = learning;
+		this.shift = 0;
+		this.sum = 0;
+		this.base = 0;
+	}
+
+	/**
+	 * Constructor
+	 * @param losses : losses each agent has already taken
+	 * @param learning : learning rate
+	 */
+	public NoRegretWeights(Map<Integer, Double> losses, double learning) {
+		this(learning);
+		for (Map.Entry<Integer, Double> loss : losses.entrySet()) {
+			this.losses[this.index(loss.getKey())] = loss.getValue();
+		}
+		this.rebuild();
+	}
+
+	/**
+	 * Dense index of an agent, given out the first time it is seen
+	 * @param agentID
+	 * @return index
+	 */
+	public synchronized int index(Integer agentID) {
+		Integer index = this.INDEX.get(agentID);
+		if (index != null) {
+			return index;
+		}
+		if (this.size == this.losses.length) {
+			int length = this.size * 2;
+			this.losses = Arrays.copyOf(this.losses, length);
+			this.terms = Arrays.copyOf(this.terms, length);
+			this.predictions = Arrays.copyOf(this.predictions, length);
+			this.predicted = Arrays.copyOf(this.predicted, length);
+		}
+		int i = this.size++;
+		this.INDEX.put(agentID, i);
+		this.terms[i] = Math.exp(-1 * this.shift);
+		this.sum += this.terms[i];
+		this.base += this.terms[i];
+		return i;
+	}
+
+	/**
+	 * @param index
+	 * @return the agent's share of the total weight
+	 */
+	public synchronized double weight(int index) {
+		return this.terms[index] / this.sum;
+	}
+
+	/**
+	 * The weight of an agent, indexing it if it is new
+	 * @param agentID
+	 * @return the agent's share of the total weight
+	 */
+	public synchronized double weight(Integer agentID) {
+		return this.weight(this.index(agentID));
+	}
+
+	/**
+	 * Every agent's weight at once
+	 * @param out : filled with the weights if it is the right length
+	 * @return weights : double[]
+	 */
+	public synchronized double[] weights(double[] out) {
+		double[] weights = out != null && out.length == this.size
+				? out : new double[this.size];
+		double norm = 1 / this.sum;
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = this.terms[i] * norm;
+		}
+		return weights;
+	}
+
+	/**
+	 * Records what an agent predicts, which update() scores; a later
+	 * prediction replaces an earlier one
+	 * @param index
+	 * @param prediction : true for yes
+	 */
+	public synchronized void predict(int index, boolean prediction) {
+		if (this.predictions[index] == NONE) {
+			this.predicted[this.predictors++] = index;
+		}
+		this.predictions[index] = prediction ? YES : NO;
+	}
+
+	/**
+	 * Charges a loss to every agent whose prediction was wrong and
+	 * clears the predictions
+	 * @param outcome
+	 */
+	public synchronized void update(boolean outcome) {
+		byte right = outcome ? YES : NO;
+		double decay = Math.exp(-1 * this.learning);
+		for (int p = 0; p < this.predictors; p++) {
+			int i = this.predicted[p];
+			if (this.predictions[i] != right) {
+				this.losses[i] += 1;
+				double term = this.terms[i] * decay;
+				this.sum += term - this.terms[i];
+				this.terms[i] = term;
+			}
+			this.predictions[i] = NONE;
+		}
+		this.predictors = 0;
+		if (this.sum < this.base / 2) {
+			this.rebuild();
+		}
+	}
+
+	/**
+	 * Changes the learning rate, which reweighs every agent
+	 * @param learning
+	 */
+	public synchronized void setLearning(double learning) {
+		this.learning = learning;
+		this.rebuild();
+	}
+
+	public synchronized double getLearning() {
+		return this.learning;
+	}
+
+	/**
+	 * @param index
+	 * @return wrong predictions the agent has made
+	 */
+	public synchronized double getLoss(int index) {
+		return this.losses[index];
+	}
+
+	/**
+	 * @return number of agents indexed
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/*
+	 * Moves the shift to the largest log weight and recomputes every
+	 * term and the sum from the losses
+	 */
+	private void rebuild() {
+		double top = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < this.size; i++) {
+			top = Math.max(top, -1 * this.learning * this.losses[i]);
+		}
+		this.shift = this.size == 0 ? 0 : top;
+		this.sum = 0;
+		for (int i = 0; i < this.size; i++) {
+			this.terms[i] = Math.exp(-1 * this.learning * this.losses[i] - this.shift);
+			this.sum += this.terms[i];
+		}
+		this.base = this.sum;
+	}
+
+}
@@ -1,12 +1,32 @@
 package brown.markets;
 
-import brown.securities.prediction.simulator.Utilities;
+import brown.securities.prediction.simulator.LiquidityCalibrator;
 
+/**
+ * Online learning market maker that sets b on each arrival so the
+ * trader, buying toward their value within budget, leaves the yes price
+ * at the average of the last price and their value, weighted by the
+ * shares traded so far and by their budget.
+ *
+ * The trader spends their whole budget exactly when the target lies
+ * between the opening price and their value, or is their value and
+ * the budget just reaches it. Then, with u = 1/b,
+ * d = yes - no and L the log odds of the target, buying yes means
+ * softplus(d*u) + budget*u = softplus(L). The left side is convex in u,
+ * so a few Newton steps from the last b solve it whatever the history;
+ * the calibrator, which replays the trader, is only asked if they fail.
+ */
 public class OnlineWeighedAverage extends OnlineLearning {
+	// Newton steps to try before asking the calibrator
+	private static final int STEPS = 50;
+	// Relative change in u at which Newton stops
+	private static final double EPSILON = 1e-12;
+
+	private final LiquidityCalibrator CALIBRATOR;
 
 	public OnlineWeighedAverage(Integer ID, double b, double yes, double no) {
 		super(ID, b, yes, no);
-		// TODO Auto-generated constructor stub
+		this.CALIBRATOR = new LiquidityCalibrator(b);
 	}
 	
 	/*
@@ -14,7 +34,7 @@ public class OnlineWeighedAverage extends OnlineLearning {
 	 * @param shareNum : int
 	 */
 	@Override
-	public void yes(Integer agentID, double shareNum) {
+	public double yes(Integer agentID, double shareNum) {
 		throw new UnsupportedOperationException();
 		//TODO: We need new methods to take belief
 	}
@@ -28,14 +48,14 @@ public class OnlineWeighedAverage extends OnlineLearning {
 	 * @return
 	 */
 	public double enterMarket(Integer agentID, double budget, double value) {
-		double weightedAverage = (pastWeight*this.price(true) + budget*value)/(budget+pastWeight);
-		double newB = Utilities.findBWeighted(new Double[]{value}, new Double[]{budget}, 
-				weightedAverage, yes, no);
+		double price = this.price(true);
+		double weightedAverage = (pastWeight*price + budget*value)/(budget+pastWeight);
+		double newB = this.liquidity(price, value, budget, weightedAverage);
 		if (newB <= 0) {
 			return 0;
 		}
 		
-		this.b = newB;
+		this.setB(newB);
 
 		boolean dir = value > price(true);
 		double idealShareNum = howMany(value, dir);
@@ -44,10 +64,10 @@ public class OnlineWeighedAverage extends OnlineLearning {
 		
 		pastWeight += shareNum;
 		if(dir) {
-			yes += shareNum;
+			this.trade(shareNum, 0, false);
 			return shareNum;
 		} else {
-			no += shareNum;
+			this.trade(0, shareNum, false);
 			return -1 * shareNum;
 		}	
 	}
@@ -57,13 +77,57 @@ public class OnlineWeighedAverage extends OnlineLearning {
 	 * @param shareNum : int
 	 */
 	@Override
-	public void no(Integer agentID, double shareNum) {
+	public double no(Integer agentID, double shareNum) {
 		throw new UnsupportedOperationException();
 	}
 
 	@Override
 	public OnlineMemory getMemory() {
-		return new OnlineMemory(pastWeight,yes,no);
+		return new OnlineMemory(getYes(),getNo(),pastWeight);
+	}
+	
+	/*
+	 * b at which the trader leaves the price at target, or -1 if no b
+	 * the calibrator would search does
+	 */
+	private double liquidity(double price, double value, double budget, double target) {
+		double d = this.getYes() - this.getNo();
+		double logit = Math.log(target) - Math.log1p(-target);
+		if (value < price) {
+			// Buying no mirrors buying yes
+			d = -1 * d;
+			logit = -1 * logit;
+		} else if (!(value > price)) {
+			return this.getB();
+		}
+
+		double goal = softplus(logit);
+		double u = 1 / this.getB();
+		for (int i = 0; i < STEPS && u > 0 && !Double.isInfinite(u); i++) {
+			double h = softplus(d * u) + budget * u - goal;
+			double step = h / (d * sigmoid(d * u) + budget);
+			u -= step;
+			if (Math.abs(step) <= EPSILON * u) {
+				double b = 1 / u;
+				if (b >= LiquidityCalibrator.MINB && b <= LiquidityCalibrator.MAXB) {
+					return b;
+				}
+				break;
+			}
+		}
+		return this.CALIBRATOR.calibrate(new Double[]{value}, new Double[]{budget},
+				target, getYes(), getNo());
+	}
+
+	/*
+	 * log(1 + exp(x)) without overflow
+	 */
+	private static double softplus(double x) {
+		return Math.max(x, 0) + Math.log1p(Math.exp(-Math.abs(x)));
+	}
+
+	private static double sigmoid(double x) {
+		return x >= 0 ? 1 / (1 + Math.exp(-x)) : Math.exp(x) / (1 + Math.exp(x));
 	}
 
 }
@@ -0,0 +1,104 @@
+package brown.markets;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Brent's method for the root of a function on a bracket. It takes
+ * inverse quadratic and secant steps while they converge and falls back
+ * to bisection when they do not, so it never leaves the bracket and
+ * needs no derivative.
+ */
+public final class RootFinder {
+	public static final int MAXITERATIONS = 100;
+
+	private RootFinder() {
+	}
+
+	/**
+	 * Finds x in [lo, hi] with f(x) = 0
+	 * @param f
+	 * @param lo
+	 * @param hi
+	 * @param tolerance : width of the final bracket
+	 * @return root
+	 * @throws IllegalArgumentException if f(lo) and f(hi) have the same sign
+	 */
+	public static double brent(DoubleUnaryOperator f, double lo, double hi, double tolerance) {
+		double a = lo;
+		double b = hi;
+		double fa = f.applyAsDouble(a);
+		double fb = f.applyAsDouble(b);
+		if (fa == 0) {
+			return a;
+		} else if (fb == 0) {
+			return b;
+		} else if (fa * fb > 0) {
+			throw new IllegalArgumentException("root not bracketed");
+		}
+
+		double c = b;
+		double fc = fb;
+		double d = b - a;
+		double e = d;
+		for (int i = 0; i < MAXITERATIONS; i++) {
+			if ((fb > 0) == (fc > 0)) {
+				// Keep the root between b and c
+				c = a;
+				fc = fa;
+				d = b - a;
+				e = d;
+			}
+			if (Math.abs(fc) < Math.abs(fb)) {
+				a = b;
+				b = c;
+				c = a;
+				fa = fb;
+				fb = fc;
+				fc = fa;
+			}
+
+			double tol = 2 * Math.ulp(b) + tolerance / 2;
+			double m = (c - b) / 2;
+			if (Math.abs(m) <= tol || fb == 0) {
+				return b;
+			}
+
+			if (Math.abs(e) >= tol && Math.abs(fa) > Math.abs(fb)) {
+				double s = fb / fa;
+				double p;
+				double q;
+				if (a == c) {
+					p = 2 * m * s;
+					q = 1 - s;
+				} else {
+					double r = fb / fc;
+					q = fa / fc;
+					p = s * (2 * m * q * (q - r) - (b - a) * (r - 1));
+					q = (q - 1) * (r - 1) * (s - 1);
+				}
+				if (p > 0) {
+					q = -q;
+				} else {
+					p = -p;
+				}
+
+				if (2 * p < Math.min(3 * m * q - Math.abs(tol * q), Math.abs(e * q))) {
+					e = d;
+					d = p / q;
+				} else {
+					d = m;
+					e = m;
+				}
+			} else {
+				d = m;
+				e = m;
+			}
+
+			a = b;
+			fa = fb;
+			b += Math.abs(d) > tol ? d : Math.copySign(tol, m);
+			fb = f.applyAsDouble(b);
+		}
+		return b;
+	}
+}
@@ -114,12 +114,12 @@ public class SimpleAuction implements IMarket {
 			//works here
 			System.out.println("fixed bids " + fixedBids);
 //			if (fixedBids.size() > 10) {
-//				agent.CLIENT.sendTCP(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
+//				agent.send(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
 //				fixedBids.clear();
 //			}
 		}
 		if (fixedBids.size() > 0) {
-			agent.CLIENT.sendTCP(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
+			agent.send(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
 		}
 	}
 
@@ -128,12 +128,12 @@ public class SimpleAuction implements IMarket {
 		for (FullType bid : toBid) {
 			fixedBids.put(bid, new MarketState(agent.ID, 0));
 			if (fixedBids.size() > 10) {
-				agent.CLIENT.sendTCP(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
+				agent.send(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
 				fixedBids.clear();
 			}
 		}
 		if (fixedBids.size() != 0) {
-			agent.CLIENT.sendTCP(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
+			agent.send(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
 		}
 	}
 	
@@ -150,14 +150,14 @@ public class SimpleAuction implements IMarket {
 			for (FullType t : bid.getKey()) {
 				fixedBids.put(t, new MarketState(agent.ID, bid.getValue()));
 				if (fixedBids.size() > 10) {
-					agent.CLIENT.sendTCP(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
+					agent.send(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
 					fixedBids.clear();
 				}
 			}
 		}
 		
 		if (fixedBids.size() != 0) {
-			agent.CLIENT.sendTCP(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
+			agent.send(new Bid(0,new SimpleBidBundle(fixedBids),this.ID,agent.ID));
 		}
 	}
 	
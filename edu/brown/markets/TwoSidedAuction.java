@@ -6,6 +6,8 @@ import java.util.SortedMap;
 
 import brown.assets.accounting.Order;
 import brown.assets.value.FullType;
+import brown.messages.markets.BookUpdate;
+import brown.messages.markets.OrderType;
 import brown.tradeables.Tradeable;
 
 public interface TwoSidedAuction extends IMarketServer {
@@ -13,13 +15,20 @@ public interface TwoSidedAuction extends IMarketServer {
 	
 	public List<Order> buy(Integer agentID, double shareNum, double sharePrice);
 	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice);
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type);
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type);
 	public void cancel(Integer agentID, boolean buy, double shareNum, double sharePrice);
 	
+	public long lastOrderID();
+	public boolean cancel(Integer agentID, long orderID);
+	public boolean amend(Integer agentID, long orderID, double shareNum, double budget);
+	
 	public double quoteBid(double shareNum, double sharePrice);
 	public double quoteAsk(double shareNum, double sharePrice);
 	
 	public SortedMap<Double, Set<Order>> getBuyBook();
 	public SortedMap<Double, Set<Order>> getSellBook();
+	public BookUpdate getBookUpdate();
 	
-	public void tick(double time);
+	public List<Order> tick(double time);
 }
@@ -1,65 +1,52 @@
 package brown.markets;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-
+/**
+ * No regret market maker that scales each trade by the weight of the
+ * agent making it. Buying yes, or selling no, is taken as predicting
+ * yes, and agents lose weight for every round they predict wrong.
+ */
 public class WeightedMajority extends NoRegret {
-	private Map<Integer, Boolean> predictions;
 	private final double T;
 	private final double LEARNING;
-	private final double FAILURE;
 
 	public WeightedMajority(Integer ID, double b, NoRegretMemory memory) {
 		super(ID, b, memory);
 		this.T = memory.T;
-		this.LEARNING = Math.sqrt(Math.log(memory.WEIGHTS.size())/T);
-		this.predictions = new HashMap<Integer, Boolean>();
-		
-		double failure = 0;
-		for (double d : this.weights.values()) {
-			failure += Math.exp(-1 * LEARNING * d);
-		}
-		this.FAILURE = failure;
+		this.LEARNING = Math.sqrt(Math.log(Math.max(1, this.weights.size()))/T);
+		this.weights.setLearning(this.LEARNING);
 	}
-	
+
 	/*
 	 * Returns a share to an agent that buys yes
 	 * @param shareNum : int
+	 * @return cost : double
 	 */
 	@Override
-	public void yes(Integer agentID, double shareNum) {
-		this.yes += shareNum * getWeight(agentID);
+	public double yes(Integer agentID, double shareNum) {
+		int index = this.weights.index(agentID);
+		this.weights.predict(index, shareNum > 0);
+		return this.trade(shareNum * this.weights.weight(index), 0, false);
 	}
-	
+
 	/*
 	 * Returns a share to an agent that buys no
 	 * @param shareNum : int
+	 * @return cost : double
 	 */
 	@Override
-	public void no(Integer agentID, double shareNum) {
-		this.no += shareNum * getWeight(agentID);
+	public double no(Integer agentID, double shareNum) {
+		int index = this.weights.index(agentID);
+		this.weights.predict(index, !(shareNum > 0));
+		return this.trade(0, shareNum * this.weights.weight(index), false);
 	}
 
+	/**
+	 * Charges every agent that predicted wrong this round, all at once
+	 */
 	@Override
 	public NoRegretMemory update(boolean outcome) {
-		for (Entry<Integer, Boolean> prediction : this.predictions.entrySet()) {
-			if (this.weights.containsKey(prediction.getKey())) {
-				this.weights.put(prediction.getKey(), this.weights.get(prediction.getKey())
-						+ (outcome == prediction.getValue() ? 0.0 : 1.0));
-			} else {
-				this.weights.put(prediction.getKey(), (outcome == prediction.getValue() ? 0.0 : 1.0));
-			}
-		}
-		
+		this.weights.update(outcome);
 		return new NoRegret.NoRegretMemory(this.weights, this.T+1);
 	}
-	
-	private double getWeight(Integer ID) {
-		if (!this.weights.containsKey(ID)) {
-			return 1.0/FAILURE;
-		}
-		return Math.exp(-1 * LEARNING * this.weights.get(ID)) / this.FAILURE;
-	}
 
 }
@@ -10,6 +10,7 @@ public class Ack extends Message {
 	public final Bid failedBR;
 	public final NegotiateRequest failedTR;
 	public final boolean REJECTED;
+	public final long ORDERID;
 	
 	/**
 	 * Empty for kryo
@@ -21,6 +22,7 @@ public class Ack extends Message {
 		this.failedTR = null;
 		this.failedLO = null;
 		this.REJECTED = true;
+		this.ORDERID = -1;
 	}
 	
 	/**
@@ -34,6 +36,7 @@ public class Ack extends Message {
 		this.failedTR = null;
 		this.failedLO = null;
 		this.REJECTED = b;
+		this.ORDERID = -1;
 	}
 	
 	/**
@@ -48,6 +51,7 @@ public class Ack extends Message {
 		this.failedTR = null;
 		this.failedLO = null;
 		this.REJECTED = rejected;
+		this.ORDERID = -1;
 	}
 	
 	/**
@@ -62,6 +66,7 @@ public class Ack extends Message {
 		this.failedTR = tr;
 		this.failedLO = null;
 		this.REJECTED = rejected;
+		this.ORDERID = -1;
 	}
 	
 	/**
@@ -75,6 +80,22 @@ public class Ack extends Message {
 		this.failedBR = null;
 		this.failedTR = null;
 		this.REJECTED = rejected;
+		this.ORDERID = -1;
+	}
+	
+	/**
+	 * Acceptance for a limit order left resting in the book
+	 * @param ID : agent ID
+	 * @param lo : accepted limit order
+	 * @param orderID : ID the market gave the resting order
+	 */
+	public Ack(Integer ID, MarketOrder lo, long orderID) {
+		super(ID);
+		this.failedLO = lo;
+		this.failedBR = null;
+		this.failedTR = null;
+		this.REJECTED = false;
+		this.ORDERID = orderID;
 	}
 	
 	@Override
@@ -0,0 +1,77 @@
+package brown.messages.markets;
+
+import brown.agent.Agent;
+import brown.assets.value.FullType;
+import brown.messages.Message;
+
+/**
+ * Level 2 update for a two-sided market. A delta carries only the levels
+ * whose resting quantity changed since the previous sequence, with a
+ * quantity of 0 meaning the level is gone; a snapshot carries every
+ * level. Both carry the trades since the previous sequence.
+ */
+public class BookUpdate extends Message {
+	public final Integer MARKETID;
+	public final FullType TYPE;
+	public final long SEQUENCE;
+	public final boolean SNAPSHOT;
+	public final double[] BIDPRICES;
+	public final double[] BIDQUANTITIES;
+	public final double[] ASKPRICES;
+	public final double[] ASKQUANTITIES;
+	public final double[] TRADEPRICES;
+	public final double[] TRADEQUANTITIES;
+
+	/**
+	 * For kryo
+	 * DO NOT USE
+	 */
+	public BookUpdate() {
+		super(null);
+		this.MARKETID = null;
+		this.TYPE = null;
+		this.SEQUENCE = -1;
+		this.SNAPSHOT = false;
+		this.BIDPRICES = null;
+		this.BIDQUANTITIES = null;
+		this.ASKPRICES = null;
+		this.ASKQUANTITIES = null;
+		this.TRADEPRICES = null;
+		this.TRADEQUANTITIES = null;
+	}
+
+	/**
+	 * Constructor
+	 * @param marketID : market the book belongs to
+	 * @param type : tradeable type of the market
+	 * @param sequence : increases by one per update
+	 * @param snapshot : true if every level is included
+	 * @param bidPrices
+	 * @param bidQuantities
+	 * @param askPrices
+	 * @param askQuantities
+	 * @param tradePrices
+	 * @param tradeQuantities
+	 */
+	public BookUpdate(Integer marketID, FullType type, long sequence, boolean snapshot,
+			double[] bidPrices, double[] bidQuantities, double[] askPrices,
+			double[] askQuantities, double[] tradePrices, double[] tradeQuantities) {
+		super(null);
+		this.MARKETID = marketID;
+		this.TYPE = type;
+		this.SEQUENCE = sequence;
+		this.SNAPSHOT = snapshot;
+		this.BIDPRICES = bidPrices;
+		this.BIDQUANTITIES = bidQuantities;
+		this.ASKPRICES = askPrices;
+		this.ASKQUANTITIES = askQuantities;
+		this.TRADEPRICES = tradePrices;
+		this.TRADEQUANTITIES = tradeQuantities;
+	}
+
+	@Override
+	public void dispatch(Agent agent) {
+		agent.onBookUpdate(this);
+	}
+
+}
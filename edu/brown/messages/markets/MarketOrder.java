@@ -1,6 +1,7 @@
 package brown.messages.markets;
 
 import brown.agent.Agent;
+import brown.assets.value.TradeableType;
 import brown.markets.TwoSidedAuction;
 import brown.messages.Message;
 
@@ -10,42 +11,120 @@ public class MarketOrder extends Message {
 	public final double sellShares;
 	public final double price;
 	public final boolean cancel;
+	public final long orderID;
+	public final OrderType type;
+	// Sequence of the market maker state the order was priced against,
+	// or -1 if it was not
+	public final long sequence;
+	// Side of a binary market the order is for, or null for the
+	// market's own tradeable
+	public final TradeableType side;
 
 	public MarketOrder() {
-		super(null);
-		this.marketID = null;
-		this.buyShares = 0;
-		this.sellShares = 0;
-		this.price = 0;
-		this.cancel = false;
+		this(null, null, 0, 0, 0, false, -1, OrderType.Limit, -1, null);
 	}
 	
 	public MarketOrder(Integer ID, TwoSidedAuction market, double buyShares, double sellShares, double price) {
-		super(ID);
-		this.marketID = market.getID();
-		this.buyShares = buyShares;
-		this.sellShares = sellShares;
-		this.price = price;
-		this.cancel = false;
+		this(ID, market.getID(), buyShares, sellShares, price);
 	}
 	
 	public MarketOrder(Integer ID, Integer marketID, double buyShares, double sellShares, double price) {
-		super(ID);
-		this.marketID = marketID;
-		this.buyShares = buyShares;
-		this.sellShares = sellShares;
-		this.price = price;
-		this.cancel = false;
+		this(ID, marketID, buyShares, sellShares, price, false);
 	}
 	
 	public MarketOrder(Integer ID, Integer marketID, double buyShares, 
 			double sellShares, double price, boolean cancel) {
+		this(ID, marketID, buyShares, sellShares, price, cancel, -1, OrderType.Limit, -1, null);
+	}
+
+	/**
+	 * Places an order with a time in force other than a plain limit
+	 * @param ID
+	 * @param marketID
+	 * @param buyShares
+	 * @param sellShares
+	 * @param price : ignored for market orders
+	 * @param type
+	 */
+	public MarketOrder(Integer ID, Integer marketID, double buyShares,
+			double sellShares, double price, OrderType type) {
+		this(ID, marketID, buyShares, sellShares, price, false, -1, type, -1, null);
+	}
+
+	/**
+	 * Places an order sized from a copy of a market maker
+	 * @param ID
+	 * @param marketID
+	 * @param buyShares
+	 * @param sellShares
+	 * @param price
+	 * @param sequence : sequence of the state it was priced against
+	 */
+	public MarketOrder(Integer ID, Integer marketID, double buyShares,
+			double sellShares, double price, long sequence) {
+		this(ID, marketID, buyShares, sellShares, price, sequence, null);
+	}
+
+	/**
+	 * Places an order sized from a copy of a market maker for one side
+	 * of a binary market
+	 * @param ID
+	 * @param marketID
+	 * @param buyShares
+	 * @param sellShares
+	 * @param price
+	 * @param sequence : sequence of the state it was priced against
+	 * @param side : PredictionYes or PredictionNo
+	 */
+	public MarketOrder(Integer ID, Integer marketID, double buyShares,
+			double sellShares, double price, long sequence, TradeableType side) {
+		this(ID, marketID, buyShares, sellShares, price, false, -1, OrderType.Limit,
+				sequence, side);
+	}
+
+	/**
+	 * Cancels a resting order by the ID it was acked with
+	 * @param ID
+	 * @param marketID
+	 * @param orderID
+	 */
+	public MarketOrder(Integer ID, Integer marketID, long orderID) {
+		this(ID, marketID, 0, 0, 0, true, orderID, OrderType.Limit, -1, null);
+	}
+	
+	/**
+	 * Changes the open quantity of a resting order
+	 * @param ID
+	 * @param marketID
+	 * @param orderID
+	 * @param shareNum : new open quantity
+	 */
+	public MarketOrder(Integer ID, Integer marketID, long orderID, double shareNum) {
+		this(ID, marketID, shareNum, 0, 0, false, orderID, OrderType.Limit, -1, null);
+	}
+
+	private MarketOrder(Integer ID, Integer marketID, double buyShares,
+			double sellShares, double price, boolean cancel, long orderID,
+			OrderType type, long sequence, TradeableType side) {
 		super(ID);
 		this.marketID = marketID;
 		this.buyShares = buyShares;
 		this.sellShares = sellShares;
 		this.price = price;
 		this.cancel = cancel;
+		this.orderID = orderID;
+		this.type = type;
+		this.sequence = sequence;
+		this.side = side;
+	}
+
+	/**
+	 * Whether the market has moved since the order was priced
+	 * @param sequence : the market's sequence now
+	 * @return true if the order was priced against an older state
+	 */
+	public boolean isStale(long sequence) {
+		return this.sequence != -1 && this.sequence != sequence;
 	}
 
 	@Override
@@ -0,0 +1,37 @@
+package brown.messages.markets;
+
+/**
+ * How long an order may stay on the book and what it may trade against.
+ * Limit orders rest whatever is left after matching. ImmediateOrCancel
+ * and FillOrKill take what they can on arrival and never rest; FillOrKill
+ * trades only if the whole order fills. Market orders are
+ * ImmediateOrCancel without a limit price. PostOnly orders only ever
+ * rest, and are rejected if they would trade on arrival.
+ */
+public enum OrderType {
+	Limit,
+	ImmediateOrCancel,
+	FillOrKill,
+	Market,
+	PostOnly;
+
+	/**
+	 * @return whether any unfilled part of the order stays on the book
+	 */
+	public boolean rests() {
+		return this == Limit || this == PostOnly;
+	}
+
+	/**
+	 * The price an order of this type is matched at
+	 * @param buy
+	 * @param price : the order's own price
+	 * @return price, with no limit for market orders
+	 */
+	public double limit(boolean buy, double price) {
+		if (this != Market) {
+			return price;
+		}
+		return buy ? Double.MAX_VALUE : 0;
+	}
+}
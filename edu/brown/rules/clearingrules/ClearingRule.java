@@ -5,11 +5,14 @@ import java.util.Set;
 import java.util.SortedMap;
 
 import brown.assets.accounting.Order;
+import brown.messages.markets.OrderType;
 import brown.tradeables.Tradeable;
 
 public interface ClearingRule {
 	public List<Order> buy(Integer agentID, double shareNum, double sharePrice);
 	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice);
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type);
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type);
 	
 	public double quoteBid(double shareNum, double sharePrice);
 	public double quoteAsk(double shareNum, double sharePrice);
@@ -18,8 +21,18 @@ public interface ClearingRule {
 	public SortedMap<Double, Set<Order>> getBuyBook();
 	public SortedMap<Double, Set<Order>> getSellBook();
 	
-	public void tick(double time);
+	/**
+	 * Called without the market held; a rule that changes anything here
+	 * must synchronize it itself
+	 * @param time
+	 * @return trades made
+	 */
+	public List<Order> tick(double time);
 	public boolean isShort();
 	public void cancel(Integer agentID, boolean buy, double shareNum,
 			double sharePrice);
+	
+	public long lastOrderID();
+	public boolean cancel(Integer agentID, long orderID);
+	public boolean amend(Integer agentID, long orderID, double shareNum, double budget);
 }
@@ -12,6 +12,7 @@ import java.util.TreeMap;
 import java.util.function.Function;
 
 import brown.assets.accounting.Order;
+import brown.messages.markets.OrderType;
 import brown.tradeables.Tradeable;
 
 public class ClosestMatchClearing implements ClearingRule {
@@ -37,6 +38,19 @@ public class ClosestMatchClearing implements ClearingRule {
 
 	@Override
 	public List<Order> buy(Integer agentID, double shareNum, double sharePrice) {
+		return this.buy(agentID, shareNum, sharePrice, true);
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		double limit = type.limit(true, sharePrice);
+		if (!OrderBooks.admits(this.sellOrderBook, true, agentID, false, shareNum, limit, type)) {
+			return new LinkedList<Order>();
+		}
+		return this.buy(agentID, shareNum, limit, type.rests());
+	}
+
+	private List<Order> buy(Integer agentID, double shareNum, double sharePrice, boolean rests) {
 		List<Order> completed = new LinkedList<Order>();
 		Set<Double> bigRemove = new HashSet<Double>();
 		for (Map.Entry<Double, Set<Order>> postedSell : this.sellOrderBook.entrySet()) {
@@ -77,7 +91,7 @@ public class ClosestMatchClearing implements ClearingRule {
 			this.sellOrderBook.remove(d);
 		}
 
-		if (shareNum > 0) {
+		if (shareNum > 0 && rests) {
 			Set<Order> wanted = this.buyOrderBook.get(sharePrice);
 			if (wanted == null) {
 				wanted = new HashSet<Order>();
@@ -91,6 +105,24 @@ public class ClosestMatchClearing implements ClearingRule {
 
 	@Override
 	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice) {
+		return this.sell(agentID, opp, sharePrice, true, false);
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		double limit = type.limit(false, sharePrice);
+		if (!OrderBooks.admits(this.buyOrderBook, false, agentID, false, opp.getCount(), limit, type)) {
+			return new LinkedList<Order>();
+		}
+		return this.sell(agentID, opp, limit, type.rests(), type == OrderType.Market);
+	}
+
+	/*
+	 * Sells trade at their own price here, except market sells, which
+	 * have none and take each bid's as they walk down the book
+	 */
+	private List<Order> sell(Integer agentID, Tradeable opp, double sharePrice,
+			boolean rests, boolean atBid) {
 		List<Order> completed = new LinkedList<Order>();
 		Set<Double> bigRemove = new HashSet<Double>();
 		double shareNum = opp.getCount();
@@ -117,7 +149,8 @@ public class ClosestMatchClearing implements ClearingRule {
 
 					double quantity = Math.min(opp.getCount(), buy.QUANTITY);
 					Tradeable toGive = quantity == opp.getCount() ? opp : opp.split(quantity);
-					completed.add(new Order(buy.FROM, agentID, sharePrice * quantity, quantity, toGive));
+					double price = atBid ? wanted.getKey() : sharePrice;
+					completed.add(new Order(buy.FROM, agentID, price * quantity, quantity, toGive));
 					if (quantity == buy.QUANTITY) {
 						toRemove.add(buy);
 					} else {
@@ -137,7 +170,7 @@ public class ClosestMatchClearing implements ClearingRule {
 			this.buyOrderBook.remove(d);
 		}
 
-		if (shareNum > 0) {
+		if (shareNum > 0 && rests) {
 			Set<Order> wanted = this.sellOrderBook.get(sharePrice);
 			if (wanted == null) {
 				wanted = new HashSet<Order>();
@@ -209,8 +242,9 @@ public class ClosestMatchClearing implements ClearingRule {
 	}
 
 	@Override
-	public void tick(double time) {
-		// TODO Auto-generated method stub
+	public List<Order> tick(double time) {
+		// Noop
+		return new LinkedList<Order>();
 	}
 
 	@Override
@@ -257,7 +291,7 @@ public class ClosestMatchClearing implements ClearingRule {
 			if (orders != null) {
 				orders.removeAll(toRemove);
 				if (orders.size() == 0) {
-					this.buyOrderBook.remove(sharePrice);
+					this.sellOrderBook.remove(sharePrice);
 				}
 			}
 		}
@@ -269,4 +303,23 @@ public class ClosestMatchClearing implements ClearingRule {
 		return 0;
 	}
 
+	@Override
+	public long lastOrderID() {
+		// Noop
+		return -1;
+	}
+
+	@Override
+	public boolean cancel(Integer agentID, long orderID) {
+		// Noop
+		return false;
+	}
+
+	@Override
+	public boolean amend(Integer agentID, long orderID, double shareNum,
+			double budget) {
+		// Noop
+		return false;
+	}
+
 }
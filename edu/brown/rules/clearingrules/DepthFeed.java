@@ -0,0 +1,19 @@
+package brown.rules.clearingrules;
+
+import brown.assets.value.FullType;
+import brown.messages.markets.BookUpdate;
+
+/**
+ * Clearing rules that can publish their book incrementally
+ */
+public interface DepthFeed {
+	/**
+	 * Publishes the next sequence: the levels changed and trades made
+	 * since the last one, or the whole book if snapshot is set
+	 * @param marketID : market the rule clears
+	 * @param type : tradeable type of the market
+	 * @param snapshot : include every level
+	 * @return update
+	 */
+	public BookUpdate publish(Integer marketID, FullType type, boolean snapshot);
+}
@@ -0,0 +1,93 @@
+package brown.rules.clearingrules;
+
+import java.util.Arrays;
+
+/**
+ * Binary indexed tree of resting quantity and notional by rank, where
+ * rank 0 is the best possible price on a side. Prefix sums and the
+ * search for where a fill of a given size ends are O(log ranks).
+ */
+public class DepthIndex {
+	private double[] quantity;
+	private double[] notional;
+	private int size;
+
+	public DepthIndex() {
+		this.size = 16;
+		this.quantity = new double[this.size + 1];
+		this.notional = new double[this.size + 1];
+	}
+
+	/**
+	 * Adds quantity resting at a rank
+	 * @param rank : 0 is best
+	 * @param shareNum : change in quantity, negative to remove
+	 * @param price : price of the rank
+	 */
+	public void add(int rank, double shareNum, double price) {
+		while (rank >= this.size) {
+			this.grow();
+		}
+		double value = shareNum * price;
+		for (int i = rank + 1; i <= this.size; i += i & -i) {
+			this.quantity[i] += shareNum;
+			this.notional[i] += value;
+		}
+	}
+
+	/**
+	 * Quantity resting at the first count ranks
+	 * @param count
+	 * @return shares
+	 */
+	public double quantity(int count) {
+		return this.sum(this.quantity, count);
+	}
+
+	/**
+	 * Value of the quantity resting at the first count ranks
+	 * @param count
+	 * @return monies
+	 */
+	public double notional(int count) {
+		return this.sum(this.notional, count);
+	}
+
+	/**
+	 * Finds how many ranks a fill of shareNum takes in full
+	 * @param shareNum
+	 * @return the largest count whose quantity is below shareNum
+	 */
+	public int search(double shareNum) {
+		int pos = 0;
+		double remaining = shareNum;
+		for (int step = this.size; step > 0; step >>= 1) {
+			if (pos + step <= this.size && this.quantity[pos + step] < remaining) {
+				pos += step;
+				remaining -= this.quantity[pos];
+			}
+		}
+		return pos;
+	}
+
+	private double sum(double[] tree, int count) {
+		double total = 0;
+		for (int i = Math.min(count, this.size); i > 0; i -= i & -i) {
+			total += tree[i];
+		}
+		return total;
+	}
+
+	/*
+	 * Doubles the ranks covered. Every new node but the last covers only
+	 * new, empty ranks, and the last covers everything.
+	 */
+	private void grow() {
+		int old = this.size;
+		this.size *= 2;
+		this.quantity = Arrays.copyOf(this.quantity, this.size + 1);
+		this.notional = Arrays.copyOf(this.notional, this.size + 1);
+		this.quantity[this.size] = this.quantity[old];
+		this.notional[this.size] = this.notional[old];
+	}
+}
@@ -0,0 +1,100 @@
+package brown.rules.clearingrules;
+
+import java.util.Arrays;
+
+import brown.assets.accounting.Order;
+import brown.tradeables.Tradeable;
+
+/**
+ * Reusable store of fills. Records are kept in parallel arrays that
+ * only grow, so once a buffer has held its largest batch, clearing it
+ * and filling it again allocates nothing.
+ */
+public class FillBuffer implements FillHandler {
+	private Integer[] to;
+	private Integer[] from;
+	private double[] price;
+	private double[] quantity;
+	private Tradeable[] good;
+	private int size;
+
+	public FillBuffer() {
+		this(16);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity : fills held before the buffer grows
+	 */
+	public FillBuffer(int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.to = new Integer[capacity];
+		this.from = new Integer[capacity];
+		this.price = new double[capacity];
+		this.quantity = new double[capacity];
+		this.good = new Tradeable[capacity];
+		this.size = 0;
+	}
+
+	@Override
+	public void onFill(Integer to, Integer from, double price, double quantity, Tradeable good) {
+		if (this.size == this.price.length) {
+			int capacity = this.size * 2;
+			this.to = Arrays.copyOf(this.to, capacity);
+			this.from = Arrays.copyOf(this.from, capacity);
+			this.price = Arrays.copyOf(this.price, capacity);
+			this.quantity = Arrays.copyOf(this.quantity, capacity);
+			this.good = Arrays.copyOf(this.good, capacity);
+		}
+		this.to[this.size] = to;
+		this.from[this.size] = from;
+		this.price[this.size] = price;
+		this.quantity[this.size] = quantity;
+		this.good[this.size] = good;
+		this.size++;
+	}
+
+	/**
+	 * Forgets every fill, dropping references to agents and goods
+	 */
+	public void clear() {
+		Arrays.fill(this.to, 0, this.size, null);
+		Arrays.fill(this.from, 0, this.size, null);
+		Arrays.fill(this.good, 0, this.size, null);
+		this.size = 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public Integer to(int i) {
+		return this.to[i];
+	}
+
+	public Integer from(int i) {
+		return this.from[i];
+	}
+
+	public double price(int i) {
+		return this.price[i];
+	}
+
+	public double quantity(int i) {
+		return this.quantity[i];
+	}
+
+	public Tradeable good(int i) {
+		return this.good[i];
+	}
+
+	/**
+	 * Copies a fill out as an Order, leaving the good unsplit
+	 * @param i
+	 * @return order
+	 */
+	public Order toOrder(int i) {
+		return new Order(this.to[i], this.from[i], this.price[i] * this.quantity[i],
+				this.quantity[i], this.good[i]);
+	}
+}
@@ -0,0 +1,20 @@
+package brown.rules.clearingrules;
+
+import brown.tradeables.Tradeable;
+
+/**
+ * Receives fills as a clearing rule makes them, in place of a list of
+ * Orders. The good is passed whole; when quantity is less than its
+ * count, the receiver splits off what was traded.
+ */
+public interface FillHandler {
+	/**
+	 * One fill
+	 * @param to : buyer
+	 * @param from : seller
+	 * @param price : price per share
+	 * @param quantity : shares traded
+	 * @param good : seller's tradeable
+	 */
+	public void onFill(Integer to, Integer from, double price, double quantity, Tradeable good);
+}
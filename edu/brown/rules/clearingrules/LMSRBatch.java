@@ -0,0 +1,243 @@
+package brown.rules.clearingrules;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+import brown.assets.accounting.Account;
+import brown.assets.accounting.Order;
+import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
+import brown.markets.LMSRBackend;
+import brown.tradeables.Tradeable;
+
+/**
+ * Orders for both sides of a binary LMSR market, held over a tick and
+ * filled together. Both sides trade through one batch, so buys and
+ * sells of yes and no net against each other. The market maker then
+ * takes the net move with a single evaluation of its cost function,
+ * and the price moves once per batch whatever order the agents arrived
+ * in.
+ *
+ * The batch cost C of the net move Y yes and N no is split by a single
+ * per share price on each side, p for yes and 1 - p for no, so a yes
+ * and a no share together still cost 1. Choosing p = (C - N) / (Y - N)
+ * makes the charges add up to C; it is the average yes price along the
+ * move. When Y = N the split is at the yes price before the batch,
+ * scaled to C. Buyers pay and sellers are paid the same price per
+ * share on their side.
+ *
+ * That price can be more than an order alone would have cost, and an
+ * agent may have several orders in one batch, so each agent's buys are
+ * checked against its funds at the tick before the market maker moves.
+ * While some agent's buys come to more than it has, its latest buy is
+ * dropped and the batch is priced again; dropped orders never fill.
+ */
+public class LMSRBatch {
+	private final LMSRBackend BACKEND;
+	private final double INTERVAL;
+	// What each agent can pay, read at the tick
+	private final transient ToDoubleFunction<Integer> FUNDS;
+	private final FullType YES;
+	private final FullType NO;
+
+	// Orders and fills are the server's own and never sent to agents
+	private final transient List<Pending> PENDING;
+	private final transient List<Order> YESFILLS;
+	private final transient List<Order> NOFILLS;
+	private double lastClear;
+
+	public LMSRBatch() {
+		this.BACKEND = null;
+		this.INTERVAL = 0;
+		this.FUNDS = null;
+		this.YES = null;
+		this.NO = null;
+		this.PENDING = null;
+		this.YESFILLS = null;
+		this.NOFILLS = null;
+	}
+
+	/**
+	 * Constructor for agents with unlimited funds
+	 * @param backend : market maker both sides trade with
+	 * @param interval : least time between batches, in the units of tick
+	 */
+	public LMSRBatch(LMSRBackend backend, double interval) {
+		this(backend, interval, agentID -> Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param backend : market maker both sides trade with
+	 * @param interval : least time between batches, in the units of tick
+	 * @param funds : monies of the agent with a private ID, such as its
+	 * account's on the server
+	 */
+	public LMSRBatch(LMSRBackend backend, double interval, ToDoubleFunction<Integer> funds) {
+		this.BACKEND = backend;
+		this.INTERVAL = interval;
+		this.FUNDS = funds;
+		this.YES = new FullType(TradeableType.PredictionYes, backend.getId());
+		this.NO = new FullType(TradeableType.PredictionNo, backend.getId());
+		this.PENDING = new ArrayList<Pending>();
+		this.YESFILLS = new LinkedList<Order>();
+		this.NOFILLS = new LinkedList<Order>();
+		this.lastClear = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Holds an order for the next batch
+	 * @param dir : true for yes, false for no
+	 * @param agentID
+	 * @param shareNum : shares to buy, or negative to sell
+	 * @param good : the shares being sold, or null for a buy
+	 */
+	public synchronized void add(boolean dir, Integer agentID, double shareNum, Tradeable good) {
+		this.PENDING.add(new Pending(dir, agentID, shareNum, good));
+	}
+
+	/**
+	 * Fills the batch if a full interval has passed since the last one,
+	 * then hands over one side's fills. The first side to tick fills
+	 * both; the other collects its own on its next tick.
+	 * @param dir : side to collect, true for yes
+	 * @param time
+	 * @return that side's fills
+	 */
+	public synchronized List<Order> tick(boolean dir, double time) {
+		if (!this.PENDING.isEmpty() && time - this.lastClear >= this.INTERVAL) {
+			this.lastClear = time;
+			this.clear();
+		}
+
+		List<Order> fills = dir ? this.YESFILLS : this.NOFILLS;
+		List<Order> completed = new LinkedList<Order>(fills);
+		fills.clear();
+		return completed;
+	}
+
+	/**
+	 * @return orders waiting for the next batch
+	 */
+	public synchronized int pending() {
+		return this.PENDING.size();
+	}
+
+	public LMSRBackend getBackend() {
+		return this.BACKEND;
+	}
+
+	/*
+	 * Drops what agents cannot pay for, nets the rest, trades the net
+	 * move, and prices every order left
+	 */
+	private void clear() {
+		double before = this.BACKEND.price(true);
+		double[] move = this.move();
+		double[] prices = this.prices(move, this.BACKEND.cost(move[0], move[1])
+				- this.BACKEND.cost(0, 0), before);
+		while (this.drop(prices)) {
+			move = this.move();
+			prices = this.prices(move, this.BACKEND.cost(move[0], move[1])
+					- this.BACKEND.cost(0, 0), before);
+		}
+		prices = this.prices(move, this.BACKEND.net(move[0], move[1]), before);
+
+		for (Pending order : this.PENDING) {
+			double price = order.YES ? prices[0] : prices[1];
+			List<Order> fills = order.YES ? this.YESFILLS : this.NOFILLS;
+			if (order.SHARES > 0) {
+				fills.add(new Order(order.AGENT, null, price * order.SHARES, order.SHARES,
+						this.security(order.YES, order.AGENT, order.SHARES)));
+			} else {
+				fills.add(new Order(null, order.AGENT, price * order.SHARES,
+						-1 * order.SHARES, order.GOOD));
+			}
+		}
+		this.PENDING.clear();
+	}
+
+	/*
+	 * Net change in quantity yes and no over the batch
+	 */
+	private double[] move() {
+		double[] move = new double[2];
+		for (Pending order : this.PENDING) {
+			move[order.YES ? 0 : 1] += order.SHARES;
+		}
+		return move;
+	}
+
+	/*
+	 * Per share price of yes and no that splits the cost of a net move
+	 */
+	private double[] prices(double[] move, double cost, double before) {
+		double yes = move[0];
+		double no = move[1];
+		if (Math.abs(yes - no) > 1e-9 * Math.max(Math.abs(yes), Math.abs(no))) {
+			double p = (cost - no) / (yes - no);
+			return new double[] {p, 1 - p};
+		} else if (yes != 0) {
+			return new double[] {before * cost / yes, (1 - before) * cost / yes};
+		}
+		return new double[] {before, 1 - before};
+	}
+
+	/*
+	 * Drops the latest buy of every agent whose buys cost more than its
+	 * funds at these prices
+	 * @return whether any were dropped
+	 */
+	private boolean drop(double[] prices) {
+		Map<Integer, Double> owed = new HashMap<Integer, Double>();
+		Map<Integer, Pending> latest = new HashMap<Integer, Pending>();
+		for (Pending order : this.PENDING) {
+			if (order.SHARES > 0) {
+				double cost = (order.YES ? prices[0] : prices[1]) * order.SHARES;
+				owed.merge(order.AGENT, cost, Double::sum);
+				latest.put(order.AGENT, order);
+			}
+		}
+
+		boolean dropped = false;
+		for (Map.Entry<Integer, Double> agent : owed.entrySet()) {
+			if (agent.getValue() > this.FUNDS.applyAsDouble(agent.getKey())) {
+				this.PENDING.remove(latest.get(agent.getKey()));
+				dropped = true;
+			}
+		}
+		return dropped;
+	}
+
+	/*
+	 * Shares of one side, paying 1 each if it comes true
+	 */
+	Tradeable security(boolean dir, Integer agentID, double shareNum) {
+		int pays = dir ? 1 : 0;
+		return new Tradeable(dir ? this.YES : this.NO, shareNum, agentID, state -> {
+			List<Account> list = new LinkedList<Account>();
+			if (state.STATE.getState() == pays) {
+				list.add(new Account(null).add(state.QUANTITY));
+			}
+			return list;
+		});
+	}
+
+	private static class Pending {
+		public final boolean YES;
+		public final Integer AGENT;
+		public final double SHARES;
+		public final Tradeable GOOD;
+
+		public Pending(boolean yes, Integer agent, double shares, Tradeable good) {
+			this.YES = yes;
+			this.AGENT = agent;
+			this.SHARES = shares;
+			this.GOOD = good;
+		}
+	}
+}
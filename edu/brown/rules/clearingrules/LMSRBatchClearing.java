@@ -0,0 +1,151 @@
+package brown.rules.clearingrules;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+
+import brown.assets.accounting.Order;
+import brown.messages.markets.OrderType;
+import brown.tradeables.Tradeable;
+
+/**
+ * One side of a binary LMSR market that fills orders in batches. Orders
+ * join the shared LMSRBatch on arrival and are filled, netted against
+ * everything else in the batch, on tick. As with the other LMSR rules
+ * the market maker fills every order in full and limit prices are not
+ * used, so only post only orders are turned away.
+ */
+public class LMSRBatchClearing implements ClearingRule {
+	private final LMSRBatch BATCH;
+	private final boolean DIR;
+	private final boolean SHORT;
+
+	public LMSRBatchClearing() {
+		this.BATCH = null;
+		this.DIR = true;
+		this.SHORT = true;
+	}
+
+	/**
+	 * Constructor
+	 * @param batch : shared with the rule for the other side
+	 * @param dir : true for yes, false for no
+	 * @param shortSelling
+	 */
+	public LMSRBatchClearing(LMSRBatch batch, boolean dir, boolean shortSelling) {
+		this.BATCH = batch;
+		this.DIR = dir;
+		this.SHORT = shortSelling;
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice) {
+		if (shareNum > 0) {
+			this.BATCH.add(this.DIR, agentID, shareNum, null);
+		}
+		return new LinkedList<Order>();
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice) {
+		if (this.SHORT && opp.getAgentID() == null) {
+			opp = this.BATCH.security(this.DIR, agentID, opp.getCount());
+		} else if (opp.getAgentID() == null) {
+			return new LinkedList<Order>();
+		}
+		if (opp.getCount() > 0) {
+			this.BATCH.add(this.DIR, agentID, -1 * opp.getCount(), opp);
+		}
+		return new LinkedList<Order>();
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		if (type == OrderType.PostOnly) {
+			return new LinkedList<Order>();
+		}
+		return this.buy(agentID, shareNum, sharePrice);
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		if (type == OrderType.PostOnly) {
+			return new LinkedList<Order>();
+		}
+		return this.sell(agentID, opp, sharePrice);
+	}
+
+	/**
+	 * What the order would cost were it filled alone. In a batch it
+	 * pays the batch's average price, which may be more or less, and it
+	 * is dropped if the agent cannot pay that at the tick.
+	 */
+	@Override
+	public double quoteBid(double shareNum, double sharePrice) {
+		return this.DIR ? this.BATCH.getBackend().bid(shareNum)
+				: this.BATCH.getBackend().ask(shareNum);
+	}
+
+	@Override
+	public double quoteAsk(double shareNum, double sharePrice) {
+		return this.DIR ? this.BATCH.getBackend().ask(shareNum)
+				: this.BATCH.getBackend().bid(shareNum);
+	}
+
+	@Override
+	public double price() {
+		return this.BATCH.getBackend().price(this.DIR);
+	}
+
+	@Override
+	public SortedMap<Double, Set<Order>> getBuyBook() {
+		// Noop
+		return null;
+	}
+
+	@Override
+	public SortedMap<Double, Set<Order>> getSellBook() {
+		// Noop
+		return null;
+	}
+
+	/**
+	 * Fills the batch if it is due
+	 * @return this side's fills
+	 */
+	@Override
+	public List<Order> tick(double time) {
+		return this.BATCH.tick(this.DIR, time);
+	}
+
+	@Override
+	public boolean isShort() {
+		return this.SHORT;
+	}
+
+	@Override
+	public void cancel(Integer agentID, boolean buy, double shareNum, double sharePrice) {
+		// Noop
+	}
+
+	@Override
+	public long lastOrderID() {
+		// Noop
+		return -1;
+	}
+
+	@Override
+	public boolean cancel(Integer agentID, long orderID) {
+		// Noop
+		return false;
+	}
+
+	@Override
+	public boolean amend(Integer agentID, long orderID, double shareNum,
+			double budget) {
+		// Noop
+		return false;
+	}
+
+}
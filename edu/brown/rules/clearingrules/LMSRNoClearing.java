@@ -10,6 +10,7 @@ import brown.assets.accounting.Order;
 import brown.assets.value.FullType;
 import brown.assets.value.TradeableType;
 import brown.markets.LMSRBackend;
+import brown.messages.markets.OrderType;
 import brown.tradeables.Tradeable;
 
 public class LMSRNoClearing implements ClearingRule {
@@ -31,8 +32,7 @@ public class LMSRNoClearing implements ClearingRule {
 
 	@Override
 	public List<Order> buy(Integer agentID, double shareNum, double sharePrice) {
-		double cost = this.BACKEND.ask(shareNum);
-		this.BACKEND.no(null, shareNum);
+		double cost = this.BACKEND.no(agentID, shareNum);
 		List<Order> trans = new LinkedList<Order>();
 		Tradeable newSec = new Tradeable(this.TYPE,  shareNum, agentID, state -> {
 			List<Account> list = new LinkedList<Account>();
@@ -60,12 +60,31 @@ public class LMSRNoClearing implements ClearingRule {
 		} else if (opp.getAgentID() == null) {
 			return trans;
 		}
-		double cost = this.BACKEND.ask(-1 * opp.getCount());
-		this.BACKEND.no(null, -1 * opp.getCount());
+		double cost = this.BACKEND.no(agentID, -1 * opp.getCount());
 		trans.add(new Order(null, agentID, cost, opp.getCount(), opp));
 		return trans;
 	}
 
+	/**
+	 * The market maker fills every order in full on arrival, so only
+	 * post only orders, which may never take, are turned away
+	 */
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		if (type == OrderType.PostOnly) {
+			return new LinkedList<Order>();
+		}
+		return this.buy(agentID, shareNum, sharePrice);
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		if (type == OrderType.PostOnly) {
+			return new LinkedList<Order>();
+		}
+		return this.sell(agentID, opp, sharePrice);
+	}
+
 	@Override
 	public double quoteBid(double shareNum, double sharePrice) {
 		return this.BACKEND.bid(shareNum);
@@ -89,8 +108,9 @@ public class LMSRNoClearing implements ClearingRule {
 	}
 
 	@Override
-	public void tick(double time) {
+	public List<Order> tick(double time) {
 		// Noop
+		return new LinkedList<Order>();
 	}
 
 	@Override
@@ -108,4 +128,23 @@ public class LMSRNoClearing implements ClearingRule {
 		return this.BACKEND.price(false);
 	}
 
+	@Override
+	public long lastOrderID() {
+		// Noop
+		return -1;
+	}
+
+	@Override
+	public boolean cancel(Integer agentID, long orderID) {
+		// Noop
+		return false;
+	}
+
+	@Override
+	public boolean amend(Integer agentID, long orderID, double shareNum,
+			double budget) {
+		// Noop
+		return false;
+	}
+
 }
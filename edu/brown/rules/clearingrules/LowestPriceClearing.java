@@ -12,6 +12,7 @@ import java.util.TreeMap;
 import java.util.function.Function;
 
 import brown.assets.accounting.Order;
+import brown.messages.markets.OrderType;
 import brown.tradeables.Tradeable;
 
 public class LowestPriceClearing implements ClearingRule {
@@ -37,6 +38,19 @@ public class LowestPriceClearing implements ClearingRule {
 
 	@Override
 	public List<Order> buy(Integer agentID, double shareNum, double sharePrice) {
+		return this.buy(agentID, shareNum, sharePrice, true);
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		double limit = type.limit(true, sharePrice);
+		if (!OrderBooks.admits(this.sellOrderBook, true, agentID, true, shareNum, limit, type)) {
+			return new LinkedList<Order>();
+		}
+		return this.buy(agentID, shareNum, limit, type.rests());
+	}
+
+	private List<Order> buy(Integer agentID, double shareNum, double sharePrice, boolean rests) {
 		List<Order> completed = new LinkedList<Order>();
 		for (Map.Entry<Double, Set<Order>> postedSell : this.sellOrderBook.entrySet()) {
 			if (shareNum <= 0) {
@@ -67,7 +81,7 @@ public class LowestPriceClearing implements ClearingRule {
 			}
 		}
 		
-		if (shareNum > 0) {
+		if (shareNum > 0 && rests) {
 			Set<Order> wanted = this.buyOrderBook.get(sharePrice);
 			if (wanted == null) {
 				wanted = new HashSet<Order>();
@@ -81,6 +95,24 @@ public class LowestPriceClearing implements ClearingRule {
 
 	@Override
 	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice) {
+		return this.sell(agentID, opp, sharePrice, true, false);
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		double limit = type.limit(false, sharePrice);
+		if (!OrderBooks.admits(this.buyOrderBook, false, agentID, true, opp.getCount(), limit, type)) {
+			return new LinkedList<Order>();
+		}
+		return this.sell(agentID, opp, limit, type.rests(), type == OrderType.Market);
+	}
+
+	/*
+	 * Sells trade at their own price here, except market sells, which
+	 * have none and take each bid's as they walk down the book
+	 */
+	private List<Order> sell(Integer agentID, Tradeable opp, double sharePrice,
+			boolean rests, boolean atBid) {
 		List<Order> completed = new LinkedList<Order>();
 		double shareNum = opp.getCount();
 		if (this.SHORT && opp.getAgentID() == null) {
@@ -104,7 +136,8 @@ public class LowestPriceClearing implements ClearingRule {
 					
 					double quantity = Math.min(opp.getCount(), buy.QUANTITY);
 					Tradeable toGive = quantity == opp.getCount() ? opp : opp.split(quantity);
-					completed.add(new Order(buy.FROM, agentID, sharePrice*quantity, quantity, toGive));
+					double price = atBid ? wanted.getKey() : sharePrice;
+					completed.add(new Order(buy.FROM, agentID, price*quantity, quantity, toGive));
 					if (quantity == buy.QUANTITY) {
 						toRemove.add(buy);
 					} else {
@@ -118,7 +151,7 @@ public class LowestPriceClearing implements ClearingRule {
 			}
 		}
 		
-		if (shareNum > 0) {
+		if (shareNum > 0 && rests) {
 			Set<Order> wanted = this.sellOrderBook.get(sharePrice);
 			if (wanted == null) {
 				wanted = new HashSet<Order>();
@@ -190,9 +223,9 @@ public class LowestPriceClearing implements ClearingRule {
 	}
 
 	@Override
-	public void tick(double time) {
-		// TODO Auto-generated method stub
-
+	public List<Order> tick(double time) {
+		// Noop
+		return new LinkedList<Order>();
 	}
 
 	@Override
@@ -239,7 +272,7 @@ public class LowestPriceClearing implements ClearingRule {
 			if (orders != null) {
 				orders.removeAll(toRemove);
 				if (orders.size() == 0) {
-					this.buyOrderBook.remove(sharePrice);
+					this.sellOrderBook.remove(sharePrice);
 				}
 			}
 		}
@@ -251,4 +284,23 @@ public class LowestPriceClearing implements ClearingRule {
 		return 0;
 	}
 
+	@Override
+	public long lastOrderID() {
+		// Noop
+		return -1;
+	}
+
+	@Override
+	public boolean cancel(Integer agentID, long orderID) {
+		// Noop
+		return false;
+	}
+
+	@Override
+	public boolean amend(Integer agentID, long orderID, double shareNum,
+			double budget) {
+		// Noop
+		return false;
+	}
+
 }
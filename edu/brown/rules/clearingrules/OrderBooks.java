@@ -0,0 +1,56 @@
+package brown.rules.clearingrules;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import brown.assets.accounting.Order;
+import brown.messages.markets.OrderType;
+
+/**
+ * Order type checks for the rules that keep their books as sorted maps
+ */
+final class OrderBooks {
+
+	private OrderBooks() {
+	}
+
+	/**
+	 * Whether an order of this type may go ahead. Post only orders must
+	 * find nothing to trade with, and fill or kill orders must find their
+	 * whole quantity. The book is walked the way the rules match, in its
+	 * own order until the first price that does not cross.
+	 * @param other : book on the other side
+	 * @param buy : is the incoming order a buy?
+	 * @param agentID
+	 * @param self : may the agent trade with its own orders?
+	 * @param shareNum
+	 * @param sharePrice : the order's limit
+	 * @param type
+	 * @return true if the order should be matched
+	 */
+	static boolean admits(SortedMap<Double, Set<Order>> other, boolean buy,
+			Integer agentID, boolean self, double shareNum, double sharePrice,
+			OrderType type) {
+		if (type != OrderType.PostOnly && type != OrderType.FillOrKill) {
+			return true;
+		}
+
+		double available = 0;
+		for (Map.Entry<Double, Set<Order>> level : other.entrySet()) {
+			if (available >= shareNum
+					|| (buy ? level.getKey() > sharePrice : level.getKey() < sharePrice)) {
+				break;
+			}
+
+			for (Order opp : level.getValue()) {
+				if (buy && !opp.GOOD.getAgentID().equals(opp.FROM)) {
+					continue;
+				} else if (self || !agentID.equals(opp.FROM)) {
+					available += buy ? opp.GOOD.getCount() : opp.QUANTITY;
+				}
+			}
+		}
+		return type == OrderType.PostOnly ? available == 0 : available >= shareNum;
+	}
+}
@@ -0,0 +1,117 @@
+package brown.rules.clearingrules;
+
+import java.util.Arrays;
+
+import brown.rules.clearingrules.PriceLadder.Node;
+
+/**
+ * Resting orders by ID in an open addressed table with linear probing.
+ * IDs are kept as primitives, so lookups and removals never box a key
+ * or allocate an entry.
+ */
+public class OrderIndex {
+	private static final long EMPTY = -1;
+
+	private long[] keys;
+	private Node[] nodes;
+	private int size;
+
+	public OrderIndex() {
+		this.keys = new long[16];
+		this.nodes = new Node[16];
+		Arrays.fill(this.keys, EMPTY);
+		this.size = 0;
+	}
+
+	/**
+	 * Node for an order
+	 * @param id : non-negative order ID
+	 * @return node, or null if no such order rests
+	 */
+	public Node get(long id) {
+		int mask = this.keys.length - 1;
+		for (int slot = hash(id) & mask; this.keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (this.keys[slot] == id) {
+				return this.nodes[slot];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Indexes an order, replacing any node already under its ID
+	 * @param id : non-negative order ID
+	 * @param node
+	 */
+	public void put(long id, Node node) {
+		if ((this.size + 1) * 2 > this.keys.length) {
+			this.grow();
+		}
+		int mask = this.keys.length - 1;
+		int slot = hash(id) & mask;
+		while (this.keys[slot] != EMPTY && this.keys[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		if (this.keys[slot] == EMPTY) {
+			this.size++;
+		}
+		this.keys[slot] = id;
+		this.nodes[slot] = node;
+	}
+
+	/**
+	 * Drops an order. Later entries in the same run are shifted back so
+	 * that probing never needs tombstones.
+	 * @param id
+	 */
+	public void remove(long id) {
+		int mask = this.keys.length - 1;
+		int slot = hash(id) & mask;
+		while (this.keys[slot] != id) {
+			if (this.keys[slot] == EMPTY) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int hole = slot;
+		for (int next = (hole + 1) & mask; this.keys[next] != EMPTY; next = (next + 1) & mask) {
+			int home = hash(this.keys[next]) & mask;
+			// Move back only entries whose home is not between the hole and here
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				this.keys[hole] = this.keys[next];
+				this.nodes[hole] = this.nodes[next];
+				hole = next;
+			}
+		}
+		this.keys[hole] = EMPTY;
+		this.nodes[hole] = null;
+		this.size--;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	private void grow() {
+		long[] oldKeys = this.keys;
+		Node[] oldNodes = this.nodes;
+		this.keys = new long[oldKeys.length * 2];
+		this.nodes = new Node[oldKeys.length * 2];
+		Arrays.fill(this.keys, EMPTY);
+		this.size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				this.put(oldKeys[i], oldNodes[i]);
+			}
+		}
+	}
+
+	/*
+	 * IDs are sequential, so mix them before masking
+	 */
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,390 @@
+package brown.rules.clearingrules;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import brown.assets.accounting.Order;
+
+/**
+ * One side of a limit order book laid out as an array of price levels
+ * indexed by integer tick. Each level is a FIFO queue of resting orders
+ * linked through their own nodes, and the best level is cached so that
+ * top of book is O(1). Depth and notional by level are also kept in a
+ * DepthIndex so that pricing a fill is O(log levels).
+ */
+public class PriceLadder {
+	private final boolean BUY;
+	private final double TICK;
+	private final int MAXTICK;
+	private final BitSet OCCUPIED;
+	private final BitSet DIRTY;
+	private final DepthIndex DEPTH;
+
+	private Level[] levels;
+	private int best;
+
+	/**
+	 * Constructor
+	 * @param buy : true for the bid side, false for the ask side
+	 * @param tick : price increment between levels
+	 * @param maxPrice : highest price an order may rest at
+	 */
+	public PriceLadder(boolean buy, double tick, double maxPrice) {
+		if (tick <= 0 || maxPrice < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.BUY = buy;
+		this.TICK = tick;
+		this.MAXTICK = (int) Math.min(Integer.MAX_VALUE - 1, Math.floor(maxPrice / tick + 1e-9));
+		this.OCCUPIED = new BitSet();
+		this.DIRTY = new BitSet();
+		this.DEPTH = new DepthIndex();
+		this.levels = new Level[16];
+		this.best = -1;
+	}
+
+	/**
+	 * Converts a limit price into a tick on this side of the book.
+	 * Bids round down and asks round up so that an order never rests
+	 * at a worse price than the one it was sent with.
+	 * @param price : limit price
+	 * @return tick, or -1 if the price is off the ladder
+	 */
+	public int toTick(double price) {
+		double raw = price / this.TICK;
+		double tick = this.BUY ? Math.floor(raw + 1e-9) : Math.ceil(raw - 1e-9);
+		if (tick < 0 || tick > this.MAXTICK) {
+			return -1;
+		}
+		return (int) tick;
+	}
+
+	/**
+	 * Price of a tick
+	 * @param tick
+	 * @return price
+	 */
+	public double toPrice(int tick) {
+		return tick * this.TICK;
+	}
+
+	/**
+	 * Highest tick on the ladder
+	 * @return tick
+	 */
+	public int maxTick() {
+		return this.MAXTICK;
+	}
+
+	/**
+	 * Is this the bid side?
+	 * @return true if bids
+	 */
+	public boolean isBuy() {
+		return this.BUY;
+	}
+
+	/**
+	 * Best occupied tick
+	 * @return tick, or -1 if this side is empty
+	 */
+	public int best() {
+		return this.best;
+	}
+
+	/**
+	 * Next occupied tick behind the given one
+	 * @param tick
+	 * @return tick, or -1 if there is none
+	 */
+	public int next(int tick) {
+		return this.BUY ? this.OCCUPIED.previousSetBit(tick - 1)
+				: this.OCCUPIED.nextSetBit(tick + 1);
+	}
+
+	/**
+	 * Does a resting order at this tick trade with an incoming
+	 * order limited at the other side's tick?
+	 * @param tick : tick on this side
+	 * @param limit : limit tick of the incoming order
+	 * @return true if they cross
+	 */
+	public boolean crosses(int tick, int limit) {
+		return this.BUY ? tick >= limit : tick <= limit;
+	}
+
+	/**
+	 * Level at a tick
+	 * @param tick
+	 * @return level, or null if nothing has rested there
+	 */
+	public Level level(int tick) {
+		return tick < this.levels.length ? this.levels[tick] : null;
+	}
+
+	public boolean isEmpty() {
+		return this.best == -1;
+	}
+
+	/**
+	 * Queues an order at the back of its level
+	 * @param order : resting order
+	 * @param tick : tick from toTick
+	 * @param id : order ID
+	 * @return the order's node
+	 */
+	public Node add(Order order, int tick, long id) {
+		if (tick >= this.levels.length) {
+			int size = this.levels.length;
+			while (size <= tick) {
+				size = (int) Math.min((long) size * 2, (long) this.MAXTICK + 1);
+			}
+			this.levels = Arrays.copyOf(this.levels, size);
+		}
+
+		Level level = this.levels[tick];
+		if (level == null) {
+			level = new Level(tick);
+			this.levels[tick] = level;
+		}
+
+		Node node = new Node(id, this.BUY, order, level);
+		if (level.tail == null) {
+			level.head = node;
+			this.OCCUPIED.set(tick);
+			if (this.best == -1 || (this.BUY ? tick > this.best : tick < this.best)) {
+				this.best = tick;
+			}
+		} else {
+			level.tail.next = node;
+			node.prev = level.tail;
+		}
+		level.tail = node;
+		level.count++;
+		level.quantity += order.QUANTITY;
+		this.DIRTY.set(tick);
+		this.DEPTH.add(this.rank(tick), order.QUANTITY, this.toPrice(tick));
+		return node;
+	}
+
+	/**
+	 * Unlinks a resting order
+	 * @param node
+	 */
+	public void remove(Node node) {
+		Level level = node.level;
+		if (level == null) {
+			return;
+		}
+
+		if (node.prev == null) {
+			level.head = node.next;
+		} else {
+			node.prev.next = node.next;
+		}
+		if (node.next == null) {
+			level.tail = node.prev;
+		} else {
+			node.next.prev = node.prev;
+		}
+		level.count--;
+		level.quantity -= node.ORDER.QUANTITY;
+		this.DIRTY.set(level.TICK);
+		this.DEPTH.add(this.rank(level.TICK), -node.ORDER.QUANTITY, this.toPrice(level.TICK));
+		node.prev = null;
+		node.next = null;
+		node.level = null;
+
+		if (level.head == null) {
+			level.quantity = 0;
+			this.OCCUPIED.clear(level.TICK);
+			if (level.TICK == this.best) {
+				this.best = this.next(level.TICK);
+			}
+		}
+	}
+
+	/**
+	 * Changes the open quantity of a resting order in place,
+	 * keeping its place in the queue
+	 * @param node
+	 * @param quantity : new open quantity
+	 */
+	public void update(Node node, double quantity) {
+		if (node.level != null) {
+			double change = quantity - node.ORDER.QUANTITY;
+			node.level.quantity += change;
+			this.DIRTY.set(node.level.TICK);
+			this.DEPTH.add(this.rank(node.level.TICK), change, this.toPrice(node.level.TICK));
+		}
+		node.ORDER.updateQuantity(quantity);
+	}
+
+	/**
+	 * Cost of taking shareNum from this side, best price first, without
+	 * passing the limit price. Any remainder is valued at the limit.
+	 * @param shareNum
+	 * @param limitPrice : worst price the taker accepts
+	 * @return cost
+	 */
+	public double quote(double shareNum, double limitPrice) {
+		int limit = this.limitRank(limitPrice);
+		double depth = this.DEPTH.quantity(limit + 1);
+		if (depth < shareNum) {
+			return this.DEPTH.notional(limit + 1) + (shareNum - depth) * limitPrice;
+		}
+
+		int full = this.DEPTH.search(shareNum);
+		return this.DEPTH.notional(full)
+				+ (shareNum - this.DEPTH.quantity(full)) * this.toPrice(this.fromRank(full));
+	}
+
+	/*
+	 * Ranks run from the best price, so bids are stored top down
+	 */
+	private int rank(int tick) {
+		return this.BUY ? this.MAXTICK - tick : tick;
+	}
+
+	private int fromRank(int rank) {
+		return this.BUY ? this.MAXTICK - rank : rank;
+	}
+
+	/*
+	 * Worst rank a taker limited at this price can reach, -1 for none
+	 */
+	private int limitRank(double price) {
+		double raw = price / this.TICK;
+		if (this.BUY) {
+			double tick = Math.ceil(raw - 1e-9);
+			return tick > this.MAXTICK ? -1 : this.MAXTICK - (int) Math.max(tick, 0);
+		} else {
+			double tick = Math.floor(raw + 1e-9);
+			return tick < 0 ? -1 : (int) Math.min(tick, this.MAXTICK);
+		}
+	}
+
+	/**
+	 * Number of levels the next drain will write
+	 * @param snapshot : every level rather than just those changed
+	 * @return levels
+	 */
+	public int changed(boolean snapshot) {
+		return snapshot ? this.OCCUPIED.cardinality() : this.DIRTY.cardinality();
+	}
+
+	/**
+	 * Writes the price and resting quantity of each level changed since
+	 * the last drain, or of every level for a snapshot, then forgets the
+	 * changes. A level that emptied is written with quantity 0.
+	 * @param prices : sized by changed
+	 * @param quantities : sized by changed
+	 * @param snapshot : every level rather than just those changed
+	 */
+	public void drain(double[] prices, double[] quantities, boolean snapshot) {
+		BitSet ticks = snapshot ? this.OCCUPIED : this.DIRTY;
+		int i = 0;
+		for (int tick = ticks.nextSetBit(0); tick >= 0; tick = ticks.nextSetBit(tick + 1)) {
+			Level level = this.levels[tick];
+			prices[i] = this.toPrice(tick);
+			quantities[i] = level.head == null ? 0 : level.quantity;
+			i++;
+		}
+		this.DIRTY.clear();
+	}
+
+	/**
+	 * Builds a best-first price to orders view of this side
+	 * @return book
+	 */
+	public SortedMap<Double, Set<Order>> toBook() {
+		SortedMap<Double, Set<Order>> book = this.BUY
+				? new TreeMap<Double, Set<Order>>(Collections.reverseOrder())
+				: new TreeMap<Double, Set<Order>>();
+		for (int tick = this.best; tick != -1; tick = this.next(tick)) {
+			Set<Order> orders = new LinkedHashSet<Order>();
+			for (Node node = this.levels[tick].head; node != null; node = node.next) {
+				orders.add(node.ORDER);
+			}
+			book.put(this.toPrice(tick), orders);
+		}
+		return book;
+	}
+
+	/**
+	 * A single price level; orders are kept in arrival order
+	 */
+	public static class Level {
+		public final int TICK;
+		Node head;
+		Node tail;
+		int count;
+		double quantity;
+
+		Level(int tick) {
+			this.TICK = tick;
+			this.head = null;
+			this.tail = null;
+			this.count = 0;
+			this.quantity = 0;
+		}
+
+		public Node head() {
+			return this.head;
+		}
+
+		public int count() {
+			return this.count;
+		}
+
+		public double quantity() {
+			return this.quantity;
+		}
+	}
+
+	/**
+	 * A resting order and its links within its level
+	 */
+	public static class Node {
+		public final long ID;
+		public final boolean BUY;
+		public final Order ORDER;
+		Level level;
+		Node prev;
+		Node next;
+
+		Node(long id, boolean buy, Order order, Level level) {
+			this.ID = id;
+			this.BUY = buy;
+			this.ORDER = order;
+			this.level = level;
+			this.prev = null;
+			this.next = null;
+		}
+
+		public Node next() {
+			return this.next;
+		}
+
+		/**
+		 * Tick this order rests at
+		 * @return tick, or -1 once it has left the book
+		 */
+		public int tick() {
+			return this.level == null ? -1 : this.level.TICK;
+		}
+
+		/**
+		 * Is this order still in the book?
+		 * @return true if resting
+		 */
+		public boolean isResting() {
+			return this.level != null;
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package brown.rules.clearingrules;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Function;
+
+import brown.assets.accounting.Order;
+import brown.assets.value.FullType;
+import brown.messages.markets.BookUpdate;
+import brown.messages.markets.OrderType;
+import brown.rules.clearingrules.PriceLadder.Level;
+import brown.rules.clearingrules.PriceLadder.Node;
+import brown.tradeables.Tradeable;
+
+/**
+ * Continuous double auction clearing on an integer tick price ladder.
+ * Orders match in strict price-time priority and trade at the resting
+ * order's price. Orders priced below zero or above the ladder's max
+ * price are ignored.
+ * 
+ * Every order left resting is given an ID, unique within this rule,
+ * which indexes its node so that cancels and amends are O(1).
+ * 
+ * Level changes and fills are recorded as they happen so the book can
+ * be published as sequenced deltas rather than rebuilt.
+ * 
+ * Callers that settle fills themselves can pass a FillHandler, such as
+ * a reused FillBuffer, in place of taking a List of Orders; matching
+ * then allocates nothing for fills.
+ * 
+ * Order types are enforced as orders arrive: post only orders that
+ * would cross and fill or kill orders the book cannot fill are dropped
+ * without trading, and only limit and post only orders ever rest.
+ */
+public class PriceLadderClearing implements ClearingRule, DepthFeed {
+	public static final double DEFAULT_TICK = .01;
+	public static final double DEFAULT_MAX = 1000;
+
+	private final PriceLadder BUYS;
+	private final PriceLadder SELLS;
+	private final OrderIndex ORDERS;
+
+	private final boolean SHORT;
+	private final Function<Tradeable, Tradeable> SHORTER;
+
+	private double lastPrice;
+	private long nextID;
+	private long lastID;
+	private long sequence;
+	private boolean publishing;
+	private double[] tradePrices;
+	private double[] tradeQuantities;
+	private int trades;
+
+	public PriceLadderClearing() {
+		this(DEFAULT_TICK, DEFAULT_MAX);
+	}
+
+	/**
+	 * Constructor
+	 * @param tick : price increment
+	 * @param maxPrice : highest price an order may rest at
+	 */
+	public PriceLadderClearing(double tick, double maxPrice) {
+		this.BUYS = new PriceLadder(true, tick, maxPrice);
+		this.SELLS = new PriceLadder(false, tick, maxPrice);
+		this.ORDERS = new OrderIndex();
+		this.SHORT = false;
+		this.SHORTER = null;
+		this.lastPrice = 0;
+		this.nextID = 0;
+		this.lastID = -1;
+		this.sequence = 0;
+		this.publishing = false;
+		this.tradePrices = new double[16];
+		this.tradeQuantities = new double[16];
+		this.trades = 0;
+	}
+
+	public PriceLadderClearing(Function<Tradeable, Tradeable> shorter) {
+		this(DEFAULT_TICK, DEFAULT_MAX, shorter);
+	}
+
+	/**
+	 * Constructor with short selling
+	 * @param tick : price increment
+	 * @param maxPrice : highest price an order may rest at
+	 * @param shorter : creates the tradeable for an uncovered sale
+	 */
+	public PriceLadderClearing(double tick, double maxPrice,
+			Function<Tradeable, Tradeable> shorter) {
+		this.BUYS = new PriceLadder(true, tick, maxPrice);
+		this.SELLS = new PriceLadder(false, tick, maxPrice);
+		this.ORDERS = new OrderIndex();
+		this.SHORT = true;
+		this.SHORTER = shorter;
+		this.lastPrice = 0;
+		this.nextID = 0;
+		this.lastID = -1;
+		this.sequence = 0;
+		this.publishing = false;
+		this.tradePrices = new double[16];
+		this.tradeQuantities = new double[16];
+		this.trades = 0;
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice) {
+		return this.buy(agentID, shareNum, sharePrice, OrderType.Limit);
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		List<Order> completed = new LinkedList<Order>();
+		this.buy(agentID, shareNum, sharePrice, type, (to, from, price, quantity, good) ->
+				completed.add(new Order(to, from, price * quantity, quantity, good)));
+		return completed;
+	}
+
+	/**
+	 * Matches a buy, handing each fill to fills rather than building a
+	 * list. Nothing is allocated unless part of the order rests.
+	 * @param agentID
+	 * @param shareNum
+	 * @param sharePrice
+	 * @param fills : receives each fill, best price first
+	 * @return shares bought
+	 */
+	public double buy(Integer agentID, double shareNum, double sharePrice, FillHandler fills) {
+		return this.buy(agentID, shareNum, sharePrice, OrderType.Limit, fills);
+	}
+
+	/**
+	 * Matches a buy of any order type, handing each fill to fills
+	 * @param agentID
+	 * @param shareNum
+	 * @param sharePrice : ignored for market orders
+	 * @param type
+	 * @param fills : receives each fill, best price first
+	 * @return shares bought, 0 if the type turned the order away
+	 */
+	public double buy(Integer agentID, double shareNum, double sharePrice,
+			OrderType type, FillHandler fills) {
+		this.lastID = -1;
+		int limit = type == OrderType.Market ? this.BUYS.maxTick() : this.BUYS.toTick(sharePrice);
+		if (limit == -1 || !this.admits(this.SELLS, agentID, shareNum, limit, type)) {
+			return 0;
+		}
+
+		double wanted = shareNum;
+		int tick = this.SELLS.best();
+		while (shareNum > 0 && tick != -1 && this.SELLS.crosses(tick, limit)) {
+			Level level = this.SELLS.level(tick);
+			double price = this.SELLS.toPrice(tick);
+			int nextTick = this.SELLS.next(tick);
+
+			Node node = level.head();
+			while (shareNum > 0 && node != null) {
+				Node next = node.next();
+				Order opp = node.ORDER;
+				if (!opp.GOOD.getAgentID().equals(opp.FROM)) {
+					this.unlink(this.SELLS, node);
+				} else if (!agentID.equals(opp.FROM)) {
+					double quantity = Math.min(shareNum, opp.QUANTITY);
+					fills.onFill(agentID, opp.FROM, price, quantity, opp.GOOD);
+					shareNum -= quantity;
+					this.record(price, quantity);
+					if (quantity == opp.QUANTITY) {
+						this.unlink(this.SELLS, node);
+					} else {
+						this.SELLS.update(node, opp.QUANTITY - quantity);
+					}
+				}
+				node = next;
+			}
+			tick = nextTick;
+		}
+
+		if (shareNum > 0 && type.rests()) {
+			this.rest(this.BUYS, new Order(null, agentID, -1, shareNum, null), limit);
+		}
+
+		return wanted - shareNum;
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice) {
+		return this.sell(agentID, opp, sharePrice, OrderType.Limit);
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		List<Order> completed = new LinkedList<Order>();
+		this.sell(agentID, opp, sharePrice, type, (to, from, price, quantity, good) -> {
+			Tradeable toGive = quantity == good.getCount() ? good : good.split(quantity);
+			completed.add(new Order(to, from, price * quantity, quantity, toGive));
+		});
+		return completed;
+	}
+
+	/**
+	 * Matches a sell, handing each fill to fills rather than building a
+	 * list. The tradeable is not split here; the handler is given it
+	 * whole with each fill. Nothing is allocated unless part of the order
+	 * rests.
+	 * @param agentID
+	 * @param opp : tradeable to sell
+	 * @param sharePrice
+	 * @param fills : receives each fill, best price first
+	 * @return shares sold
+	 */
+	public double sell(Integer agentID, Tradeable opp, double sharePrice, FillHandler fills) {
+		return this.sell(agentID, opp, sharePrice, OrderType.Limit, fills);
+	}
+
+	/**
+	 * Matches a sell of any order type, handing each fill to fills
+	 * @param agentID
+	 * @param opp : tradeable to sell
+	 * @param sharePrice : ignored for market orders
+	 * @param type
+	 * @param fills : receives each fill, best price first
+	 * @return shares sold, 0 if the type turned the order away
+	 */
+	public double sell(Integer agentID, Tradeable opp, double sharePrice,
+			OrderType type, FillHandler fills) {
+		this.lastID = -1;
+		int limit = type == OrderType.Market ? 0 : this.SELLS.toTick(sharePrice);
+		if (limit == -1) {
+			return 0;
+		}
+
+		double shareNum = opp.getCount();
+		if (opp.getAgentID() == null && !this.SHORT) {
+			return 0;
+		} else if (!this.admits(this.BUYS, agentID, shareNum, limit, type)) {
+			return 0;
+		} else if (opp.getAgentID() == null) {
+			opp = this.SHORTER.apply(new Tradeable(null, opp.getCount(), agentID));
+		}
+
+		double offered = shareNum;
+		int tick = this.BUYS.best();
+		while (shareNum > 0 && tick != -1 && this.BUYS.crosses(tick, limit)) {
+			Level level = this.BUYS.level(tick);
+			double price = this.BUYS.toPrice(tick);
+			int nextTick = this.BUYS.next(tick);
+
+			Node node = level.head();
+			while (shareNum > 0 && node != null) {
+				Node next = node.next();
+				Order buy = node.ORDER;
+				if (!agentID.equals(buy.FROM)) {
+					double quantity = Math.min(shareNum, buy.QUANTITY);
+					fills.onFill(buy.FROM, agentID, price, quantity, opp);
+					shareNum -= quantity;
+					this.record(price, quantity);
+					if (quantity == buy.QUANTITY) {
+						this.unlink(this.BUYS, node);
+					} else {
+						this.BUYS.update(node, buy.QUANTITY - quantity);
+					}
+				}
+				node = next;
+			}
+			tick = nextTick;
+		}
+
+		if (shareNum > 0 && type.rests()) {
+			this.rest(this.SELLS, new Order(null, opp.getAgentID(),
+					this.SELLS.toPrice(limit) * shareNum, shareNum, opp), limit);
+		}
+
+		return offered - shareNum;
+	}
+
+	/*
+	 * Whether an order may go ahead against the other side's book. Post
+	 * only orders must not cross it, and fill or kill orders must find
+	 * their whole quantity within the limit, skipping the agent's own
+	 * orders and sells whose tradeable has changed hands.
+	 */
+	private boolean admits(PriceLadder other, Integer agentID, double shareNum,
+			int limit, OrderType type) {
+		int tick = other.best();
+		if (type == OrderType.PostOnly) {
+			return tick == -1 || !other.crosses(tick, limit);
+		} else if (type != OrderType.FillOrKill) {
+			return true;
+		}
+
+		for (; shareNum > 0 && tick != -1 && other.crosses(tick, limit); tick = other.next(tick)) {
+			for (Node node = other.level(tick).head(); shareNum > 0 && node != null; node = node.next()) {
+				Order opp = node.ORDER;
+				if (!agentID.equals(opp.FROM)
+						&& (other.isBuy() || opp.GOOD.getAgentID().equals(opp.FROM))) {
+					shareNum -= opp.QUANTITY;
+				}
+			}
+		}
+		return shareNum <= 0;
+	}
+
+	/*
+	 * Notes a fill for the price and, once updates are being published,
+	 * for the next one
+	 */
+	private void record(double price, double quantity) {
+		this.lastPrice = price;
+		if (!this.publishing) {
+			return;
+		} else if (this.trades == this.tradePrices.length) {
+			this.tradePrices = Arrays.copyOf(this.tradePrices, this.trades * 2);
+			this.tradeQuantities = Arrays.copyOf(this.tradeQuantities, this.trades * 2);
+		}
+		this.tradePrices[this.trades] = price;
+		this.tradeQuantities[this.trades] = quantity;
+		this.trades++;
+	}
+
+	/*
+	 * Queues an order and indexes it under a fresh ID
+	 */
+	private void rest(PriceLadder side, Order order, int tick) {
+		Node node = side.add(order, tick, this.nextID++);
+		this.ORDERS.put(node.ID, node);
+		this.lastID = node.ID;
+	}
+
+	/*
+	 * Takes an order off the book and out of the index
+	 */
+	private void unlink(PriceLadder side, Node node) {
+		side.remove(node);
+		this.ORDERS.remove(node.ID);
+	}
+
+	@Override
+	public double quoteBid(double shareNum, double sharePrice) {
+		return this.SELLS.quote(shareNum, sharePrice);
+	}
+
+	@Override
+	public double quoteAsk(double shareNum, double sharePrice) {
+		return this.BUYS.quote(shareNum, sharePrice);
+	}
+
+	@Override
+	public double price() {
+		return this.lastPrice;
+	}
+
+	/**
+	 * Best bid
+	 * @return price, or -1 if there are no bids
+	 */
+	public double bestBid() {
+		return this.BUYS.isEmpty() ? -1 : this.BUYS.toPrice(this.BUYS.best());
+	}
+
+	/**
+	 * Best ask
+	 * @return price, or -1 if there are no asks
+	 */
+	public double bestAsk() {
+		return this.SELLS.isEmpty() ? -1 : this.SELLS.toPrice(this.SELLS.best());
+	}
+
+	@Override
+	public SortedMap<Double, Set<Order>> getBuyBook() {
+		return this.BUYS.toBook();
+	}
+
+	@Override
+	public SortedMap<Double, Set<Order>> getSellBook() {
+		return this.SELLS.toBook();
+	}
+
+	@Override
+	public List<Order> tick(double time) {
+		// Noop
+		return new LinkedList<Order>();
+	}
+
+	@Override
+	public boolean isShort() {
+		return this.SHORT;
+	}
+
+	@Override
+	public void cancel(Integer agentID, boolean buy, double shareNum, double sharePrice) {
+		PriceLadder side = buy ? this.BUYS : this.SELLS;
+		int tick = side.toTick(sharePrice);
+		Level level = tick == -1 ? null : side.level(tick);
+		if (level == null) {
+			return;
+		}
+
+		for (Node node = level.head(); node != null; node = node.next()) {
+			if (node.ORDER.FROM.equals(agentID) && node.ORDER.QUANTITY == shareNum) {
+				this.unlink(side, node);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public BookUpdate publish(Integer marketID, FullType type, boolean snapshot) {
+		this.publishing = true;
+		double[] bidPrices = new double[this.BUYS.changed(snapshot)];
+		double[] bidQuantities = new double[bidPrices.length];
+		this.BUYS.drain(bidPrices, bidQuantities, snapshot);
+		double[] askPrices = new double[this.SELLS.changed(snapshot)];
+		double[] askQuantities = new double[askPrices.length];
+		this.SELLS.drain(askPrices, askQuantities, snapshot);
+
+		BookUpdate update = new BookUpdate(marketID, type, this.sequence++, snapshot,
+				bidPrices, bidQuantities, askPrices, askQuantities,
+				Arrays.copyOf(this.tradePrices, this.trades),
+				Arrays.copyOf(this.tradeQuantities, this.trades));
+		this.trades = 0;
+		return update;
+	}
+
+	@Override
+	public long lastOrderID() {
+		return this.lastID;
+	}
+
+	@Override
+	public boolean cancel(Integer agentID, long orderID) {
+		Node node = this.ORDERS.get(orderID);
+		if (node == null || !node.ORDER.FROM.equals(agentID)) {
+			return false;
+		}
+
+		this.unlink(node.BUY ? this.BUYS : this.SELLS, node);
+		return true;
+	}
+
+	/**
+	 * Changes an order's open quantity. Reductions keep the order's
+	 * place in its queue, and a sell's tradeable shrinks with it so that
+	 * fills hand over what the order says; increases send it to the back.
+	 * A buy can only grow by what the budget pays for at its price, and a
+	 * sell cannot grow past its tradeable.
+	 * @param budget : the agent's monies
+	 */
+	@Override
+	public boolean amend(Integer agentID, long orderID, double shareNum, double budget) {
+		Node node = this.ORDERS.get(orderID);
+		if (node == null || !node.ORDER.FROM.equals(agentID)) {
+			return false;
+		} else if (shareNum <= 0) {
+			return this.cancel(agentID, orderID);
+		}
+
+		PriceLadder side = node.BUY ? this.BUYS : this.SELLS;
+		int tick = node.tick();
+		if (shareNum <= node.ORDER.QUANTITY) {
+			side.update(node, shareNum);
+			if (!node.BUY) {
+				node.ORDER.GOOD.setCount(shareNum);
+			}
+		} else if (node.BUY ? this.quoteBid(shareNum - node.ORDER.QUANTITY,
+				side.toPrice(tick)) <= budget : shareNum <= node.ORDER.GOOD.getCount()) {
+			side.remove(node);
+			side.update(node, shareNum);
+			this.ORDERS.put(orderID, side.add(node.ORDER, tick, orderID));
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+}
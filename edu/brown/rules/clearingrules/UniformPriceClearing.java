@@ -0,0 +1,400 @@
+package brown.rules.clearingrules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import brown.assets.accounting.Order;
+import brown.messages.markets.OrderType;
+import brown.tradeables.Tradeable;
+
+/**
+ * Frequent batch auction. Orders are only collected as they arrive and
+ * are cleared together on tick, at most once per interval, in a single
+ * uniform price call auction. The clearing price is the middle of the
+ * range that maximizes traded volume, found in one pass down the
+ * demand curve and up the supply curve. Within a price, earlier orders
+ * fill first, and anything left unfilled rests for the next batch.
+ *
+ * When the same agent's buy and sell would cross, whichever arrived
+ * later is cancelled, both here and at any later price, and the older
+ * one stays to trade with everyone else.
+ *
+ * The rule synchronizes itself, so the market does not have to be held
+ * while it clears.
+ *
+ * Nothing trades on arrival, so post only orders are treated as limit
+ * orders, and immediate or cancel orders join only the next batch.
+ * Market and fill or kill orders are turned away: an unbounded price
+ * would set the clearing price, and a batch cannot promise a full fill.
+ */
+public class UniformPriceClearing implements ClearingRule {
+	private final Map<Long, Resting> ORDERS;
+	private final double INTERVAL;
+
+	private final boolean SHORT;
+	private final Function<Tradeable, Tradeable> SHORTER;
+
+	private double lastPrice;
+	private double lastClear;
+	private long nextID;
+	private long lastID;
+
+	public UniformPriceClearing() {
+		this(0);
+	}
+
+	/**
+	 * Constructor
+	 * @param interval : least time between batches, in the units of tick
+	 */
+	public UniformPriceClearing(double interval) {
+		this.ORDERS = new LinkedHashMap<Long, Resting>();
+		this.INTERVAL = interval;
+		this.SHORT = false;
+		this.SHORTER = null;
+		this.lastPrice = 0;
+		this.lastClear = Double.NEGATIVE_INFINITY;
+		this.nextID = 0;
+		this.lastID = -1;
+	}
+
+	/**
+	 * Constructor with short selling
+	 * @param interval : least time between batches, in the units of tick
+	 * @param shorter : creates the tradeable for an uncovered sale
+	 */
+	public UniformPriceClearing(double interval, Function<Tradeable, Tradeable> shorter) {
+		this.ORDERS = new LinkedHashMap<Long, Resting>();
+		this.INTERVAL = interval;
+		this.SHORT = true;
+		this.SHORTER = shorter;
+		this.lastPrice = 0;
+		this.lastClear = Double.NEGATIVE_INFINITY;
+		this.nextID = 0;
+		this.lastID = -1;
+	}
+
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice) {
+		return this.buy(agentID, shareNum, sharePrice, OrderType.Limit);
+	}
+
+	@Override
+	public synchronized List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		this.lastID = -1;
+		if (shareNum > 0 && sharePrice >= 0 && this.batches(type)) {
+			this.rest(true, sharePrice, type, new Order(null, agentID, -1, shareNum, null));
+		}
+		return new LinkedList<Order>();
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice) {
+		return this.sell(agentID, opp, sharePrice, OrderType.Limit);
+	}
+
+	@Override
+	public synchronized List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		this.lastID = -1;
+		if (!this.batches(type)) {
+			return new LinkedList<Order>();
+		} else if (this.SHORT && opp.getAgentID() == null) {
+			opp = this.SHORTER.apply(new Tradeable(null, opp.getCount(), agentID));
+		} else if (opp.getAgentID() == null) {
+			return new LinkedList<Order>();
+		}
+
+		if (opp.getCount() > 0 && sharePrice >= 0) {
+			this.rest(false, sharePrice, type, new Order(null, opp.getAgentID(),
+					sharePrice * opp.getCount(), opp.getCount(), opp));
+		}
+		return new LinkedList<Order>();
+	}
+
+	private boolean batches(OrderType type) {
+		return type != OrderType.Market && type != OrderType.FillOrKill;
+	}
+
+	/*
+	 * Adds an order to the batch under a fresh ID
+	 */
+	private void rest(boolean buy, double price, OrderType type, Order order) {
+		this.ORDERS.put(this.nextID, new Resting(this.nextID, buy, price, type.rests(), order));
+		this.lastID = this.nextID++;
+	}
+
+	/**
+	 * Clears the batch if a full interval has passed since the last one
+	 * @return the trades, all at the clearing price
+	 */
+	@Override
+	public synchronized List<Order> tick(double time) {
+		List<Order> completed = new LinkedList<Order>();
+		if (time - this.lastClear < this.INTERVAL) {
+			return completed;
+		}
+		this.lastClear = time;
+		this.cross(completed);
+
+		// Immediate or cancel orders only ever see one batch
+		this.ORDERS.values().removeIf(order -> !order.RESTS);
+		return completed;
+	}
+
+	/*
+	 * Runs the call auction, adding its trades to completed
+	 */
+	private void cross(List<Order> completed) {
+		List<Resting> bids = this.sorted(true);
+		List<Resting> asks = this.sorted(false);
+		List<Resting> buyers = new ArrayList<Resting>();
+		List<Resting> sellers = new ArrayList<Resting>();
+		List<Double> quantities = new ArrayList<Double>();
+
+		int i = 0;
+		int j = 0;
+		double bidLeft = bids.isEmpty() ? 0 : bids.get(0).ORDER.QUANTITY;
+		double askLeft = asks.isEmpty() ? 0 : asks.get(0).ORDER.QUANTITY;
+		while (i < bids.size() && j < asks.size() && bids.get(i).PRICE >= asks.get(j).PRICE) {
+			if (bids.get(i).ORDER.FROM.equals(asks.get(j).ORDER.FROM)) {
+				if (bids.get(i).ID > asks.get(j).ID) {
+					this.ORDERS.remove(bids.get(i).ID);
+					if (++i < bids.size()) {
+						bidLeft = bids.get(i).ORDER.QUANTITY;
+					}
+				} else {
+					this.ORDERS.remove(asks.get(j).ID);
+					if (++j < asks.size()) {
+						askLeft = asks.get(j).ORDER.QUANTITY;
+					}
+				}
+				continue;
+			}
+
+			double quantity = Math.min(bidLeft, askLeft);
+			buyers.add(bids.get(i));
+			sellers.add(asks.get(j));
+			quantities.add(quantity);
+
+			bidLeft -= quantity;
+			askLeft -= quantity;
+			if (bidLeft == 0) {
+				this.ORDERS.remove(bids.get(i).ID);
+				if (++i < bids.size()) {
+					bidLeft = bids.get(i).ORDER.QUANTITY;
+				}
+			}
+			if (askLeft == 0) {
+				this.ORDERS.remove(asks.get(j).ID);
+				if (++j < asks.size()) {
+					askLeft = asks.get(j).ORDER.QUANTITY;
+				}
+			}
+		}
+
+		if (quantities.isEmpty()) {
+			return;
+		}
+
+		// Any price between the last orders that traded and the first
+		// that did not clears the same volume
+		double low = sellers.get(sellers.size() - 1).PRICE;
+		double high = buyers.get(buyers.size() - 1).PRICE;
+		if (i < bids.size()) {
+			low = Math.max(low, bids.get(i).PRICE);
+			bids.get(i).ORDER.updateQuantity(bidLeft);
+		}
+		if (j < asks.size()) {
+			high = Math.min(high, asks.get(j).PRICE);
+			asks.get(j).ORDER.updateQuantity(askLeft);
+		}
+		double price = (low + high) / 2;
+
+		for (int k = 0; k < quantities.size(); k++) {
+			Order buy = buyers.get(k).ORDER;
+			Order sell = sellers.get(k).ORDER;
+			double quantity = quantities.get(k);
+			Tradeable toGive = quantity == sell.GOOD.getCount() ? sell.GOOD
+					: sell.GOOD.split(quantity);
+			completed.add(new Order(buy.FROM, sell.FROM, price * quantity,
+					quantity, toGive));
+		}
+
+		this.lastPrice = price;
+	}
+
+	/*
+	 * One side of the batch, best price first and in arrival order within
+	 * a price. Sells whose tradeable has since changed hands are dropped.
+	 */
+	private List<Resting> sorted(boolean buy) {
+		List<Resting> side = new ArrayList<Resting>();
+		Iterator<Resting> orders = this.ORDERS.values().iterator();
+		while (orders.hasNext()) {
+			Resting order = orders.next();
+			if (order.BUY != buy) {
+				continue;
+			} else if (!buy && !order.ORDER.FROM.equals(order.ORDER.GOOD.getAgentID())) {
+				orders.remove();
+			} else {
+				side.add(order);
+			}
+		}
+
+		Comparator<Resting> byPrice = Comparator.comparingDouble(r -> r.PRICE);
+		Collections.sort(side, buy ? byPrice.reversed() : byPrice);
+		return side;
+	}
+
+	/*
+	 * Cost of taking shareNum from one side without passing the limit
+	 * price. Any remainder is valued at the limit.
+	 */
+	private double quote(boolean buy, double shareNum, double limitPrice) {
+		double cost = 0;
+		for (Resting order : this.sorted(buy)) {
+			if (shareNum <= 0 || (buy ? order.PRICE < limitPrice : order.PRICE > limitPrice)) {
+				break;
+			}
+			double quantity = Math.min(shareNum, order.ORDER.QUANTITY);
+			cost += quantity * order.PRICE;
+			shareNum -= quantity;
+		}
+		return cost + Math.max(shareNum, 0) * limitPrice;
+	}
+
+	@Override
+	public synchronized double quoteBid(double shareNum, double sharePrice) {
+		return this.quote(false, shareNum, sharePrice);
+	}
+
+	@Override
+	public synchronized double quoteAsk(double shareNum, double sharePrice) {
+		return this.quote(true, shareNum, sharePrice);
+	}
+
+	@Override
+	public synchronized double price() {
+		return this.lastPrice;
+	}
+
+	@Override
+	public synchronized SortedMap<Double, Set<Order>> getBuyBook() {
+		return this.toBook(true);
+	}
+
+	@Override
+	public synchronized SortedMap<Double, Set<Order>> getSellBook() {
+		return this.toBook(false);
+	}
+
+	private SortedMap<Double, Set<Order>> toBook(boolean buy) {
+		SortedMap<Double, Set<Order>> book = buy
+				? new TreeMap<Double, Set<Order>>(Collections.reverseOrder())
+				: new TreeMap<Double, Set<Order>>();
+		for (Resting order : this.ORDERS.values()) {
+			if (order.BUY == buy) {
+				if (!book.containsKey(order.PRICE)) {
+					book.put(order.PRICE, new LinkedHashSet<Order>());
+				}
+				book.get(order.PRICE).add(order.ORDER);
+			}
+		}
+		return book;
+	}
+
+	@Override
+	public boolean isShort() {
+		return this.SHORT;
+	}
+
+	@Override
+	public synchronized void cancel(Integer agentID, boolean buy, double shareNum, double sharePrice) {
+		Iterator<Resting> orders = this.ORDERS.values().iterator();
+		while (orders.hasNext()) {
+			Resting order = orders.next();
+			if (order.BUY == buy && order.PRICE == sharePrice
+					&& order.ORDER.FROM.equals(agentID) && order.ORDER.QUANTITY == shareNum) {
+				orders.remove();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public synchronized long lastOrderID() {
+		return this.lastID;
+	}
+
+	@Override
+	public synchronized boolean cancel(Integer agentID, long orderID) {
+		Resting order = this.ORDERS.get(orderID);
+		if (order == null || !order.ORDER.FROM.equals(agentID)) {
+			return false;
+		}
+		this.ORDERS.remove(orderID);
+		return true;
+	}
+
+	/**
+	 * Changes an order's open quantity. Increases send it to the back of
+	 * its price; a buy can only grow by what the budget pays for at its
+	 * price, and a sell cannot grow past its tradeable, which shrinks
+	 * with the order.
+	 * @param budget : the agent's monies
+	 */
+	@Override
+	public synchronized boolean amend(Integer agentID, long orderID, double shareNum, double budget) {
+		Resting order = this.ORDERS.get(orderID);
+		if (order == null || !order.ORDER.FROM.equals(agentID)) {
+			return false;
+		} else if (shareNum <= 0) {
+			return this.cancel(agentID, orderID);
+		} else if (!order.BUY && shareNum > order.ORDER.GOOD.getCount()) {
+			return false;
+		} else if (order.BUY && shareNum > order.ORDER.QUANTITY
+				&& this.quoteBid(shareNum - order.ORDER.QUANTITY, order.PRICE) > budget) {
+			return false;
+		}
+
+		if (shareNum > order.ORDER.QUANTITY) {
+			this.ORDERS.remove(orderID);
+			this.ORDERS.put(orderID, order);
+		} else if (!order.BUY) {
+			order.ORDER.GOOD.setCount(shareNum);
+		}
+		order.ORDER.updateQuantity(shareNum);
+		return true;
+	}
+
+	/**
+	 * An order waiting for the next batch
+	 */
+	private static class Resting {
+		public final long ID;
+		public final boolean BUY;
+		public final double PRICE;
+		public final boolean RESTS;
+		public final Order ORDER;
+
+		Resting(long id, boolean buy, double price, boolean rests, Order order) {
+			this.ID = id;
+			this.BUY = buy;
+			this.PRICE = price;
+			this.RESTS = rests;
+			this.ORDER = order;
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package brown.securities.prediction.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads back what a BinaryResultWriter wrote, one run at a time into a
+ * result the caller reuses, so reading a long sweep takes as little
+ * memory as writing it did.
+ */
+public class BinaryResultReader implements Closeable {
+	private final DataInputStream IN;
+	private double[] columns;
+	private int run;
+
+	/**
+	 * Constructor
+	 * @param in : buffered here
+	 * @throws IOException if in does not start like a BinaryResultWriter
+	 * stream
+	 */
+	public BinaryResultReader(InputStream in) throws IOException {
+		this.IN = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		if (this.IN.readInt() != BinaryResultWriter.MAGIC) {
+			throw new IOException("Not a simulation result stream");
+		}
+		int version = this.IN.readInt();
+		if (version != BinaryResultWriter.VERSION) {
+			throw new IOException("Unknown simulation result version " + version);
+		}
+		this.columns = new double[64];
+		this.run = -1;
+	}
+
+	/**
+	 * Reads the next run
+	 * @param result : cleared and filled in
+	 * @return false if the stream has ended
+	 * @throws IOException if the stream ends partway through a run
+	 */
+	public boolean next(SimulationResult result) throws IOException {
+		int run;
+		try {
+			run = this.IN.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		int makers = this.IN.readInt();
+		int agents = this.IN.readInt();
+		result.clear();
+		for (int i = 0; i < makers; i++) {
+			result.addMarketmaker(this.IN.readDouble());
+		}
+		for (int i = 0; i < makers; i++) {
+			result.setPrice(i, this.IN.readDouble());
+		}
+
+		// Purchases are added by row, so the columns wait here until the
+		// last one is read
+		if (this.columns.length < 4 * agents) {
+			this.columns = new double[Math.max(4 * agents, 2 * this.columns.length)];
+		}
+		for (int i = 0; i < agents; i++) {
+			this.columns[i] = this.IN.readInt();
+		}
+		for (int i = agents; i < 4 * agents; i++) {
+			this.columns[i] = this.IN.readDouble();
+		}
+		for (int i = 0; i < agents; i++) {
+			result.addPurchase((int) this.columns[i], this.columns[agents + i],
+					this.columns[2 * agents + i], this.columns[3 * agents + i]);
+		}
+		this.run = run;
+		return true;
+	}
+
+	/**
+	 * @return the run number of the last run read, or -1 before any
+	 */
+	public int getRun() {
+		return this.run;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.IN.close();
+	}
+
+}
@@ -0,0 +1,78 @@
+package brown.securities.prediction.simulator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes results in a compact binary format that BinaryResultReader
+ * reads back. The stream opens with MAGIC and VERSION, then has one
+ * chunk per result, column by column:
+ *
+ *   int run, int market makers, int agents,
+ *   double alpha[market makers], double price[market makers],
+ *   int mm[agents], double value[agents], double quantity[agents],
+ *   double cost[agents]
+ *
+ * A market maker's income is the sum of the costs paid to it, so it is
+ * not written. Chunks are only ever appended and there is no index or
+ * count to go back and fill in. Each chunk is buffered and flushed as a
+ * whole, so a stream can be read while it grows and holds every chunk
+ * written before a crash.
+ */
+public class BinaryResultWriter implements ResultWriter {
+	public static final int MAGIC = 0x534D5253;
+	public static final int VERSION = 1;
+
+	private final DataOutputStream OUT;
+	private int run;
+
+	/**
+	 * Constructor
+	 * @param out : buffered here and flushed after each chunk
+	 * @throws IOException
+	 */
+	public BinaryResultWriter(OutputStream out) throws IOException {
+		this.OUT = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		this.OUT.writeInt(MAGIC);
+		this.OUT.writeInt(VERSION);
+		this.run = 0;
+	}
+
+	@Override
+	public int write(SimulationResult result) throws IOException {
+		int run = this.run++;
+		int makers = result.getMarketmakerCount();
+		int agents = result.getAgentCount();
+		this.OUT.writeInt(run);
+		this.OUT.writeInt(makers);
+		this.OUT.writeInt(agents);
+		for (int i = 0; i < makers; i++) {
+			this.OUT.writeDouble(result.getMarkup(i));
+		}
+		for (int i = 0; i < makers; i++) {
+			this.OUT.writeDouble(result.getPrice(i));
+		}
+		for (int i = 0; i < agents; i++) {
+			this.OUT.writeInt(result.getSelection(i));
+		}
+		for (int i = 0; i < agents; i++) {
+			this.OUT.writeDouble(result.getValue(i));
+		}
+		for (int i = 0; i < agents; i++) {
+			this.OUT.writeDouble(result.getQuantity(i));
+		}
+		for (int i = 0; i < agents; i++) {
+			this.OUT.writeDouble(result.getPaid(i));
+		}
+		this.OUT.flush();
+		return run;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.OUT.close();
+	}
+
+}
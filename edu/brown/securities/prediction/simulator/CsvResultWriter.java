@@ -0,0 +1,90 @@
+package brown.securities.prediction.simulator;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes results as two CSV tables, one row per market maker and one per
+ * purchase, each row led by its run number. Rows are built in one
+ * buffer and handed to the writers without making strings; the writers
+ * should be buffered, as they are never flushed until they are closed.
+ */
+public class CsvResultWriter implements ResultWriter {
+	public static final String MARKETMAKERS = "run,mm,alpha,price,income\n";
+	public static final String PURCHASES = "run,agent,value,mm,quantity,cost\n";
+
+	private final Writer MARKETMAKERSOUT;
+	private final Writer PURCHASESOUT;
+	private final StringBuilder ROW;
+	private char[] chars;
+	private int run;
+
+	/**
+	 * Constructor
+	 * @param marketmakers : where market maker rows go, or null to drop them
+	 * @param purchases : where purchase rows go, or null to drop them
+	 * @throws IOException
+	 */
+	public CsvResultWriter(Writer marketmakers, Writer purchases) throws IOException {
+		this.MARKETMAKERSOUT = marketmakers;
+		this.PURCHASESOUT = purchases;
+		this.ROW = new StringBuilder(64);
+		this.chars = new char[64];
+		this.run = 0;
+		if (marketmakers != null) {
+			marketmakers.write(MARKETMAKERS);
+		}
+		if (purchases != null) {
+			purchases.write(PURCHASES);
+		}
+	}
+
+	@Override
+	public int write(SimulationResult result) throws IOException {
+		int run = this.run++;
+		if (this.MARKETMAKERSOUT != null) {
+			for (int i = 0; i < result.getMarketmakerCount(); i++) {
+				this.ROW.append(run).append(',').append(i)
+					.append(',').append(result.getMarkup(i))
+					.append(',').append(result.getPrice(i))
+					.append(',').append(result.getIncome(i)).append('\n');
+				this.flushRow(this.MARKETMAKERSOUT);
+			}
+		}
+		if (this.PURCHASESOUT != null) {
+			for (int i = 0; i < result.getAgentCount(); i++) {
+				this.ROW.append(run).append(',').append(i)
+					.append(',').append(result.getValue(i))
+					.append(',').append(result.getSelection(i))
+					.append(',').append(result.getQuantity(i))
+					.append(',').append(result.getPaid(i)).append('\n');
+				this.flushRow(this.PURCHASESOUT);
+			}
+		}
+		return run;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.MARKETMAKERSOUT != null) {
+			this.MARKETMAKERSOUT.close();
+		}
+		if (this.PURCHASESOUT != null) {
+			this.PURCHASESOUT.close();
+		}
+	}
+
+	/*
+	 * Hands the row to out and empties it
+	 */
+	private void flushRow(Writer out) throws IOException {
+		int length = this.ROW.length();
+		if (length > this.chars.length) {
+			this.chars = new char[Math.max(length, this.chars.length * 2)];
+		}
+		this.ROW.getChars(0, length, this.chars, 0);
+		out.write(this.chars, 0, length);
+		this.ROW.setLength(0);
+	}
+
+}
@@ -3,11 +3,13 @@ package brown.securities.prediction.simulator;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import brown.agent.library.ExperimentalAgent;
 import brown.agent.library.FarsightedInformed;
@@ -15,28 +17,64 @@ import brown.agent.library.FarsightedUninformed;
 import brown.agent.library.ShortsightedInformed;
 import brown.agent.library.ShortsightedUninformed;
 import brown.exceptions.AgentCreationException;
+import brown.markets.BinaryLMSRServer;
 import brown.markets.LMSRBackend;
-import brown.markets.LMSRServer;
 import brown.markets.LiquiditySensitive;
 import brown.markets.LukeMM;
 import brown.server.library.ExperimentalServer;
+import brown.server.library.LocalExperimentalServer;
 import brown.setup.Logging;
 import brown.setup.library.ExperimentalSetup;
 
+/**
+ * Runs ExperimentalAgents against a binary LMSR market, either over the
+ * network or, with a LocalExperimentalServer, in this JVM. In process a
+ * run ends as soon as the agents stop trading rather than after a fixed
+ * wait, and playgrounds share nothing, so several can run at once.
+ */
 public class LMSRPlayground {
 	private final List<ExperimentalAgent> AGENTS;
-	private final BufferedWriter WRITER;
+	private final Writer WRITER;
 	private final ExperimentalServer SERVER;
+	// Server in this JVM, or null over the network
+	private final LocalExperimentalServer LOCAL;
+	private final Random RANDOM;
 	private final double PROB;
 	
 	private final int PORT = 2917;
 
 	public LMSRPlayground(int sInformed, int sUninformed, int fInformed, int fUninformed)
 			throws AgentCreationException, IOException {
-		this.SERVER = new ExperimentalServer(PORT);
-		String datetime = new SimpleDateFormat("MM-dd-HH-mm-ss").format(new Date());
-		this.WRITER = new BufferedWriter(new FileWriter("exp/" + sInformed + "_" + sUninformed + "_" + fInformed + "_"
-				+ fUninformed + "-" + datetime + ".csv"));
+		this(sInformed, sUninformed, fInformed, fUninformed, false,
+				new BufferedWriter(new FileWriter("exp/" + sInformed + "_" + sUninformed + "_"
+						+ fInformed + "_" + fUninformed + "-"
+						+ new SimpleDateFormat("MM-dd-HH-mm-ss").format(new Date()) + ".csv")),
+				new Random());
+	}
+
+	/**
+	 * Constructor for a playground run in this JVM, without sockets
+	 * @param sInformed
+	 * @param sUninformed
+	 * @param fInformed
+	 * @param fUninformed
+	 * @param writer : where results are written
+	 * @param seed : orders the signals and the agents
+	 * @throws AgentCreationException
+	 * @throws IOException
+	 */
+	public LMSRPlayground(int sInformed, int sUninformed, int fInformed, int fUninformed,
+			Writer writer, long seed) throws AgentCreationException, IOException {
+		this(sInformed, sUninformed, fInformed, fUninformed, true, writer, new Random(seed));
+	}
+
+	private LMSRPlayground(int sInformed, int sUninformed, int fInformed, int fUninformed,
+			boolean local, Writer writer, Random random)
+			throws AgentCreationException, IOException {
+		this.LOCAL = local ? new LocalExperimentalServer() : null;
+		this.SERVER = local ? null : new ExperimentalServer(PORT);
+		this.WRITER = writer;
+		this.RANDOM = random;
 
 		double prob = .35;
 		double totalInformed = sInformed + fInformed;
@@ -56,34 +94,49 @@ public class LMSRPlayground {
 				nums.add(.001);
 			}
 		}
-		Collections.shuffle(nums);
+		Collections.shuffle(nums, this.RANDOM);
 
 		List<ExperimentalAgent> agents = new LinkedList<ExperimentalAgent>();
 		for (int i = 0; i < sInformed; i++) {
-			agents.add(new ShortsightedInformed("localhost", PORT, new ExperimentalSetup(), nums.get(0)));
+			agents.add(local ? new ShortsightedInformed(this.LOCAL, nums.get(0))
+					: new ShortsightedInformed("localhost", PORT, new ExperimentalSetup(), nums.get(0)));
 			nums.remove(0);
 		}
 		for (int i = 0; i < sUninformed; i++) {
-			agents.add(new ShortsightedUninformed("localhost", PORT, new ExperimentalSetup()));
+			agents.add(local ? new ShortsightedUninformed(this.LOCAL)
+					: new ShortsightedUninformed("localhost", PORT, new ExperimentalSetup()));
 		}
 
 		for (int i = 0; i < fInformed; i++) {
-			agents.add(new FarsightedInformed("localhost", PORT, new ExperimentalSetup(), nums.get(0)));
+			agents.add(local ? new FarsightedInformed(this.LOCAL, nums.get(0))
+					: new FarsightedInformed("localhost", PORT, new ExperimentalSetup(), nums.get(0)));
 			nums.remove(0);
 		}
 		for (int i = 0; i < fUninformed; i++) {
-			agents.add(new FarsightedUninformed("localhost", PORT, new ExperimentalSetup()));
+			agents.add(local ? new FarsightedUninformed(this.LOCAL)
+					: new FarsightedUninformed("localhost", PORT, new ExperimentalSetup()));
 		}
 
 		this.AGENTS = agents;
 	}
 
-	public void simulate(int type, double param) throws IOException {
-		Collections.shuffle(this.AGENTS);
+	/**
+	 * Runs the agents once against a new market maker
+	 * @param type : 0 for LMSR, 1 for liquidity sensitive, 2 for Luke's
+	 * @param param : b or alpha
+	 * @return the price the market closed at
+	 * @throws IOException
+	 */
+	public double simulate(int type, double param) throws IOException {
+		Collections.shuffle(this.AGENTS, this.RANDOM);
 		for (int i = 0; i < this.AGENTS.size(); i++) {
 			this.AGENTS.get(i).setTime(i);
 		}
-		this.SERVER.setBanks(1); //TODO: Fair way between MMs?
+		if (this.LOCAL != null) {
+			this.LOCAL.setBanks(1);
+		} else {
+			this.SERVER.setBanks(1); //TODO: Fair way between MMs?
+		}
 		LMSRBackend backend = new LMSRBackend(0, param); // TODO: Tell it the
 															// truth and it can
 															// calc profit
@@ -92,23 +145,26 @@ public class LMSRPlayground {
 		} else if (type == 2) {
 			backend = new LukeMM(param);
 		}
-		LMSRServer yes = new LMSRServer(0, true, backend, true);
-		LMSRServer no = new LMSRServer(1, false, backend, true);
-		this.SERVER.getManager().openTwoSided(yes);
-		this.SERVER.getManager().openTwoSided(no);
-		//for (int i = 0; i < this.AGENTS.size(); i++) {
-			this.SERVER.sendMarketUpdateNL(no);
-			this.SERVER.sendMarketUpdateNL(yes);
-			try {
-				Thread.sleep(3000);
-			} catch (InterruptedException e) {
-				Logging.log("[+] woken: " + e.getMessage());
-			}
-		//}
-		double cost = this.PROB >= .5 ? backend.yes : backend.no;
-		this.WRITER.write((backend.getProfit()-cost) +","+type+","+param + "," + yes.price() + "\n"); // TODO: Profit?
-		System.out.println("Final Price " + yes.price());
-		this.WRITER.flush();
+		BinaryLMSRServer market = new BinaryLMSRServer(0, backend, true);
+		if (this.LOCAL != null) {
+			this.LOCAL.getManager().openTwoSided(market);
+			this.LOCAL.sendMarketUpdateNL(market);
+			this.LOCAL.run();
+		} else {
+			this.SERVER.getManager().openTwoSided(market);
+			//for (int i = 0; i < this.AGENTS.size(); i++) {
+				this.SERVER.sendMarketUpdateNL(market);
+				try {
+					Thread.sleep(3000);
+				} catch (InterruptedException e) {
+					Logging.log("[+] woken: " + e.getMessage());
+				}
+			//}
+		}
+		double cost = this.PROB >= .5 ? backend.getYes() : backend.getNo();
+		this.WRITER.write((backend.getProfit()-cost) +","+type+","+param + "," + market.price() + "\n"); // TODO: Profit?
+		System.out.println("Final Price " + market.price());
+		return market.price();
 	}
 	
 	public void close() throws IOException {
@@ -116,7 +172,10 @@ public class LMSRPlayground {
 	}
 
 	public static void main(String[] args) throws AgentCreationException, IOException {
-		LMSRPlayground pg = new LMSRPlayground(49, 0, 0, 0);
+		String datetime = new SimpleDateFormat("MM-dd-HH-mm-ss").format(new Date());
+		LMSRPlayground pg = new LMSRPlayground(49, 0, 0, 0,
+				new BufferedWriter(new FileWriter("exp/49_0_0_0-" + datetime + ".csv")),
+				System.currentTimeMillis());
 //		for (double b = 1; b <= 20; b++) {
 //			for (int i = 0; i < 10; i++) {
 //				pg.simulate(0, b);
@@ -0,0 +1,130 @@
+package brown.securities.prediction.simulator;
+
+import java.util.function.DoubleUnaryOperator;
+
+import brown.markets.LMSRBackend;
+import brown.markets.RootFinder;
+
+/**
+ * Finds the LMSR liquidity b under which a sequence of traders leaves
+ * the price at a target. Starting from the last b found, it steps out
+ * geometrically until the replayed price crosses the target, then
+ * solves on that bracket with Brent's method. Every probe replays the
+ * traders on the same backend, reset in place.
+ *
+ * The replayed price is not monotone in b: a trader held back by their
+ * budget at one b may reach their value at a larger one. When several
+ * b reach the target this finds the first one met searching out from
+ * the last b, which is not always the smallest, as the old step by
+ * step scan from MINB found.
+ */
+public class LiquidityCalibrator {
+	public static final double MINB = .001;
+	public static final double MAXB = 10000;
+	// How close the replayed price must come to the target
+	public static final double TOLERANCE = .0001;
+
+	private final LMSRBackend BACKEND;
+	private double last;
+
+	public LiquidityCalibrator() {
+		this(1);
+	}
+
+	/**
+	 * Constructor
+	 * @param start : b to search out from on the first calibration
+	 */
+	public LiquidityCalibrator(double start) {
+		this.BACKEND = new LMSRBackend(0, start);
+		this.last = start;
+	}
+
+	/**
+	 * Finds b for these traders
+	 * @param values : each trader's value, in order of arrival
+	 * @param budgets : each trader's budget
+	 * @param weightedAverage : yes price the traders should leave behind
+	 * @param yes : quantity yes before the traders arrive
+	 * @param no : quantity no before the traders arrive
+	 * @return a b that reaches the target, or -1 if no b between MINB
+	 * and MAXB does
+	 */
+	public double calibrate(Double[] values, Double[] budgets,
+			double weightedAverage, double yes, double no) {
+		if (values.length != budgets.length) {
+			throw new IllegalArgumentException();
+		}
+
+		DoubleUnaryOperator gap = b -> this.replay(values, budgets, b, yes, no) - weightedAverage;
+		double start = Math.min(Math.max(this.last, MINB), MAXB);
+		double gstart = gap.applyAsDouble(start);
+		if (Math.abs(gstart) <= TOLERANCE) {
+			return this.found(start);
+		}
+
+		// Each side remembers its last probe where the price was finite
+		double hi = start;
+		double hiProbe = start;
+		double ghi = gstart;
+		double lo = start;
+		double loProbe = start;
+		double glo = gstart;
+		while (lo > MINB || hi < MAXB) {
+			if (hi < MAXB) {
+				hi = Math.min(hi * 2, MAXB);
+				double g = gap.applyAsDouble(hi);
+				if (Math.abs(g) <= TOLERANCE) {
+					return this.found(hi);
+				} else if (crosses(ghi, g)) {
+					return this.found(RootFinder.brent(gap, hiProbe, hi, hiProbe * 1e-9));
+				} else if (!Double.isNaN(g)) {
+					hiProbe = hi;
+					ghi = g;
+				}
+			}
+			if (lo > MINB) {
+				lo = Math.max(lo / 2, MINB);
+				double g = gap.applyAsDouble(lo);
+				if (Math.abs(g) <= TOLERANCE) {
+					return this.found(lo);
+				} else if (crosses(glo, g)) {
+					return this.found(RootFinder.brent(gap, lo, loProbe, lo * 1e-9));
+				} else if (!Double.isNaN(g)) {
+					loProbe = lo;
+					glo = g;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private double found(double b) {
+		this.last = b;
+		return b;
+	}
+
+	/**
+	 * @return the last b found, where the next calibration starts
+	 */
+	public double getLast() {
+		return this.last;
+	}
+
+	/*
+	 * Whether the target lies between two probes. Probes where the
+	 * price overflowed say nothing either way.
+	 */
+	private static boolean crosses(double first, double second) {
+		return !Double.isNaN(first) && !Double.isNaN(second) && (first > 0) != (second > 0);
+	}
+
+	/*
+	 * Yes price after the traders arrive at a market with liquidity b
+	 */
+	private double replay(Double[] values, Double[] budgets, double b, double yes, double no) {
+		this.BACKEND.setB(b);
+		this.BACKEND.reset(yes, no);
+		return Utilities.simulate(this.BACKEND, values, budgets).price(true);
+	}
+}
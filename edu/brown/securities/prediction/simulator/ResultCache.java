@@ -0,0 +1,200 @@
+package brown.securities.prediction.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results kept on local disk between sessions, each in a file named by
+ * the SHA-256 of a description of what made it: market maker, bidders,
+ * seed and Simulator.VERSION. When the files outgrow the capacity the
+ * ones least recently used are deleted; use is carried across sessions
+ * in the files' modification times.
+ *
+ * Files are written whole under a temporary name and then renamed, so a
+ * crash never leaves half a result behind, and a file that cannot be
+ * read is treated as missing and removed.
+ */
+public class ResultCache {
+	private static final int MAGIC = 0x53435243;
+	private static final String SUFFIX = ".res";
+
+	private final File DIRECTORY;
+	private final long CAPACITY;
+	// Bytes in each file, least recently used first
+	private final LinkedHashMap<String, Long> FILES;
+	private long size;
+	private int hits;
+	private int misses;
+
+	/**
+	 * Constructor
+	 * @param directory : made if missing
+	 * @param capacity : bytes the files may take up
+	 * @throws IOException
+	 */
+	public ResultCache(File directory, long capacity) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not make " + directory);
+		}
+		this.DIRECTORY = directory;
+		this.CAPACITY = capacity;
+		this.FILES = new LinkedHashMap<String, Long>(16, .75f, true);
+		this.size = 0;
+		this.hits = 0;
+		this.misses = 0;
+
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+		for (File file : files) {
+			String name = file.getName();
+			this.FILES.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+			this.size += file.length();
+		}
+		this.evict();
+	}
+
+	/**
+	 * The key of whatever a description describes
+	 * @param description : everything a result depends on
+	 * @return SHA-256 of the description, in hex
+	 */
+	public static String key(String description) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256")
+					.digest(description.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(2 * digest.length);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+					.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gets a result, marking it as just used
+	 * @param key
+	 * @return the values stored, or null if there are none
+	 */
+	public synchronized double[] get(String key) {
+		if (this.FILES.get(key) == null) {
+			this.misses++;
+			return null;
+		}
+		File file = this.file(key);
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a cached result");
+			}
+			double[] values = new double[in.readInt()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = in.readDouble();
+			}
+			file.setLastModified(System.currentTimeMillis());
+			this.hits++;
+			return values;
+		} catch (IOException e) {
+			this.remove(key);
+			this.misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a result, then deletes the least recently used ones until
+	 * the rest fit
+	 * @param key
+	 * @param values
+	 * @throws IOException
+	 */
+	public synchronized void put(String key, double[] values) throws IOException {
+		File file = this.file(key);
+		File temporary = new File(this.DIRECTORY, key + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(values.length);
+			for (double value : values) {
+				out.writeDouble(value);
+			}
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		Long old = this.FILES.put(key, file.length());
+		this.size += file.length() - (old == null ? 0 : old);
+		this.evict();
+	}
+
+	/**
+	 * @param key
+	 * @return whether a result is stored, without marking it as used
+	 */
+	public synchronized boolean contains(String key) {
+		return this.FILES.containsKey(key);
+	}
+
+	/**
+	 * @return bytes the files take up
+	 */
+	public synchronized long size() {
+		return this.size;
+	}
+
+	/**
+	 * @return results found by get
+	 */
+	public synchronized int getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return results get did not find
+	 */
+	public synchronized int getMisses() {
+		return this.misses;
+	}
+
+	private File file(String key) {
+		return new File(this.DIRECTORY, key + SUFFIX);
+	}
+
+	private void remove(String key) {
+		Long bytes = this.FILES.remove(key);
+		if (bytes != null) {
+			this.size -= bytes;
+		}
+		this.file(key).delete();
+	}
+
+	/*
+	 * Deletes the least recently used files until the rest fit
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> eldest = this.FILES.entrySet().iterator();
+		while (this.size > this.CAPACITY && eldest.hasNext()) {
+			Map.Entry<String, Long> entry = eldest.next();
+			this.size -= entry.getValue();
+			this.file(entry.getKey()).delete();
+			eldest.remove();
+		}
+	}
+
+}
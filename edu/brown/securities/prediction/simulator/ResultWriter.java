@@ -0,0 +1,20 @@
+package brown.securities.prediction.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Appends simulation results to a file as they are made. Each result is
+ * written as one chunk numbered by the order it was written in, and
+ * nothing written is kept, so results can be cleared and reused once
+ * they are written.
+ */
+public interface ResultWriter extends Closeable {
+	/**
+	 * Appends a result
+	 * @param result
+	 * @return the run number it was written under
+	 * @throws IOException
+	 */
+	public int write(SimulationResult result) throws IOException;
+}
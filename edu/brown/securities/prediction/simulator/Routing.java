@@ -0,0 +1,20 @@
+package brown.securities.prediction.simulator;
+
+import java.util.List;
+
+import brown.markets.LMSRBackend;
+
+/**
+ * Picks the market maker an agent trades with in a simulation. The
+ * simulator works out once, for every market maker, how many shares
+ * the agent would buy there, and passes them in.
+ */
+public interface Routing {
+	/**
+	 * @param agent
+	 * @param marketmakers
+	 * @param quantities : shares the agent would buy from each
+	 * @return index of the market maker to trade with
+	 */
+	public int route(Bidder agent, List<LMSRBackend> marketmakers, double[] quantities);
+}
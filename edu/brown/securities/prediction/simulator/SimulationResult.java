@@ -1,92 +1,220 @@
 package brown.securities.prediction.simulator;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import brown.markets.LMSRBackend;
 
+/**
+ * What one simulation did, kept by column in primitive arrays. Market
+ * makers are numbered in the order they are added and agents in the
+ * order they buy, so an agent's ID is the row of its purchase. A result
+ * can be cleared and filled again, which keeps the arrays it has grown,
+ * so a long sweep writing each run out through a ResultWriter does not
+ * use more memory as it goes.
+ */
 public class SimulationResult {
-	private Map<LMSRBackend, Integer> marketmakerID;
-	private Map<Bidder, Integer> agentID;
-	
-	public final Map<Integer, Double> prices;
-	public final Map<Integer, Double> values;
-	public final Map<Integer, Double> quantities;
-	public final Map<Integer, Integer> selections;
-	public final Map<Integer, Double> costs;
-	public final Map<Integer, Double> markup;
-	
-	private int agentCount = 0;
-	private int mmCount = 0;
-	
+	// Market makers added with their backend, for getCost(LMSRBackend)
+	private LMSRBackend[] marketmakers;
+	private double[] markups;
+	private double[] prices;
+	private double[] incomes;
+	private int mmCount;
+
+	private int[] selections;
+	private double[] values;
+	private double[] quantities;
+	private double[] costs;
+	private int agentCount;
+
 	public SimulationResult() {
-		this.marketmakerID = new HashMap<LMSRBackend, Integer>();
-		this.agentID = new HashMap<Bidder, Integer>();
-		this.prices = new HashMap<Integer, Double>();
-		this.values = new HashMap<Integer, Double>();
-		this.quantities = new HashMap<Integer, Double>();
-		this.selections = new HashMap<Integer, Integer>();
-		this.costs = new HashMap<Integer, Double>();
-		this.markup = new HashMap<Integer, Double>();
+		this(2, 16);
 	}
 
-	public void addPurchase(LMSRBackend mm, Bidder agent, double quantity, boolean correct) {
-		selections.put(getID(agent), getID(mm));
-		quantities.put(getID(agent), quantity);
-		//System.out.println(quantity);
-		//double penalty = correct == (agent.value > .5) ? -1*quantity : 0;
-		//costs.put(getID(mm), costs.getOrDefault(getID(mm), 0.0) + penalty);
+	/**
+	 * Constructor
+	 * @param marketmakers : market makers to make room for
+	 * @param agents : purchases to make room for
+	 */
+	public SimulationResult(int marketmakers, int agents) {
+		int m = Math.max(1, marketmakers);
+		int a = Math.max(1, agents);
+		this.marketmakers = new LMSRBackend[m];
+		this.markups = new double[m];
+		this.prices = new double[m];
+		this.incomes = new double[m];
+		this.selections = new int[a];
+		this.values = new double[a];
+		this.quantities = new double[a];
+		this.costs = new double[a];
+		this.clear();
 	}
 
-	public void addMarketmaker(LMSRBackend mm) {
-		prices.put(getID(mm), mm.price(true));
+	/**
+	 * Forgets every market maker and purchase, keeping the arrays
+	 */
+	public void clear() {
+		Arrays.fill(this.marketmakers, 0, this.mmCount, null);
+		this.mmCount = 0;
+		this.agentCount = 0;
 	}
-	
-	public void addCost(LMSRBackend mm, double cost) {
-		costs.put(getID(mm), costs.getOrDefault(getID(mm), 0.0) + cost);
+
+	/**
+	 * Adds a market maker
+	 * @param mm
+	 * @return its ID
+	 */
+	public int addMarketmaker(LMSRBackend mm) {
+		int id = this.addMarketmaker(mm.alpha);
+		this.marketmakers[id] = mm;
+		return id;
 	}
-	
-	public double getCost(LMSRBackend mm) {
-		return costs.get(getID(mm));
-	}
-	
-	public int getID(LMSRBackend mm) {
-		Integer id = marketmakerID.get(mm);
-		if (id == null) {
-			id = new Integer(mmCount++);
-			marketmakerID.put(mm, id);
-			markup.put(id, mm.alpha);
+
+	/**
+	 * Adds a market maker known only by its markup
+	 * @param markup : alpha
+	 * @return its ID
+	 */
+	public int addMarketmaker(double markup) {
+		if (this.mmCount == this.markups.length) {
+			int length = this.mmCount * 2;
+			this.marketmakers = Arrays.copyOf(this.marketmakers, length);
+			this.markups = Arrays.copyOf(this.markups, length);
+			this.prices = Arrays.copyOf(this.prices, length);
+			this.incomes = Arrays.copyOf(this.incomes, length);
 		}
+		int id = this.mmCount++;
+		this.markups[id] = markup;
+		this.prices[id] = 0;
+		this.incomes[id] = 0;
 		return id;
 	}
-	
-	public int getID(Bidder agent) {
-		Integer id = agentID.get(agent);
-		if (id == null) {
-			id = new Integer(agentCount++);
-			agentID.put(agent, id);
-			values.put(id, ((int)(100 * agent.value)/100.0));
+
+	/**
+	 * Records the yes price a market maker closed at
+	 * @param mm : ID
+	 * @param price
+	 */
+	public void setPrice(int mm, double price) {
+		this.prices[mm] = price;
+	}
+
+	/**
+	 * Adds a purchase, the next agent's, and what it paid the market maker
+	 * @param mm : ID of the market maker
+	 * @param value : the agent's value
+	 * @param quantity : shares bought
+	 * @param cost : money paid
+	 * @return the agent's ID
+	 */
+	public int addPurchase(int mm, double value, double quantity, double cost) {
+		if (this.agentCount == this.selections.length) {
+			int length = this.agentCount * 2;
+			this.selections = Arrays.copyOf(this.selections, length);
+			this.values = Arrays.copyOf(this.values, length);
+			this.quantities = Arrays.copyOf(this.quantities, length);
+			this.costs = Arrays.copyOf(this.costs, length);
 		}
+		int id = this.agentCount++;
+		this.selections[id] = mm;
+		this.values[id] = value;
+		this.quantities[id] = quantity;
+		this.costs[id] = cost;
+		this.incomes[mm] += cost;
 		return id;
 	}
-	
+
+	/**
+	 * @param mm : a market maker added with its backend
+	 * @return money the market maker took in, or 0 if it was not added
+	 */
+	public double getCost(LMSRBackend mm) {
+		for (int i = 0; i < this.mmCount; i++) {
+			if (this.marketmakers[i] == mm) {
+				return this.incomes[i];
+			}
+		}
+		return 0;
+	}
+
+	public int getMarketmakerCount() {
+		return this.mmCount;
+	}
+
+	public double getMarkup(int mm) {
+		return this.markups[mm];
+	}
+
+	public double getPrice(int mm) {
+		return this.prices[mm];
+	}
+
+	/**
+	 * @param mm : ID
+	 * @return money the market maker took in
+	 */
+	public double getIncome(int mm) {
+		return this.incomes[mm];
+	}
+
+	/**
+	 * @param mm : ID
+	 * @return the fraction of agents that bought from the market maker
+	 */
+	public double getShare(int mm) {
+		int count = 0;
+		for (int i = 0; i < this.agentCount; i++) {
+			if (this.selections[i] == mm) {
+				count++;
+			}
+		}
+		return count / (double) this.agentCount;
+	}
+
+	public int getAgentCount() {
+		return this.agentCount;
+	}
+
+	/**
+	 * @param agent : ID
+	 * @return ID of the market maker the agent bought from
+	 */
+	public int getSelection(int agent) {
+		return this.selections[agent];
+	}
+
+	public double getValue(int agent) {
+		return this.values[agent];
+	}
+
+	public double getQuantity(int agent) {
+		return this.quantities[agent];
+	}
+
+	/**
+	 * @param agent : ID
+	 * @return money the agent paid
+	 */
+	public double getPaid(int agent) {
+		return this.costs[agent];
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("Income (MM,a,$):\n");
-		for (Map.Entry<Integer, Double> cost : costs.entrySet()) {
-			builder.append(cost.getKey() + "," + markup.get(cost.getKey()) + "," + cost.getValue() + "\n");
+		for (int i = 0; i < this.mmCount; i++) {
+			builder.append(i + "," + this.markups[i] + "," + this.incomes[i] + "\n");
 		}
 		builder.append("\nSelections (A,v,MM):\n");
-		float share = 0;
-		for (Map.Entry<Integer, Integer> select : selections.entrySet()) {
-			builder.append(select.getKey() +","+ values.get(select.getKey()) + "," + select.getValue() + "\n");
-			share += select.getValue();
+		for (int i = 0; i < this.agentCount; i++) {
+			builder.append(i + "," + ((int) (100 * this.values[i]) / 100.0) + ","
+					+ this.selections[i] + "\n");
 		}
-		
+
 		builder.append("\nShare (MM,%)\n");
-		builder.append("0," + (1.0-(share/selections.size())));
-		builder.append("\n1," + (share/selections.size()));
-		return builder.toString() + "\n";
+		for (int i = 0; i < this.mmCount; i++) {
+			builder.append(i + "," + this.getShare(i) + "\n");
+		}
+		return builder.toString();
 	}
 }
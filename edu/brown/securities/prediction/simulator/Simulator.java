@@ -1,88 +1,167 @@
 package brown.securities.prediction.simulator;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 import brown.markets.LMSRBackend;
 import brown.markets.LiquiditySensitive;
 import brown.markets.LukeMM;
 
 public class Simulator {
+	/**
+	 * Changes whenever a change here, to the market makers or to how a
+	 * sweep sets bidders up would change what a run gives, so results
+	 * cached before the change are not used
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * Sends each agent to the market maker selling them the fewest
+	 * shares, the first of them on a tie
+	 */
+	public static final Routing FEWEST = (agent, marketmakers, quantities) -> {
+		int best = 0;
+		for (int i = 1; i < quantities.length; i++) {
+			if (quantities[i] < quantities[best]) {
+				best = i;
+			}
+		}
+		return best;
+	};
+	
+	/**
+	 * Sends each agent to the market maker selling them the most
+	 * shares, the first of them on a tie
+	 */
+	public static final Routing MOST = (agent, marketmakers, quantities) -> {
+		int best = 0;
+		for (int i = 1; i < quantities.length; i++) {
+			if (quantities[i] > quantities[best]) {
+				best = i;
+			}
+		}
+		return best;
+	};
+	
 	private final List<LMSRBackend> marketmakers;
 	private final List<Bidder> agents;
+	private final Routing routing;
 	
 	public Simulator(List<LMSRBackend> marketmakers, List<Bidder> agents) {
-		this.marketmakers = marketmakers;
+		this(marketmakers, agents, FEWEST);
+	}
+	
+	/**
+	 * Constructor
+	 * @param marketmakers
+	 * @param agents
+	 * @param routing : picks the market maker each agent trades with
+	 */
+	public Simulator(List<LMSRBackend> marketmakers, List<Bidder> agents, Routing routing) {
+		this.marketmakers = new ArrayList<LMSRBackend>(marketmakers);
 		this.agents = agents;
+		this.routing = routing;
 	}
 	
 	public SimulationResult simulate(boolean orderedAgents, boolean correct) {
-		SimulationResult result = new SimulationResult();
 		List<Bidder> theAgents = new LinkedList<Bidder>();
 		theAgents.addAll(agents);
 		if (!orderedAgents) {
 			Collections.shuffle(theAgents);
 		}
-		
+		return this.simulate(theAgents, correct,
+				new SimulationResult(marketmakers.size(), agents.size()));
+	}
+	
+	/**
+	 * Simulates with the agents shuffled by random, so a run can be
+	 * repeated from its seed
+	 * @param random
+	 * @param correct
+	 * @return result
+	 */
+	public SimulationResult simulate(SplittableRandom random, boolean correct) {
+		return this.simulate(random, correct,
+				new SimulationResult(marketmakers.size(), agents.size()));
+	}
+	
+	/**
+	 * Simulates with the agents shuffled by random into a result that is
+	 * cleared first, so a sweep can reuse one result for every run
+	 * @param random
+	 * @param correct
+	 * @param result : filled in
+	 * @return result
+	 */
+	public SimulationResult simulate(SplittableRandom random, boolean correct,
+			SimulationResult result) {
+		List<Bidder> theAgents = new ArrayList<Bidder>(agents);
+		for (int i = theAgents.size() - 1; i > 0; i--) {
+			Collections.swap(theAgents, i, random.nextInt(i + 1));
+		}
+		result.clear();
+		return this.simulate(theAgents, correct, result);
+	}
+	
+	private SimulationResult simulate(List<Bidder> theAgents, boolean correct,
+			SimulationResult result) {
+		for (LMSRBackend mm : marketmakers) {
+			result.addMarketmaker(mm);
+		}
+		double[] quantities = new double[marketmakers.size()];
 		for (Bidder agent : theAgents) {
-			Comparator<LMSRBackend> mostGains = new Comparator<LMSRBackend>() {
-				@Override
-				public int compare(LMSRBackend mm1, LMSRBackend mm2) {
-					double q1 = getQuantity(null, mm1, agent);
-					double q2 = getQuantity(null, mm2, agent);
-					if (q1 > q2) {
-						return 1;
-					} else if (q1 < q2) {
-						return -1;
-					}
-					return 0;
-				}
-			};
-			
-			Collections.sort(marketmakers, mostGains);
-			LMSRBackend bestmm = marketmakers.get(0);
+			for (int i = 0; i < quantities.length; i++) {
+				quantities[i] = getQuantity(marketmakers.get(i), agent);
+			}
+			int best = routing.route(agent, marketmakers, quantities);
+			LMSRBackend bestmm = marketmakers.get(best);
 			//System.out.println(bestmm.price(true) + " " + bestmm.price(false));
-			double quantity = getQuantity(result, bestmm, agent);
-			if (agent.value == -1) {
-				if (bestmm.price(true) >= .5) {
-					bestmm.yes(null, quantity);
-				} else {
-					bestmm.no(null, quantity);
-				}
+			double quantity = quantities[best];
+			double cost = getCost(bestmm, agent, quantity);
+			if (direction(bestmm, agent)) {
+				bestmm.yes(null, quantity);
 			} else {
-				if (agent.value > bestmm.price(true)) {
-					bestmm.yes(null, quantity);
-				} else {
-					bestmm.no(null, quantity);
-				}
+				bestmm.no(null, quantity);
 			}
-			result.addPurchase(bestmm, agent, quantity, correct);
+			result.addPurchase(best, agent.value, quantity, cost);
 		}
-		for (LMSRBackend mm : marketmakers) {
-			result.addMarketmaker(mm);
+		for (int i = 0; i < marketmakers.size(); i++) {
+			result.setPrice(i, marketmakers.get(i).price(true));
 		}
 		
 		return result;
 	}
 	
-	private static double getQuantity(SimulationResult result, LMSRBackend mm, Bidder agent) {
-		boolean dir = agent.value > mm.price(true);
+	private static double getQuantity(LMSRBackend mm, Bidder agent) {
+		boolean dir = direction(mm, agent);
 		double value = agent.value;
 		if (value == -1) {
-			dir = mm.price(true) >= .5;
 			value = dir ? 1 : 0;
 		}
 		double idealShareNum = mm.howMany(value, dir);
 		double idealCost = dir ? mm.cost(idealShareNum, 0) : mm.cost(0, idealShareNum);
-		double shareNum = idealCost > agent.budget ? mm.budgetToShares(agent.budget, dir) : idealShareNum;
-		if (result != null) {
-			//System.out.println(mm.alpha + " " + shareNum + " " + (dir ? mm.cost(shareNum, 0) : mm.cost(0, shareNum)));
-			result.addCost(mm,dir ? mm.cost(shareNum, 0) : mm.cost(0, shareNum));
+		return idealCost > agent.budget ? mm.budgetToShares(agent.budget, dir) : idealShareNum;
+	}
+	
+	/*
+	 * What the agent pays for shareNum shares on the side they buy
+	 */
+	private static double getCost(LMSRBackend mm, Bidder agent, double shareNum) {
+		return direction(mm, agent) ? mm.cost(shareNum, 0) : mm.cost(0, shareNum);
+	}
+	
+	/*
+	 * Whether the agent buys yes; agents without a value back whichever
+	 * side the price favors
+	 */
+	private static boolean direction(LMSRBackend mm, Bidder agent) {
+		if (agent.value == -1) {
+			return mm.price(true) >= .5;
 		}
-
-		return shareNum;
+		return agent.value > mm.price(true);
 	}
 	
 	public static double getWinner(double first, double second) {
@@ -142,26 +221,9 @@ public class Simulator {
 	}
 	
 	public static double getAccuracy(int which, int informed, int uninformed) {
-			MarketMakerFactory mmf = new MarketMakerFactory();
-			LMSRBackend pmb = null;
-			switch(which) {
-			case 0: pmb = new LMSRBackend(0,50);
-			case 1: pmb = new LiquiditySensitive(.2);
-			case 2: pmb = new LukeMM(.2);
-			}
-			mmf.add(pmb);
-			BidderFactory bf = new BidderFactory();
-			while (informed-- > 0) {
-				bf.addBidder(Math.random(), 1);
-			}
-			double truth = bf.getAverage();
-			while(uninformed-- > 0) {
-				bf.addBidder(-1, 1);
-			}
-			Simulator simulator = new Simulator(mmf.make(), bf.getBidders());
-			simulator.simulate(false, truth >= .5);
-			//System.out.println(truth + " " + pmb.price(true));
-			return pmb.price(true) - truth;
+		Sweep.Point point = new Sweep.Point(Sweep.Maker.values()[which],
+				Sweep.Maker.values()[which].DEFAULT, informed, uninformed);
+		return Sweep.replicate(point, 0, new SplittableRandom()).error();
 	}
 	
 	public static void main(String[] args) {
@@ -172,10 +234,10 @@ public class Simulator {
 			System.out.println(win + " " + (fin == win ? -1 : fin));
 			fin += .1;
 		}*/
-		for (int i = 0; i < 3; i++) {
-			double win = Simulator.getAccuracy(i, 20, 10);
-			double win2 = Simulator.getAccuracy(i, 10, 20);
-			System.out.println((Math.abs(win) < Math.abs(win2)) + " " + Math.abs(win - win2));
+		List<Sweep.Point> grid = Sweep.grid(Sweep.Maker.values(), null,
+				new int[] {20, 10}, new int[] {10, 20});
+		for (Sweep.Summary summary : new Sweep(0).run(grid, 1000)) {
+			System.out.println(summary);
 		}
 		//System.out.println(sr);
 		//System.out.println("Average: " + bf.getAverage());
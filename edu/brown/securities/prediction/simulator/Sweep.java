@@ -0,0 +1,405 @@
+package brown.securities.prediction.simulator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import brown.markets.LMSRBackend;
+import brown.markets.LiquiditySensitive;
+import brown.markets.LukeMM;
+
+/**
+ * Runs many replicates of a market at every point of a parameter grid
+ * on the fork/join pool. Before anything runs, each replicate is given
+ * its own SplittableRandom, split from a stream seeded by the sweep's
+ * seed and the point alone, so every replicate draws the same numbers
+ * however the pool schedules it or whatever grid its point is in, and a
+ * sweep can be repeated from its seed. That also lets a ResultCache
+ * hand back any point already run.
+ */
+public class Sweep {
+	private final long SEED;
+
+	/**
+	 * Constructor
+	 * @param seed : every random number in the sweep follows from it
+	 */
+	public Sweep(long seed) {
+		this.SEED = seed;
+	}
+
+	/**
+	 * Every combination of the given values
+	 * @param makers
+	 * @param params : b or alpha for each maker, or null for each
+	 * maker's default
+	 * @param informed : counts of informed bidders
+	 * @param uninformed : counts of uninformed bidders
+	 * @return grid
+	 */
+	public static List<Point> grid(Maker[] makers, double[] params,
+			int[] informed, int[] uninformed) {
+		List<Point> grid = new ArrayList<Point>();
+		for (Maker maker : makers) {
+			double[] makerParams = params == null ? new double[] {maker.DEFAULT} : params;
+			for (double param : makerParams) {
+				for (int i : informed) {
+					for (int u : uninformed) {
+						grid.add(new Point(maker, param, i, u));
+					}
+				}
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Every replicate at every point, run in parallel as the stream is
+	 * consumed. The stream is ordered point by point, replicate by
+	 * replicate, and each result depends only on the seed, its point and
+	 * which replicate of the point it is.
+	 * @param grid
+	 * @param replicates : runs per point
+	 * @return results
+	 */
+	public Stream<Replicate> stream(List<Point> grid, int replicates) {
+		SplittableRandom[] randoms = this.randoms(grid, replicates);
+		return IntStream.range(0, randoms.length).parallel().mapToObj(i ->
+				replicate(grid.get(i / replicates), i % replicates, randoms[i]));
+	}
+
+	/**
+	 * Runs every replicate at every point in order on this thread,
+	 * drawing the same numbers as stream(), and writes each run out as it
+	 * ends. One result is filled for every run, so memory stays flat
+	 * however long the sweep.
+	 * @param grid
+	 * @param replicates : runs per point
+	 * @param out : gets the runs point by point, replicate by replicate
+	 * @throws IOException
+	 */
+	public void write(List<Point> grid, int replicates, ResultWriter out) throws IOException {
+		SplittableRandom[] randoms = this.randoms(grid, replicates);
+		SimulationResult result = new SimulationResult();
+		for (int i = 0; i < randoms.length; i++) {
+			replicate(grid.get(i / replicates), i % replicates, randoms[i], result);
+			out.write(result);
+		}
+	}
+
+	/**
+	 * Runs the sweep and sums up each point, in grid order. Each point
+	 * is summed up as soon as its last replicate ends, so only the
+	 * points still running are held.
+	 * @param grid
+	 * @param replicates : runs per point
+	 * @return a summary per point
+	 */
+	public List<Summary> run(List<Point> grid, int replicates) {
+		Summary[] summaries = new Summary[grid.size()];
+		this.reduce(grid, replicates, (point, p) ->
+				summaries[p] = new Summary(grid.get(p), point, 0, replicates));
+		return new ArrayList<Summary>(Arrays.asList(summaries));
+	}
+
+	/**
+	 * Runs the sweep, taking every point already in the cache from it and
+	 * running only the rest, which are then cached
+	 * @param grid
+	 * @param replicates : runs per point
+	 * @param cache
+	 * @return a summary per point, in grid order
+	 * @throws IOException if a result could not be cached
+	 */
+	public List<Summary> run(List<Point> grid, int replicates, ResultCache cache)
+			throws IOException {
+		Summary[] summaries = new Summary[grid.size()];
+		List<Point> missing = new ArrayList<Point>();
+		List<Integer> where = new ArrayList<Integer>();
+		for (int p = 0; p < grid.size(); p++) {
+			Point point = grid.get(p);
+			double[] values = cache.get(point.key(this.SEED, replicates));
+			if (values != null && values.length == 3 * replicates) {
+				Replicate[] found = new Replicate[replicates];
+				for (int r = 0; r < replicates; r++) {
+					found[r] = new Replicate(point, r, values[3 * r],
+							values[3 * r + 1], values[3 * r + 2]);
+				}
+				summaries[p] = new Summary(point, found, 0, replicates);
+			} else {
+				missing.add(point);
+				where.add(p);
+			}
+		}
+
+		try {
+			this.reduce(missing, replicates, (run, m) -> {
+				double[] values = new double[3 * replicates];
+				for (int r = 0; r < replicates; r++) {
+					values[3 * r] = run[r].TRUTH;
+					values[3 * r + 1] = run[r].PRICE;
+					values[3 * r + 2] = run[r].PROFIT;
+				}
+				try {
+					cache.put(missing.get(m).key(this.SEED, replicates), values);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				summaries[where.get(m)] = new Summary(missing.get(m), run, 0, replicates);
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return new ArrayList<Summary>(Arrays.asList(summaries));
+	}
+
+	/*
+	 * Runs every replicate in parallel, as stream() does, and hands each
+	 * point's replicates, in order, to done as soon as the last of them
+	 * ends, along with the point's index in the grid. Each replicate has
+	 * its own slot, so what done gets does not depend on which ended
+	 * first.
+	 */
+	private void reduce(List<Point> grid, int replicates, ObjIntConsumer<Replicate[]> done) {
+		SplittableRandom[] randoms = this.randoms(grid, replicates);
+		Map<Integer, Running> running = new ConcurrentHashMap<Integer, Running>();
+		IntStream.range(0, randoms.length).parallel().forEach(i -> {
+			int p = i / replicates;
+			Running point = running.computeIfAbsent(p, key -> new Running(replicates));
+			point.REPLICATES[i % replicates] = replicate(grid.get(p), i % replicates, randoms[i]);
+			if (point.LEFT.decrementAndGet() == 0) {
+				running.remove(p);
+				done.accept(point.REPLICATES, p);
+			}
+		});
+	}
+
+	/**
+	 * One run of a market: informed bidders value the event uniformly at
+	 * random, uninformed ones back whichever side the price favors, and
+	 * all arrive in random order with a budget of 1
+	 * @param point
+	 * @param index : which replicate of the point this is
+	 * @param random : the replicate's own stream
+	 * @return result
+	 */
+	public static Replicate replicate(Point point, int index, SplittableRandom random) {
+		return replicate(point, index, random, new SimulationResult());
+	}
+
+	/**
+	 * One run of a market, filling in result with its purchases
+	 * @param point
+	 * @param index : which replicate of the point this is
+	 * @param random : the replicate's own stream
+	 * @param result : cleared and filled in
+	 * @return result
+	 */
+	public static Replicate replicate(Point point, int index, SplittableRandom random,
+			SimulationResult result) {
+		LMSRBackend mm = point.MAKER.make(point.PARAM);
+		BidderFactory bf = new BidderFactory();
+		for (int i = 0; i < point.INFORMED; i++) {
+			bf.addBidder(random.nextDouble(), 1);
+		}
+		double truth = bf.getAverage();
+		for (int i = 0; i < point.UNINFORMED; i++) {
+			bf.addBidder(-1, 1);
+		}
+		Simulator simulator = new Simulator(new MarketMakerFactory().add(mm).make(),
+				bf.getBidders());
+		simulator.simulate(random, truth >= .5, result);
+		return new Replicate(point, index, truth, mm.price(true), mm.getProfit());
+	}
+
+	/*
+	 * A stream per replicate, split in order from its point's stream
+	 */
+	private SplittableRandom[] randoms(List<Point> grid, int replicates) {
+		SplittableRandom[] randoms = new SplittableRandom[grid.size() * replicates];
+		for (int p = 0; p < grid.size(); p++) {
+			SplittableRandom point = new SplittableRandom(grid.get(p).seed(this.SEED));
+			for (int r = 0; r < replicates; r++) {
+				randoms[p * replicates + r] = point.split();
+			}
+		}
+		return randoms;
+	}
+
+	/*
+	 * A point some of whose replicates have yet to end
+	 */
+	private static class Running {
+		public final Replicate[] REPLICATES;
+		public final AtomicInteger LEFT;
+
+		Running(int replicates) {
+			this.REPLICATES = new Replicate[replicates];
+			this.LEFT = new AtomicInteger(replicates);
+		}
+	}
+
+	/**
+	 * Market makers a sweep can run, each with the b or alpha it is
+	 * usually run with
+	 */
+	public enum Maker {
+		LMSR(50), Sensitive(.2), Luke(.2);
+
+		public final double DEFAULT;
+
+		private Maker(double param) {
+			this.DEFAULT = param;
+		}
+
+		/**
+		 * @param param : b for LMSR, alpha for the others
+		 * @return a new market maker
+		 */
+		public LMSRBackend make(double param) {
+			switch (this) {
+			case Sensitive:
+				return new LiquiditySensitive(param);
+			case Luke:
+				return new LukeMM(param);
+			default:
+				return new LMSRBackend(0, param);
+			}
+		}
+	}
+
+	/**
+	 * One point of the parameter grid
+	 */
+	public static class Point {
+		public final Maker MAKER;
+		public final double PARAM;
+		public final int INFORMED;
+		public final int UNINFORMED;
+
+		public Point(Maker maker, double param, int informed, int uninformed) {
+			this.MAKER = maker;
+			this.PARAM = param;
+			this.INFORMED = informed;
+			this.UNINFORMED = uninformed;
+		}
+
+		/**
+		 * Seed of the point's stream in a sweep, from the point's values
+		 * alone
+		 * @param seed : the sweep's
+		 * @return seed
+		 */
+		public long seed(long seed) {
+			long h = mix(seed ^ this.MAKER.name().hashCode());
+			h = mix(h ^ Double.doubleToLongBits(this.PARAM));
+			h = mix(h ^ this.INFORMED);
+			return mix(h ^ ((long) this.UNINFORMED << 32));
+		}
+
+		/**
+		 * The point's key in a ResultCache
+		 * @param seed : the sweep's
+		 * @param replicates : runs per point
+		 * @return key
+		 */
+		public String key(long seed, int replicates) {
+			return ResultCache.key("Sweep," + Simulator.VERSION + "," + this + ","
+					+ seed + "," + replicates);
+		}
+
+		@Override
+		public String toString() {
+			return this.MAKER + "," + this.PARAM + "," + this.INFORMED + "," + this.UNINFORMED;
+		}
+
+		/*
+		 * SplitMix64's finalizer
+		 */
+		private static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+
+	/**
+	 * What one run of a market ended with
+	 */
+	public static class Replicate {
+		public final Point POINT;
+		public final int INDEX;
+		// Budget weighted average of the informed values
+		public final double TRUTH;
+		// Yes price the market closed at
+		public final double PRICE;
+		// What the market maker took in
+		public final double PROFIT;
+
+		public Replicate(Point point, int index, double truth, double price, double profit) {
+			this.POINT = point;
+			this.INDEX = index;
+			this.TRUTH = truth;
+			this.PRICE = price;
+			this.PROFIT = profit;
+		}
+
+		/**
+		 * @return how far the price closed from the truth
+		 */
+		public double error() {
+			return this.PRICE - this.TRUTH;
+		}
+	}
+
+	/**
+	 * The replicates at one point, summed up
+	 */
+	public static class Summary {
+		public final Point POINT;
+		public final int COUNT;
+		public final double ERROR;
+		public final double ABSERROR;
+		// Standard deviation of the error
+		public final double SPREAD;
+		public final double PROFIT;
+
+		Summary(Point point, Replicate[] all, int from, int count) {
+			double error = 0;
+			double abs = 0;
+			double profit = 0;
+			for (int i = from; i < from + count; i++) {
+				error += all[i].error();
+				abs += Math.abs(all[i].error());
+				profit += all[i].PROFIT;
+			}
+			double mean = error / count;
+			double squares = 0;
+			for (int i = from; i < from + count; i++) {
+				squares += (all[i].error() - mean) * (all[i].error() - mean);
+			}
+			this.POINT = point;
+			this.COUNT = count;
+			this.ERROR = mean;
+			this.ABSERROR = abs / count;
+			this.SPREAD = count > 1 ? Math.sqrt(squares / (count - 1)) : 0;
+			this.PROFIT = profit / count;
+		}
+
+		@Override
+		public String toString() {
+			return this.POINT + "," + this.COUNT + "," + this.ERROR + "," + this.ABSERROR
+					+ "," + this.SPREAD + "," + this.PROFIT;
+		}
+	}
+
+}
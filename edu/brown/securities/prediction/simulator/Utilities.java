@@ -11,16 +11,7 @@ public final class Utilities {
 			throw new IllegalArgumentException();
 		}
 		
-		double b = .001;
-		LMSRBackend backend = newBackend(b, yes, no);
-		double p = simulate(backend, values, budgets).price(true);
-		while((p > weightedAverage + .0001 || p < weightedAverage - .0001) && b < 10000) {
-			b += .001;
-			backend = newBackend(b, yes, no);
-			p = simulate(backend, values, budgets).price(true);
-		}
-		
-		return b < 10000 ? b : -1;
+		return new LiquidityCalibrator().calibrate(values, budgets, weightedAverage, yes, no);
 	}
 
 	public static double findB(Double[] values, Double[] budgets) {
@@ -37,7 +28,10 @@ public final class Utilities {
 		return findBWeighted(values, budgets, weightedAverage, 0,0);
 	}
 	
-	private static LMSRBackend simulate(LMSRBackend backend, Double[] values, Double[] budgets) {
+	/*
+	 * Lets each trader in turn buy toward their value, within budget
+	 */
+	static LMSRBackend simulate(LMSRBackend backend, Double[] values, Double[] budgets) {
 		for (int i = 0; i < values.length; i++) {
 			boolean dir = values[i] > backend.price(true);
 			double idealShareNum = backend.howMany(values[i], dir);
@@ -53,10 +47,6 @@ public final class Utilities {
 		return backend;
 	}
 	
-	private static LMSRBackend newBackend(double B, double yes, double no) {
-		return new LMSRBackend(0, B,yes,no);
-	}
-	
 	public static void main(String[] args) {
 		Double[] values = new Double[]{.8,.7,.6};
 		Double[] budgets = new Double[]{1.0,1.0,1.0};
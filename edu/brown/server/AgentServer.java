@@ -2,7 +2,6 @@ package brown.server;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +9,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 import brown.assets.accounting.Account;
 import brown.assets.accounting.AccountManager;
@@ -23,14 +23,16 @@ import brown.messages.Ack;
 import brown.messages.BankUpdate;
 import brown.messages.Registration;
 import brown.messages.auctions.Bid;
+import brown.messages.markets.BookUpdate;
 import brown.messages.markets.MarketOrder;
 import brown.messages.markets.TradeRequest;
 import brown.messages.trades.NegotiateRequest;
 import brown.messages.trades.Trade;
+import brown.server.MatchingEngine.Command;
+import brown.server.MatchingEngine.Result;
 import brown.setup.Logging;
 import brown.setup.Setup;
 import brown.setup.Startup;
-import brown.tradeables.ShortShare;
 import brown.tradeables.Tradeable;
 
 import com.esotericsoftware.kryo.Kryo;
@@ -50,7 +52,11 @@ public abstract class AgentServer {
 	// Consider time limiting these
 	protected List<NegotiateRequest> pendingTradeRequests;
 	protected AccountManager acctManager;
+	private final ClearingHouse house;
 	protected MarketManager manager;
+	private RingBuffer<Result> settlements;
+	private Thread accountant;
+	private volatile boolean accounting;
 
 	private int agentCount;
 	private final int PORT;
@@ -63,8 +69,24 @@ public abstract class AgentServer {
 		this.connections = new ConcurrentHashMap<Connection, Integer>();
 		this.privateToPublic = new ConcurrentHashMap<Integer, Integer>();
 		this.acctManager = new AccountManager();
+		this.house = new ClearingHouse(this.acctManager) {
+			protected void sendBankUpdate(Integer ID, Account oldA, Account newA) {
+				AgentServer.this.sendBankUpdate(ID, oldA, newA);
+			}
+
+			protected void sendOrderID(int connectionID, Integer privateID,
+					MarketOrder limitorder, long orderID) {
+				theServer.sendToTCP(connectionID,
+						new Ack(privateID, limitorder, orderID));
+			}
+
+			protected void reject(int connectionID, Integer privateID, MarketOrder limitorder) {
+				theServer.sendToTCP(connectionID, new Ack(privateID, limitorder, true));
+			}
+		};
 		this.pendingTradeRequests = new CopyOnWriteArrayList<NegotiateRequest>();
 		this.manager = new MarketManager();
+		this.accounting = false;
 		this.privateToPublic.put(-1, -1);
 		this.SHORT = false;
 
@@ -142,167 +164,178 @@ public abstract class AgentServer {
 			this.theServer.sendToTCP(connection.getID(), rej);
 			return;
 		}
+		MatchingEngine engine = this.manager.getShard(limitorder.marketID);
+		while (engine != null) {
+			if (this.submitLimitOrder(engine, connection, privateID, limitorder)) {
+				return;
+			}
+			// The shard is stopping; the market is matched here once its
+			// last trades are settled
+			Thread.yield();
+			engine = this.manager.getShard(limitorder.marketID);
+		}
 		synchronized (market) {
-			Ledger ledger = new Ledger(null);//manager.getLedger(limitorder.marketID);
-			if (limitorder.cancel) {
-				double shares = limitorder.buyShares != 0 ? limitorder.buyShares : limitorder.sellShares;
-				market.cancel(privateID, limitorder.sellShares == 0, 
-						shares, limitorder.price);
-			} else if (limitorder.buyShares > 0) {
-				synchronized (privateID) {
-					Account account = this.acctManager.getAccount(privateID);
-					if (!market.permitShort()
-							&& account.monies < market.quoteBid(
-									limitorder.buyShares, limitorder.price)) {
-				     System.out.println("ACK 3");
-						Ack rej = new Ack(privateID, limitorder, true);
-						this.theServer.sendToTCP(connection.getID(), rej);
-						return;
-					}
+			this.house.trade(connection.getID(), privateID, market, limitorder,
+					new Ledger(null));
+		}
+	}
 
-					List<Order> trans = market.buy(privateID,
-							limitorder.buyShares, limitorder.price);
-					for (Order t : trans) {
-						Tradeable split = null;
-						if (t.GOOD.getCount() > t.QUANTITY) {
-							split = t.GOOD.split(t.QUANTITY);
-							ledger.add(t.toTransaction());
-						}
+	/*
+	 * Hands a limit order to the shard that owns its market, or returns
+	 * false without touching anything if the shard is stopping. Only the
+	 * seller's holdings are touched here; everything else waits for the
+	 * accounting stage.
+	 */
+	private boolean submitLimitOrder(MatchingEngine engine, Connection connection,
+			Integer privateID, MarketOrder limitorder) {
+		int connectionID = connection.getID();
+		Integer marketID = limitorder.marketID;
+		if (!engine.enter()) {
+			return false;
+		}
+		try {
+			this.submit(engine, connectionID, marketID, privateID, limitorder);
+		} finally {
+			engine.leave();
+		}
+		return true;
+	}
 
-						if (t.FROM != null) {
-							synchronized (t.FROM) {
-								Account fromBank = this.acctManager.getAccount(t.FROM);
-								if (!market.permitShort()
-										&& !fromBank.tradeables
-												.contains(t.GOOD)) {
-									// TODO: Deal with this case
-								}
-								Account finalUpdatedFrom = fromBank.add(t.COST,
-										new HashSet<Tradeable>());
-								if (split == null) {
-									finalUpdatedFrom = finalUpdatedFrom.remove(
-											0, t.GOOD);
-								}
-								this.acctManager.
-								setAccount(t.FROM, finalUpdatedFrom);
-								this.sendBankUpdate(t.FROM, fromBank,
-										finalUpdatedFrom);
-							}
-						}
+	private void submit(MatchingEngine engine, int connectionID, Integer marketID,
+			Integer privateID, MarketOrder limitorder) {
+		if (limitorder.cancel) {
+			engine.queue(new Command(connectionID, marketID, privateID, limitorder, null, 0));
+		} else if (limitorder.orderID != -1) {
+			engine.queue(new Command(connectionID, marketID, privateID, limitorder,
+					null, this.acctManager.getSpendable(privateID)));
+		} else if (limitorder.buyShares > 0) {
+			// The order's most is set aside until it is settled, so that
+			// buys waiting together cannot spend the same monies
+			synchronized (this.acctManager.getLock(privateID)) {
+				TwoSidedAuction side = ClearingHouse.route(engine.getMarket(marketID), limitorder);
+				double spendable = this.acctManager.getSpendable(privateID);
+				double held = ClearingHouse.toHold(side, limitorder, spendable);
+				this.acctManager.hold(privateID, held);
+				engine.queue(new Command(connectionID, marketID, privateID, limitorder,
+						null, side.permitShort() ? spendable : held, held));
+			}
+		} else if (limitorder.sellShares > 0) {
+			synchronized (this.acctManager.getLock(privateID)) {
+				TwoSidedAuction side = ClearingHouse.route(engine.getMarket(marketID), limitorder);
+				for (Tradeable toSell : this.house.toSell(side, privateID, limitorder.sellShares)) {
+					engine.queue(new Command(connectionID, marketID, privateID, limitorder,
+							toSell, 0));
+				}
+			}
+		}
+	}
 
-						if (t.TO != null) {
-							synchronized (t.TO) {
-								Account toBank = this.acctManager.getAccount(t.TO);
-								Account oldbank = toBank;
-								if (market.permitShort()
-										|| toBank.monies >= t.COST) {
-									if (split == null) {
-										t.GOOD.setAgentID(t.TO);
-										toBank = toBank
-												.add(-1 * t.COST, t.GOOD);
-									} else {
-										split.setAgentID(t.TO);
-										toBank = toBank.add(-1 * t.COST, split);
-									}
-									this.acctManager.setAccount(t.TO, toBank);
-									this.sendBankUpdate(t.TO, oldbank, toBank);
-								} else {
-									// TODO: Could not afford
-								}
-							}
-						}
+	/**
+	 * Moves every two-sided market onto its own matching thread. From
+	 * then on orders for those markets are only queued by the network
+	 * thread, and all their trades are settled in order by a single
+	 * accounting thread.
+	 * @param capacity : orders that may wait per market
+	 */
+	public void startMatchingEngines(int capacity) {
+		this.startMatchingEngines(Math.max(1, this.manager.getAllTwoSided().size()), capacity);
+	}
 
-						ledger.add(t.toTransaction());
+	/**
+	 * Shards the two-sided markets across a fixed number of matching
+	 * threads. From then on orders for those markets are only queued by
+	 * the network thread, and all their trades are settled in order by a
+	 * single accounting thread.
+	 * @param workers : matching threads
+	 * @param capacity : orders that may wait per worker
+	 */
+	public void startMatchingEngines(int workers, int capacity) {
+		this.settlements = new RingBuffer<Result>(capacity);
+		this.accounting = true;
+		this.manager.shard(workers, capacity, this.settlements);
+
+		final RingBuffer<Result> results = this.settlements;
+		this.accountant = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					Result result = results.poll();
+					if (result != null) {
+						onMatched(result);
+					} else if (!accounting) {
+						return;
+					} else {
+						LockSupport.parkNanos(50000);
 					}
 				}
-			} else if (limitorder.sellShares > 0) {
-				synchronized (privateID) {
-					Account sellerAccount = this.acctManager
-							.getAccount(privateID);
-					double qToSell = limitorder.sellShares;
-					synchronized (sellerAccount.tradeables) {
-						List<Tradeable> justAList = new LinkedList<Tradeable>(
-								sellerAccount.tradeables);
-						if (market.permitShort()) {
-							double toShort = limitorder.sellShares;
-							for (Tradeable t : justAList) {
-								if (t.getType().equals(
-										market.getTradeableType())) {
-									toShort -= t.getCount();
-								}
-							}
-							if (toShort > 0) {
-								justAList.add(new ShortShare(toShort, market
-										.getTradeableType()));
-							}
-						}
+			}
+		}, "accounting");
+		this.accountant.setDaemon(true);
+		this.accountant.start();
+	}
 
-						for (Tradeable tradeable : justAList) {
-							if (qToSell <= 0) {
-								break;
-							}
+	/**
+	 * Stops the matching and accounting threads; markets go back to
+	 * being matched on the network thread. Every order already queued
+	 * is matched, settled and answered first.
+	 */
+	public void stopMatchingEngines() {
+		if (this.accountant == null) {
+			return;
+		}
+		this.manager.stopShards();
+		this.accounting = false;
+		LockSupport.unpark(this.accountant);
+		try {
+			this.accountant.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.accountant = null;
+		this.manager.unshard();
+	}
 
-							if (tradeable.getType().equals(
-									market.getTradeableType())) {
-								Tradeable toSell = tradeable;
-								if (tradeable.getCount() > qToSell) {
-									toSell = tradeable.split(qToSell);
-								}
-								qToSell -= toSell.getCount();
-
-								List<Order> trans = market.sell(privateID,
-										toSell, limitorder.price);
-								for (Order t : trans) {
-									if (t.FROM != null) {
-										synchronized (t.FROM) {
-											Account fromBank = this.acctManager
-													.getAccount(t.FROM);
-											if (market.permitShort()
-													|| fromBank.tradeables
-															.contains(t.GOOD)) {
-												Account taken = fromBank
-														.remove(0, t.GOOD);
-												Account finalUpdatedFrom = taken
-														.add(t.COST,
-																new HashSet<Tradeable>());
-												this.acctManager.setAccount(t.FROM,
-														finalUpdatedFrom);
-												this.sendBankUpdate(t.FROM,
-														fromBank,
-														finalUpdatedFrom);
-											} else {
-												// TODO: Deal with this case
-											}
-										}
-									}
-
-									if (t.TO != null) {
-										synchronized (t.TO) {
-											Account toBank = this.acctManager
-													.getAccount(t.TO);
-											Account oldBank = toBank;
-											if (market.permitShort()
-													|| toBank.monies >= t.COST) {
-												t.GOOD.setAgentID(t.TO);
-												toBank = toBank.add(
-														-1 * t.COST, t.GOOD);
-												this.acctManager.setAccount(t.TO, toBank);
-												this.sendBankUpdate(t.TO,
-														oldBank, toBank);
-											} else {
-												// TODO: Could not afford
-											}
-										}
-									}
-
-									ledger.add(t.toTransaction());
-								}
-							}
-						}
-					}
-				}
+	/*
+	 * Accounting stage: settles one matched command and answers its agent
+	 */
+	private void onMatched(Result result) {
+		Command command = result.COMMAND;
+		if (result.UPDATE != null) {
+			this.theServer.sendToAllTCP(result.UPDATE);
+			result.LEDGER.clearLatest();
+			return;
+		} else if (result.REJECTED && command.ORDER == null) {
+			return;
+		} else if (result.REJECTED) {
+			this.release(command);
+			Ack rej = new Ack(command.AGENTID, command.ORDER, true);
+			this.theServer.sendToTCP(command.CONNECTION, rej);
+			return;
+		}
+
+		Ledger ledger = result.LEDGER;
+		for (int i = 0; i < result.TRADES.size(); i++) {
+			if (result.SPLITS == null) {
+				this.house.settle(result.MARKET, result.TRADES.get(i), ledger);
+			} else {
+				this.house.settleBuy(result.MARKET, result.TRADES.get(i), 
+						result.SPLITS.get(i), ledger);
 			}
 		}
+		this.release(command);
+		if (command.ORDER != null) {
+			this.house.ack(command.CONNECTION, command.AGENTID, command.ORDER,
+					result.ORDERID);
+		}
+	}
+
+	/*
+	 * Gives back what was held for a buy once its trades are settled; any
+	 * part left resting is paid for when it fills
+	 */
+	private void release(Command command) {
+		if (command.HELD > 0) {
+			this.acctManager.release(command.AGENTID, command.HELD);
+		}
 	}
 
 	/*
@@ -451,17 +484,33 @@ public abstract class AgentServer {
 	public void sendAllMarketUpdates(List<TwoSidedAuction> tsas) {
 		int i = 0;
 		for (TwoSidedAuction sec : tsas) {
-			TradeRequest mupdate = new TradeRequest(i++, sec.wrap(this.manager
-					.getLedger(sec.getID()).getSanitized(null)),
-					sec.getMechanismType());
-			theServer.sendToAllTCP(mupdate);
+			MatchingEngine engine = this.manager.getShard(sec.getID());
+			if (engine != null) {
+				// A stopping shard turns this away, and its book cannot be
+				// read here until it has stopped
+				if (engine.submit(new Command(sec.getID(), true))) {
+					i++;
+				}
+				continue;
+			}
+			BookUpdate bupdate = sec.getBookUpdate();
+			if (bupdate != null) {
+				theServer.sendToAllTCP(bupdate);
+				i++;
+			} else {
+				TradeRequest mupdate = new TradeRequest(i++, sec.wrap(this.manager
+						.getLedger(sec.getID()).getSanitized(null)),
+						sec.getMechanismType());
+				theServer.sendToAllTCP(mupdate);
+			}
 			this.manager.getLedger(sec.getID()).clearLatest();
 		}
 	}
 
 	/**
 	 * Sends a auction update to every agent or closes out any finished
-	 * auctions. about the state of all the public auctions
+	 * auctions. about the state of all the public auctions. Two-sided
+	 * markets are ticked as well, settling any batch that clears.
 	 */
 	public void updateAllAuctions(boolean closeable) {
 		synchronized (this.manager) {
@@ -479,9 +528,9 @@ public abstract class AgentServer {
 						for (Order winner : winners) {
 							if (winner.TO != null && this.
 									acctManager.containsAcct(winner.TO)) {
-								Account accountTo = this.acctManager.
-										getAccount(winner.TO);
-								synchronized (accountTo.ID) {
+								synchronized (this.acctManager.getLock(winner.TO)) {
+									Account accountTo = this.acctManager.
+											getAccount(winner.TO);
 									winner.GOOD.setAgentID(winner.TO);
 									ledger.add(winner.toTransaction());
 									
@@ -496,9 +545,9 @@ public abstract class AgentServer {
 							
 							if (winner.FROM != null && this.acctManager
 									.containsAcct(winner.FROM)) {
-								Account accountFrom = this.acctManager
-										.getAccount(winner.FROM);
-								synchronized (accountFrom.ID) {									
+								synchronized (this.acctManager.getLock(winner.FROM)) {
+									Account accountFrom = this.acctManager
+											.getAccount(winner.FROM);
 									Account newA = accountFrom.remove(
 											-1 * winner.COST,
 											winner.GOOD);
@@ -524,6 +573,20 @@ public abstract class AgentServer {
 				}
 			}
 
+			for (TwoSidedAuction market : this.manager.getAllTwoSided()) {
+				MatchingEngine engine = this.manager.getShard(market.getID());
+				if (engine != null) {
+					engine.submit(new Command(market.getID(), false));
+					continue;
+				}
+				// Rules that do anything on tick hold their own lock, so
+				// orders keep arriving while a batch clears
+				Ledger ledger = new Ledger(null);
+				for (Order t : market.tick(System.currentTimeMillis())) {
+					this.house.settle(market, t, ledger);
+				}
+			}
+
 			for (Market auction : toRemove) {
 				//GameReport report = auction.getReport();
 				//if (report != null) {
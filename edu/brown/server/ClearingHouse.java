@@ -0,0 +1,378 @@
+package brown.server;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import brown.assets.accounting.Account;
+import brown.assets.accounting.AccountManager;
+import brown.assets.accounting.Ledger;
+import brown.assets.accounting.Order;
+import brown.markets.BinaryLMSRServer;
+import brown.markets.LMSRMarket;
+import brown.markets.TwoSidedAuction;
+import brown.messages.markets.MarketOrder;
+import brown.messages.markets.OrderType;
+import brown.tradeables.ShortShare;
+import brown.tradeables.Tradeable;
+
+/**
+ * What a server does with a limit order apart from carrying messages:
+ * routes it to its side of the market, holds a buy to what the buyer
+ * can pay, trades it, and moves the money and goods between accounts.
+ * Every server that takes orders goes through here, so they settle
+ * alike; each says how its replies reach agents by filling in the
+ * abstract methods.
+ */
+public abstract class ClearingHouse {
+	private final AccountManager ACCOUNTS;
+
+	/**
+	 * Constructor
+	 * @param accounts : the server's accounts
+	 */
+	public ClearingHouse(AccountManager accounts) {
+		this.ACCOUNTS = accounts;
+	}
+
+	/**
+	 * Tells an agent its account changed
+	 * @param ID : private ID
+	 * @param oldA
+	 * @param newA
+	 */
+	protected abstract void sendBankUpdate(Integer ID, Account oldA, Account newA);
+
+	/**
+	 * Tells an agent the ID its order rests under
+	 * @param connectionID : as passed to trade
+	 * @param privateID
+	 * @param limitorder
+	 * @param orderID
+	 */
+	protected abstract void sendOrderID(int connectionID, Integer privateID,
+			MarketOrder limitorder, long orderID);
+
+	/**
+	 * Tells an agent its order was turned away
+	 * @param connectionID : as passed to trade
+	 * @param privateID
+	 * @param limitorder
+	 */
+	protected abstract void reject(int connectionID, Integer privateID, MarketOrder limitorder);
+
+	/**
+	 * Handles a limit order for a market matched on the calling thread,
+	 * which must keep other orders off the market until it returns
+	 * @param connectionID : handed back to the replies
+	 * @param privateID
+	 * @param market
+	 * @param limitorder
+	 * @param ledger : gets the trades
+	 */
+	public void trade(int connectionID, Integer privateID, TwoSidedAuction market,
+			MarketOrder limitorder, Ledger ledger) {
+		if (limitorder.orderID != -1) {
+			boolean handled = limitorder.cancel
+					? market.cancel(privateID, limitorder.orderID)
+					: market.amend(privateID, limitorder.orderID, limitorder.buyShares,
+							market.permitShort() ? Double.POSITIVE_INFINITY
+									: this.ACCOUNTS.getSpendable(privateID));
+			if (!handled) {
+				this.reject(connectionID, privateID, limitorder);
+			}
+		} else if (limitorder.cancel) {
+			double shares = limitorder.buyShares != 0 ? limitorder.buyShares : limitorder.sellShares;
+			market.cancel(privateID, limitorder.sellShares == 0,
+					shares, limitorder.price);
+		} else if (limitorder.buyShares > 0) {
+			TwoSidedAuction side = route(market, limitorder);
+			synchronized (this.ACCOUNTS.getLock(privateID)) {
+				double shares = shares(side, limitorder,
+						this.ACCOUNTS.getSpendable(privateID));
+				if (!(shares > 0)) {
+					this.reject(connectionID, privateID, limitorder);
+					return;
+				}
+
+				for (Order t : side.buy(privateID, shares, limitorder.price, limitorder.type)) {
+					Tradeable split = null;
+					if (t.GOOD.getCount() > t.QUANTITY) {
+						split = t.GOOD.split(t.QUANTITY);
+					}
+					this.settleBuy(side, t, split, ledger);
+				}
+				this.ack(connectionID, privateID, limitorder, side.lastOrderID());
+			}
+		} else if (limitorder.sellShares > 0) {
+			TwoSidedAuction side = route(market, limitorder);
+			synchronized (this.ACCOUNTS.getLock(privateID)) {
+				for (Tradeable toSell : this.toSell(side, privateID, limitorder.sellShares)) {
+					for (Order t : side.sell(privateID, toSell, limitorder.price, limitorder.type)) {
+						this.settle(side, t, ledger);
+					}
+					this.ack(connectionID, privateID, limitorder, side.lastOrderID());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Acks an order with the ID it rests under, if it rests at all
+	 * @param connectionID
+	 * @param privateID
+	 * @param limitorder
+	 * @param orderID
+	 */
+	public void ack(int connectionID, Integer privateID, MarketOrder limitorder, long orderID) {
+		if (orderID != -1) {
+			this.sendOrderID(connectionID, privateID, limitorder, orderID);
+		}
+	}
+
+	/**
+	 * The market an order trades in: the side it names of a binary
+	 * market, which is locked and logged with the market itself, or
+	 * else the market
+	 * @param market
+	 * @param order
+	 * @return market
+	 */
+	public static TwoSidedAuction route(TwoSidedAuction market, MarketOrder order) {
+		if (market instanceof BinaryLMSRServer) {
+			return ((BinaryLMSRServer) market).side(order.side);
+		}
+		return market;
+	}
+
+	/**
+	 * Monies to hold for a buy until it is matched, up to what the buyer
+	 * can spend: what a market maker quotes for it now, or on a book as
+	 * much as it could cost at its limit, which needs no read of the
+	 * book. Nothing is held where the market allows shorting. If a market
+	 * maker's price rises before the order is matched, a stale order is
+	 * repriced to what was held and any other is rejected.
+	 * @param side : the market the order trades in
+	 * @param order
+	 * @param spendable : the buyer's monies not already held
+	 * @return monies to hold, which are also the order's budget
+	 */
+	public static double toHold(TwoSidedAuction side, MarketOrder order, double spendable) {
+		if (side.permitShort()) {
+			return 0;
+		}
+		double most = side instanceof LMSRMarket
+				? side.quoteBid(order.buyShares, order.price)
+				: order.buyShares * order.type.limit(true, order.price);
+		return Math.max(0, Math.min(spendable, most));
+	}
+
+	/**
+	 * Shares of a buy to trade: all of them if the budget covers the
+	 * order or the market allows shorting, else what repriced allows
+	 * @param side : the market the order trades in
+	 * @param order
+	 * @param budget : the buyer's monies
+	 * @return shares, or 0 to reject the order
+	 */
+	public static double shares(TwoSidedAuction side, MarketOrder order, double budget) {
+		if (side.permitShort()
+				|| budget >= side.quoteBid(order.buyShares, order.type.limit(true, order.price))) {
+			return order.buyShares;
+		}
+		return repriced(side, order, budget);
+	}
+
+	/**
+	 * Shares a buy the budget does not cover as it stands can still buy:
+	 * a market or immediate or cancel order takes what it can afford of
+	 * the depth there is, and an order priced against an older state of
+	 * a market maker what the budget buys now. Any other order gets 0
+	 * and is rejected.
+	 * @param market
+	 * @param order
+	 * @param budget
+	 * @return shares
+	 */
+	public static double repriced(TwoSidedAuction market, MarketOrder order, double budget) {
+		if (order.type == OrderType.Market || order.type == OrderType.ImmediateOrCancel) {
+			return affordable(market, order, budget);
+		} else if (!(market instanceof LMSRMarket)
+				|| !order.isStale(((LMSRMarket) market).getSequence())) {
+			return 0;
+		}
+		return Math.min(order.buyShares, ((LMSRMarket) market).moniesToShares(budget));
+	}
+
+	/*
+	 * Shares an order that never rests can buy within budget, walking
+	 * the asks up to its limit. A market maker's depth has no end, so
+	 * only the budget bounds it.
+	 */
+	private static double affordable(TwoSidedAuction market, MarketOrder order, double budget) {
+		if (market instanceof LMSRMarket) {
+			return Math.min(order.buyShares, ((LMSRMarket) market).moniesToShares(budget));
+		}
+		SortedMap<Double, Set<Order>> asks = market.getSellBook();
+		if (asks == null) {
+			return 0;
+		}
+
+		double limit = order.type.limit(true, order.price);
+		double shares = 0;
+		double cost = 0;
+		for (Map.Entry<Double, Set<Order>> level : asks.entrySet()) {
+			double price = level.getKey();
+			if (price > limit || shares >= order.buyShares || cost >= budget) {
+				break;
+			}
+			for (Order ask : level.getValue()) {
+				double quantity = Math.min(order.buyShares - shares, ask.QUANTITY);
+				quantity = Math.max(0, Math.min(quantity, (budget - cost) / price));
+				shares += quantity;
+				cost += quantity * price;
+			}
+		}
+		return shares > 0 && market.quoteBid(shares, limit) <= budget ? shares : 0;
+	}
+
+	/**
+	 * Moves the good and the money for a trade filled against a resting
+	 * sell. If only part of the seller's good was bought, split is the
+	 * part and the seller keeps the rest.
+	 * @param market
+	 * @param t
+	 * @param split
+	 * @param ledger
+	 */
+	public void settleBuy(TwoSidedAuction market, Order t, Tradeable split, Ledger ledger) {
+		if (t.FROM != null) {
+			synchronized (this.ACCOUNTS.getLock(t.FROM)) {
+				Account fromBank = this.ACCOUNTS.getAccount(t.FROM);
+				if (!market.permitShort() && !fromBank.tradeables.contains(t.GOOD)) {
+					// TODO: Deal with this case
+				}
+				Account finalUpdatedFrom = fromBank.add(t.COST,
+						new HashSet<Tradeable>());
+				if (split == null) {
+					finalUpdatedFrom = finalUpdatedFrom.remove(0, t.GOOD);
+				}
+				this.ACCOUNTS.setAccount(t.FROM, finalUpdatedFrom);
+				this.sendBankUpdate(t.FROM, fromBank, finalUpdatedFrom);
+			}
+		}
+
+		if (t.TO != null) {
+			synchronized (this.ACCOUNTS.getLock(t.TO)) {
+				Account toBank = this.ACCOUNTS.getAccount(t.TO);
+				Account oldbank = toBank;
+				if (market.permitShort() || toBank.monies >= t.COST) {
+					if (split == null) {
+						t.GOOD.setAgentID(t.TO);
+						toBank = toBank.add(-1 * t.COST, t.GOOD);
+					} else {
+						split.setAgentID(t.TO);
+						toBank = toBank.add(-1 * t.COST, split);
+					}
+					this.ACCOUNTS.setAccount(t.TO, toBank);
+					this.sendBankUpdate(t.TO, oldbank, toBank);
+				} else {
+					// TODO: Could not afford
+				}
+			}
+		}
+
+		ledger.add(t.toTransaction());
+	}
+
+	/**
+	 * Moves the good and the money for a trade whose good has already
+	 * been split off from the seller's holdings
+	 * @param market
+	 * @param t
+	 * @param ledger
+	 */
+	public void settle(TwoSidedAuction market, Order t, Ledger ledger) {
+		if (t.FROM != null) {
+			synchronized (this.ACCOUNTS.getLock(t.FROM)) {
+				Account fromBank = this.ACCOUNTS.getAccount(t.FROM);
+				if (market.permitShort() || fromBank.tradeables.contains(t.GOOD)) {
+					Account taken = fromBank.remove(0, t.GOOD);
+					Account finalUpdatedFrom = taken.add(t.COST,
+							new HashSet<Tradeable>());
+					this.ACCOUNTS.setAccount(t.FROM, finalUpdatedFrom);
+					this.sendBankUpdate(t.FROM, fromBank, finalUpdatedFrom);
+				} else {
+					// TODO: Deal with this case
+				}
+			}
+		}
+
+		if (t.TO != null) {
+			synchronized (this.ACCOUNTS.getLock(t.TO)) {
+				Account toBank = this.ACCOUNTS.getAccount(t.TO);
+				Account oldBank = toBank;
+				if (market.permitShort() || toBank.monies >= t.COST) {
+					t.GOOD.setAgentID(t.TO);
+					toBank = toBank.add(-1 * t.COST, t.GOOD);
+					this.ACCOUNTS.setAccount(t.TO, toBank);
+					this.sendBankUpdate(t.TO, oldBank, toBank);
+				} else {
+					// TODO: Could not afford
+				}
+			}
+		}
+
+		ledger.add(t.toTransaction());
+	}
+
+	/**
+	 * Splits shareNum of the market's good off the agent's holdings, in
+	 * the order they are held, shorting whatever is missing if the market
+	 * allows it
+	 * @param market
+	 * @param privateID
+	 * @param shareNum
+	 * @return the pieces to sell
+	 */
+	public List<Tradeable> toSell(TwoSidedAuction market, Integer privateID, double shareNum) {
+		List<Tradeable> pieces = new LinkedList<Tradeable>();
+		Account sellerAccount = this.ACCOUNTS.getAccount(privateID);
+		double qToSell = shareNum;
+		synchronized (sellerAccount.tradeables) {
+			List<Tradeable> justAList = new LinkedList<Tradeable>(
+					sellerAccount.tradeables);
+			if (market.permitShort()) {
+				double toShort = shareNum;
+				for (Tradeable t : justAList) {
+					if (t.getType().equals(market.getTradeableType())) {
+						toShort -= t.getCount();
+					}
+				}
+				if (toShort > 0) {
+					justAList.add(new ShortShare(toShort, market.getTradeableType()));
+				}
+			}
+
+			for (Tradeable tradeable : justAList) {
+				if (qToSell <= 0) {
+					break;
+				}
+
+				if (tradeable.getType().equals(market.getTradeableType())) {
+					Tradeable toSell = tradeable;
+					if (tradeable.getCount() > qToSell) {
+						toSell = tradeable.split(qToSell);
+					}
+					qToSell -= toSell.getCount();
+					pieces.add(toSell);
+				}
+			}
+		}
+		return pieces;
+	}
+
+}
@@ -0,0 +1,361 @@
+package brown.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import brown.assets.accounting.Ledger;
+import brown.assets.accounting.Order;
+import brown.markets.TwoSidedAuction;
+import brown.messages.Message;
+import brown.messages.markets.MarketOrder;
+import brown.messages.markets.TradeRequest;
+import brown.tradeables.Tradeable;
+
+/**
+ * Runs all matching for a shard of two-sided markets on one thread.
+ * Orders arrive through a bounded ring that any thread may write to, and
+ * each one's trades leave through a shared ring to the accounting stage,
+ * so the shard's markets are only ever touched by this thread and need
+ * no locks. Each market the shard owns has its own ledger here.
+ *
+ * Stopping closes the ring to new commands, waits for the threads still
+ * queueing to finish, and then queues a last one, so everything already
+ * queued is matched and sent on before the thread ends. Submitting takes
+ * no lock.
+ */
+public class MatchingEngine implements Runnable {
+	// How long an idle engine parks between polls
+	private static final long IDLE = 50000;
+	// Queued by stop; the thread ends when it gets here
+	private static final Command STOP = new Command(null, false);
+
+	private final Map<Integer, TwoSidedAuction> MARKETS;
+	private final Map<Integer, Ledger> LEDGERS;
+	private final RingBuffer<Command> INBOUND;
+	private final RingBuffer<Result> OUTBOUND;
+	private final Thread THREAD;
+	// Set once by stop; no command is queued after it
+	private final AtomicBoolean CLOSED;
+	// Threads between enter and leave
+	private final AtomicInteger INSIDE;
+
+	/**
+	 * Constructor
+	 * @param name : thread name
+	 * @param capacity : orders that may wait to be matched
+	 * @param outbound : accounting stage's ring
+	 */
+	public MatchingEngine(String name, int capacity, RingBuffer<Result> outbound) {
+		this.MARKETS = new ConcurrentHashMap<Integer, TwoSidedAuction>();
+		this.LEDGERS = new ConcurrentHashMap<Integer, Ledger>();
+		this.INBOUND = new RingBuffer<Command>(capacity);
+		this.OUTBOUND = outbound;
+		this.THREAD = new Thread(this, name);
+		this.THREAD.setDaemon(true);
+		this.CLOSED = new AtomicBoolean(false);
+		this.INSIDE = new AtomicInteger(0);
+	}
+
+	public void start() {
+		this.THREAD.start();
+	}
+
+	/**
+	 * Turns away any more commands, then waits for every command already
+	 * queued to be matched and its result sent on
+	 */
+	public void stop() {
+		if (this.CLOSED.compareAndSet(false, true)) {
+			// A thread that entered before the close may still be queueing
+			while (this.INSIDE.get() != 0) {
+				Thread.yield();
+			}
+			this.queue(STOP);
+		}
+
+		try {
+			this.THREAD.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Gives this shard a market. Once a market has a shard, only that
+	 * shard's thread may match it.
+	 * @param market
+	 */
+	public void open(TwoSidedAuction market) {
+		this.LEDGERS.put(market.getID(), new Ledger(null));
+		this.MARKETS.put(market.getID(), market);
+	}
+
+	public TwoSidedAuction getMarket(Integer marketID) {
+		return this.MARKETS.get(marketID);
+	}
+
+	public Collection<TwoSidedAuction> getMarkets() {
+		return this.MARKETS.values();
+	}
+
+	/**
+	 * Trades made in one of this shard's markets
+	 * @param marketID
+	 * @return ledger, or null if the market is not in this shard
+	 */
+	public Ledger getLedger(Integer marketID) {
+		return this.LEDGERS.get(marketID);
+	}
+
+	/**
+	 * Queues a command, waiting for room if the ring is full
+	 * @param command
+	 * @return false if the engine is stopping and the command was not
+	 * queued
+	 */
+	public boolean submit(Command command) {
+		if (!this.enter()) {
+			return false;
+		}
+		try {
+			this.queue(command);
+			return true;
+		} finally {
+			this.leave();
+		}
+	}
+
+	/**
+	 * Keeps the engine from stopping until leave, so that several
+	 * commands are either all queued or, if it returns false, none are
+	 * @return false if the engine is stopping
+	 */
+	public boolean enter() {
+		// Counted before the check, so stop either sees this thread
+		// inside or this thread sees the engine closed
+		this.INSIDE.incrementAndGet();
+		if (this.CLOSED.get()) {
+			this.INSIDE.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	public void leave() {
+		this.INSIDE.decrementAndGet();
+	}
+
+	/**
+	 * Queues a command for a thread between enter and leave, waiting for
+	 * room if the ring is full
+	 * @param command
+	 */
+	public void queue(Command command) {
+		while (!this.INBOUND.offer(command)) {
+			Thread.yield();
+		}
+		LockSupport.unpark(this.THREAD);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Command command = this.INBOUND.poll();
+			if (command == null) {
+				LockSupport.parkNanos(IDLE);
+				continue;
+			} else if (command == STOP) {
+				return;
+			}
+
+			Result result = this.match(command);
+			while (!this.OUTBOUND.offer(result)) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/*
+	 * Applies one command to the market
+	 */
+	private Result match(Command command) {
+		MarketOrder order = command.ORDER;
+		TwoSidedAuction market = this.MARKETS.get(command.MARKETID);
+		Ledger ledger = this.LEDGERS.get(command.MARKETID);
+		List<Order> none = new LinkedList<Order>();
+		if (market == null) {
+			return new Result(null, null, command, none, null, -1, true);
+		} else if (command.PUBLISH) {
+			// The book can only be read safely from here
+			Message update = market.getBookUpdate();
+			if (update == null) {
+				update = new TradeRequest(0, market.wrap(ledger.getSanitized(null)),
+						market.getMechanismType());
+			}
+			return new Result(market, ledger, command, update);
+		} else if (order == null) {
+			List<Order> trans = market.tick(System.currentTimeMillis());
+			return new Result(market, ledger, command, trans, null, -1, false);
+		} else if (order.orderID != -1) {
+			boolean handled = order.cancel
+					? market.cancel(command.AGENTID, order.orderID)
+					: market.amend(command.AGENTID, order.orderID, order.buyShares,
+							market.permitShort() ? Double.POSITIVE_INFINITY : command.BUDGET);
+			return new Result(market, ledger, command, none, null, -1, !handled);
+		} else if (order.cancel) {
+			double shares = order.buyShares != 0 ? order.buyShares : order.sellShares;
+			market.cancel(command.AGENTID, order.sellShares == 0, shares, order.price);
+			return new Result(market, ledger, command, none, null, -1, false);
+		} else if (command.GOOD == null) {
+			market = ClearingHouse.route(market, order);
+			double shares = ClearingHouse.shares(market, order, command.BUDGET);
+			if (!(shares > 0)) {
+				return new Result(market, ledger, command, none, null, -1, true);
+			}
+			List<Order> trans = market.buy(command.AGENTID, shares,
+					order.price, order.type);
+			// Resting goods are only ever split here, where the book reads them
+			List<Tradeable> splits = new ArrayList<Tradeable>(trans.size());
+			for (Order t : trans) {
+				splits.add(t.GOOD.getCount() > t.QUANTITY ? t.GOOD.split(t.QUANTITY) : null);
+			}
+			return new Result(market, ledger, command, trans, splits, market.lastOrderID(), false);
+		} else {
+			market = ClearingHouse.route(market, order);
+			List<Order> trans = market.sell(command.AGENTID, command.GOOD,
+					order.price, order.type);
+			return new Result(market, ledger, command, trans, null, market.lastOrderID(), false);
+		}
+	}
+
+	/**
+	 * Work for a matching engine. A command without an order ticks or
+	 * publishes the market; one with a good sells it; otherwise the order
+	 * is a buy, cancel or amend.
+	 */
+	public static class Command {
+		public final int CONNECTION;
+		public final Integer MARKETID;
+		public final boolean PUBLISH;
+		public final Integer AGENTID;
+		public final MarketOrder ORDER;
+		public final Tradeable GOOD;
+		public final double BUDGET;
+		public final double HELD;
+
+		/**
+		 * Constructor
+		 * @param connection : connection to answer on, -1 for none
+		 * @param marketID : market to apply this to
+		 * @param agentID : private ID
+		 * @param order : the order, or null for a tick
+		 * @param good : the part of the agent's holdings to sell
+		 * @param budget : agent's monies when the order arrived, for buys
+		 * and amends
+		 */
+		public Command(int connection, Integer marketID, Integer agentID,
+				MarketOrder order, Tradeable good, double budget) {
+			this(connection, marketID, agentID, order, good, budget, 0);
+		}
+
+		/**
+		 * Constructor for a buy with monies set aside
+		 * @param connection : connection to answer on, -1 for none
+		 * @param marketID : market to apply this to
+		 * @param agentID : private ID
+		 * @param order : the order
+		 * @param good : null
+		 * @param budget : what the order may spend
+		 * @param held : monies held for it until it is settled
+		 */
+		public Command(int connection, Integer marketID, Integer agentID,
+				MarketOrder order, Tradeable good, double budget, double held) {
+			this.CONNECTION = connection;
+			this.MARKETID = marketID;
+			this.PUBLISH = false;
+			this.AGENTID = agentID;
+			this.ORDER = order;
+			this.GOOD = good;
+			this.BUDGET = budget;
+			this.HELD = held;
+		}
+
+		/**
+		 * Constructor for a command without an order
+		 * @param marketID : market to apply this to
+		 * @param publish : build a market update rather than tick
+		 */
+		public Command(Integer marketID, boolean publish) {
+			this.CONNECTION = -1;
+			this.MARKETID = marketID;
+			this.PUBLISH = publish;
+			this.AGENTID = null;
+			this.ORDER = null;
+			this.GOOD = null;
+			this.BUDGET = 0;
+			this.HELD = 0;
+		}
+	}
+
+	/**
+	 * What a command did, for the accounting stage to settle
+	 */
+	public static class Result {
+		public final TwoSidedAuction MARKET;
+		public final Ledger LEDGER;
+		public final Command COMMAND;
+		public final List<Order> TRADES;
+		public final List<Tradeable> SPLITS;
+		public final long ORDERID;
+		public final boolean REJECTED;
+		public final Message UPDATE;
+
+		/**
+		 * Constructor
+		 * @param market
+		 * @param ledger : the shard's ledger for the market
+		 * @param command
+		 * @param trades
+		 * @param splits : for buys, the part of each trade's good that was
+		 * split off for the buyer, or null where the whole good was bought
+		 * @param orderID : ID of any remainder left resting
+		 * @param rejected
+		 */
+		public Result(TwoSidedAuction market, Ledger ledger, Command command,
+				List<Order> trades, List<Tradeable> splits, long orderID, boolean rejected) {
+			this.MARKET = market;
+			this.LEDGER = ledger;
+			this.COMMAND = command;
+			this.TRADES = trades;
+			this.SPLITS = splits;
+			this.ORDERID = orderID;
+			this.REJECTED = rejected;
+			this.UPDATE = null;
+		}
+
+		/**
+		 * Constructor for a published update
+		 * @param market
+		 * @param ledger : the shard's ledger for the market
+		 * @param command
+		 * @param update : BookUpdate or TradeRequest for every agent
+		 */
+		public Result(TwoSidedAuction market, Ledger ledger, Command command, Message update) {
+			this.MARKET = market;
+			this.LEDGER = ledger;
+			this.COMMAND = command;
+			this.TRADES = new LinkedList<Order>();
+			this.SPLITS = null;
+			this.ORDERID = -1;
+			this.REJECTED = false;
+			this.UPDATE = update;
+		}
+	}
+}
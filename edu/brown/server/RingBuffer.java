@@ -0,0 +1,90 @@
+package brown.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue for any number of producers and a single
+ * consumer. Producers claim a slot by CAS on the tail and publish it
+ * through the slot's sequence number; the consumer reads slots in order
+ * and hands each one back a lap later.
+ */
+public class RingBuffer<E> {
+	private final Object[] SLOTS;
+	private final AtomicLongArray SEQUENCES;
+	private final AtomicLong TAIL;
+	private final int MASK;
+
+	// Only the consumer touches this
+	private long head;
+
+	/**
+	 * Constructor
+	 * @param capacity : rounded up to a power of two
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30) {
+			throw new IllegalArgumentException();
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.SLOTS = new Object[size];
+		this.SEQUENCES = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			this.SEQUENCES.set(i, i);
+		}
+		this.TAIL = new AtomicLong(0);
+		this.MASK = size - 1;
+		this.head = 0;
+	}
+
+	/**
+	 * Adds an element; safe from any thread
+	 * @param element
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(E element) {
+		long pos;
+		int slot;
+		while (true) {
+			pos = this.TAIL.get();
+			slot = (int) pos & this.MASK;
+			long lag = this.SEQUENCES.get(slot) - pos;
+			if (lag == 0) {
+				if (this.TAIL.compareAndSet(pos, pos + 1)) {
+					break;
+				}
+			} else if (lag < 0) {
+				return false;
+			}
+		}
+
+		this.SLOTS[slot] = element;
+		this.SEQUENCES.set(slot, pos + 1);
+		return true;
+	}
+
+	/**
+	 * Takes the oldest element; only the consumer thread may call this
+	 * @return element, or null if the buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		int slot = (int) this.head & this.MASK;
+		if (this.SEQUENCES.get(slot) != this.head + 1) {
+			return null;
+		}
+
+		E element = (E) this.SLOTS[slot];
+		this.SLOTS[slot] = null;
+		this.SEQUENCES.set(slot, this.head + this.SLOTS.length);
+		this.head++;
+		return element;
+	}
+
+	public int capacity() {
+		return this.SLOTS.length;
+	}
+}
@@ -8,16 +8,21 @@ import brown.assets.accounting.Ledger;
 import brown.assets.accounting.Order;
 import brown.assets.value.FullType;
 import brown.auctions.arules.MechanismType;
+import brown.messages.markets.BookUpdate;
+import brown.messages.markets.OrderType;
 import brown.markets.ContinuousDoubleAuction;
 import brown.markets.ITwoSidedAuction;
 import brown.markets.TwoSidedAuction;
 import brown.rules.clearingrules.ClearingRule;
+import brown.rules.clearingrules.DepthFeed;
 import brown.tradeables.Tradeable;
 
 public class CDAServer implements TwoSidedAuction {
 	private final Integer ID;
 	private final FullType TYPE;
 	private final ClearingRule RULE;
+	private static final int SNAPSHOTEVERY = 50;
+	private int updates = 0;
 	
 	/**
 	 * For kryonet
@@ -61,6 +66,16 @@ public class CDAServer implements TwoSidedAuction {
 		return this.RULE.sell(agentID, opp, sharePrice);
 	}
 
+	@Override
+	public List<Order> buy(Integer agentID, double shareNum, double sharePrice, OrderType type) {
+		return this.RULE.buy(agentID, shareNum, sharePrice, type);
+	}
+
+	@Override
+	public List<Order> sell(Integer agentID, Tradeable opp, double sharePrice, OrderType type) {
+		return this.RULE.sell(agentID, opp, sharePrice, type);
+	}
+
 	@Override
 	public double quoteBid(double shareNum, double sharePrice) {
 		return this.RULE.quoteBid(shareNum, sharePrice);
@@ -91,14 +106,28 @@ public class CDAServer implements TwoSidedAuction {
 		return this.RULE.getSellBook();
 	}
 
+	/**
+	 * Level changes since the last update, with a full snapshot every
+	 * SNAPSHOTEVERY updates so that replicas can resynchronize
+	 * @return update, or null if the rule cannot publish deltas
+	 */
+	@Override
+	public BookUpdate getBookUpdate() {
+		if (!(this.RULE instanceof DepthFeed)) {
+			return null;
+		}
+		boolean snapshot = this.updates++ % SNAPSHOTEVERY == 0;
+		return ((DepthFeed) this.RULE).publish(this.ID, this.TYPE, snapshot);
+	}
+
 	@Override
 	public ITwoSidedAuction wrap(Ledger ledger) {
 		return new ContinuousDoubleAuction(this, ledger);
 	}
 
 	@Override
-	public void tick(double time) {
-		// Noop
+	public List<Order> tick(double time) {
+		return this.RULE.tick(time);
 	}
 
 	@Override
@@ -111,4 +140,20 @@ public class CDAServer implements TwoSidedAuction {
 			double sharePrice) {
 		this.RULE.cancel(agentID, buy, shareNum, sharePrice);		
 	}
+
+	@Override
+	public long lastOrderID() {
+		return this.RULE.lastOrderID();
+	}
+
+	@Override
+	public boolean cancel(Integer agentID, long orderID) {
+		return this.RULE.cancel(agentID, orderID);
+	}
+
+	@Override
+	public boolean amend(Integer agentID, long orderID, double shareNum,
+			double budget) {
+		return this.RULE.amend(agentID, orderID, shareNum, budget);
+	}
 }
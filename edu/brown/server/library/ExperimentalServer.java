@@ -10,7 +10,6 @@ import brown.markets.IMarketServer;
 import brown.messages.markets.MarketOrder;
 import brown.messages.markets.TradeRequest;
 import brown.server.AgentServer;
-import brown.setup.Logging;
 import brown.setup.library.ExperimentalSetup;
 
 public class ExperimentalServer extends AgentServer {
@@ -54,13 +53,10 @@ public class ExperimentalServer extends AgentServer {
 			super.onLimitOrder(connection, privateID, limitorder);
 		}
 		
-		this.sendMarketUpdateNL(this.manager.getTwoSided(1));
-		try {
-			Thread.sleep(250);
-		} catch (InterruptedException e) {
-			Logging.log("[+] woken: " + e.getMessage());
+		IMarketServer market = this.manager.getTwoSided(limitorder.marketID);
+		if (market != null) {
+			this.sendMarketUpdateNL(market);
 		}
-		this.sendMarketUpdateNL(this.manager.getTwoSided(0));
 	}
 
 }
@@ -0,0 +1,211 @@
+package brown.server.library;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+
+import brown.agent.Agent;
+import brown.agent.LocalServer;
+import brown.assets.accounting.Account;
+import brown.assets.accounting.AccountManager;
+import brown.assets.accounting.Ledger;
+import brown.assets.accounting.MarketManager;
+import brown.markets.IMarket;
+import brown.markets.TwoSidedAuction;
+import brown.messages.Ack;
+import brown.messages.BankUpdate;
+import brown.messages.Message;
+import brown.messages.markets.MarketOrder;
+import brown.messages.markets.TradeRequest;
+import brown.server.ClearingHouse;
+
+/**
+ * ExperimentalServer run in the same JVM as its agents. Messages both
+ * ways wait on one queue and are handed over in order, each at a tick of
+ * a virtual clock; whatever is sent while one is handled goes out a tick
+ * later. run() hands messages over until none are left, which is when
+ * the agents have gone quiet, so a run takes as long as the agents take
+ * to think and no longer.
+ *
+ * Orders are traded and settled by the same ClearingHouse code that
+ * AgentServer runs on its network thread.
+ * Market updates carry a copy of the market taken when they are sent,
+ * as they would arrive over the network.
+ */
+public class LocalExperimentalServer implements LocalServer {
+	private final MarketManager manager;
+	private final Map<Integer, Agent> agents;
+	private final Map<Agent, Integer> ids;
+	private final AccountManager accounts;
+	private final ClearingHouse house;
+	private final ArrayDeque<Delivery> queue;
+	private final Kryo kryo;
+	private long clock;
+
+	public LocalExperimentalServer() {
+		this.manager = new MarketManager();
+		this.agents = new LinkedHashMap<Integer, Agent>();
+		this.ids = new IdentityHashMap<Agent, Integer>();
+		this.accounts = new AccountManager();
+		this.house = new ClearingHouse(this.accounts) {
+			protected void sendBankUpdate(Integer ID, Account oldA, Account newA) {
+				LocalExperimentalServer.this.sendBankUpdate(ID, oldA, newA);
+			}
+
+			protected void sendOrderID(int connectionID, Integer privateID,
+					MarketOrder limitorder, long orderID) {
+				deliver(agents.get(privateID), new Ack(privateID, limitorder, orderID));
+			}
+
+			protected void reject(int connectionID, Integer privateID, MarketOrder limitorder) {
+				deliver(agents.get(privateID), new Ack(privateID, limitorder, true));
+			}
+		};
+		this.queue = new ArrayDeque<Delivery>();
+		this.kryo = new Kryo();
+		this.clock = 0;
+	}
+
+	public MarketManager getManager() {
+		return this.manager;
+	}
+
+	@Override
+	public Integer register(Agent agent) {
+		Integer ID = this.agents.size();
+		this.agents.put(ID, agent);
+		this.ids.put(agent, ID);
+		this.accounts.setAccount(ID, new Account(ID));
+		return ID;
+	}
+
+	@Override
+	public void receive(Agent agent, Message message) {
+		this.queue.add(new Delivery(this.clock + 1, agent, message, true));
+	}
+
+	/**
+	 * @param ID : private ID
+	 * @return the agent's account
+	 */
+	public Account getAccount(Integer ID) {
+		return this.accounts.getAccount(ID);
+	}
+
+	public void setBanks(double amount) {
+		for (Integer ID : this.agents.keySet()) {
+			Account a = new Account(ID).add(amount);
+			this.accounts.setAccount(ID, a);
+			this.sendBankUpdate(ID, new Account(ID), a);
+		}
+	}
+
+	/*
+	 * Sends a MarketUpdate about this specific market to all agents
+	 * without the ledger
+	 * @param market : the market to update on
+	 */
+	public void sendMarketUpdateNL(TwoSidedAuction market) {
+		IMarket copy = this.kryo.copy(market.wrap(null));
+		for (Agent agent : this.agents.values()) {
+			this.deliver(agent, new TradeRequest(0, copy, market.getMechanismType()));
+		}
+	}
+
+	/**
+	 * Hands messages over in order until none are left
+	 * @return the virtual time the last one was handed over at
+	 */
+	public long run() {
+		return this.run(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Hands messages over in order until none are left or a number of
+	 * them have been handed over
+	 * @param maxMessages
+	 * @return the virtual time the last one was handed over at
+	 */
+	public long run(long maxMessages) {
+		for (long i = 0; i < maxMessages && !this.queue.isEmpty(); i++) {
+			Delivery next = this.queue.poll();
+			this.clock = next.TIME;
+			if (!next.INBOUND) {
+				next.MESSAGE.dispatch(next.AGENT);
+			} else if (next.MESSAGE instanceof MarketOrder) {
+				this.onLimitOrder(this.ids.get(next.AGENT), (MarketOrder) next.MESSAGE);
+			}
+		}
+		return this.clock;
+	}
+
+	/**
+	 * @return whether messages are still waiting
+	 */
+	public boolean isQuiet() {
+		return this.queue.isEmpty();
+	}
+
+	public long getClock() {
+		return this.clock;
+	}
+
+	/*
+	 * As ExperimentalServer: trades the order, then tells every agent
+	 * about its market
+	 */
+	private void onLimitOrder(Integer privateID, MarketOrder limitorder) {
+		if (limitorder.buyShares != 0 || limitorder.sellShares != 0) {
+			this.trade(privateID, limitorder);
+		}
+
+		TwoSidedAuction market = this.manager.getTwoSided(limitorder.marketID);
+		if (market != null) {
+			this.sendMarketUpdateNL(market);
+		}
+	}
+
+	/*
+	 * AgentServer's limit order handling for a market that is not sharded
+	 */
+	private void trade(Integer privateID, MarketOrder limitorder) {
+		TwoSidedAuction market = limitorder.marketID == null ? null
+				: this.manager.getTwoSided(limitorder.marketID);
+		if (market == null) {
+			this.deliver(this.agents.get(privateID), new Ack(privateID, limitorder, true));
+			return;
+		}
+		this.house.trade(-1, privateID, market, limitorder, new Ledger(null));
+	}
+
+	private void sendBankUpdate(Integer ID, Account oldA, Account newA) {
+		this.deliver(this.agents.get(ID),
+				new BankUpdate(ID, oldA.toAgent(), newA.toAgent()));
+	}
+
+	private void deliver(Agent agent, Message message) {
+		this.queue.add(new Delivery(this.clock + 1, agent, message, false));
+	}
+
+	/*
+	 * A message waiting to be handed over
+	 */
+	private static class Delivery {
+		public final long TIME;
+		public final Agent AGENT;
+		public final Message MESSAGE;
+		// True for a message from the agent to the server
+		public final boolean INBOUND;
+
+		public Delivery(long time, Agent agent, Message message, boolean inbound) {
+			this.TIME = time;
+			this.AGENT = agent;
+			this.MESSAGE = message;
+			this.INBOUND = inbound;
+		}
+	}
+
+}
@@ -24,6 +24,8 @@ import brown.bundles.BidBundle;
 import brown.bundles.BundleType;
 import brown.bundles.MarketState;
 import brown.bundles.SimpleBidBundle;
+import brown.markets.BinaryLMSR;
+import brown.markets.BinaryLMSRServer;
 import brown.markets.CDAServer;
 import brown.markets.ContinuousDoubleAuction;
 import brown.markets.ITwoSidedAuction;
@@ -32,6 +34,8 @@ import brown.markets.LMSRBackend;
 import brown.markets.LMSRServer;
 import brown.markets.LiquiditySensitive;
 import brown.markets.LukeMM;
+import brown.markets.MultiLMSRBackend;
+import brown.markets.MultiLMSRServer;
 import brown.markets.SimpleAuction;
 import brown.markets.TwoSidedAuction;
 import brown.messages.Ack;
@@ -40,8 +44,10 @@ import brown.messages.Message;
 import brown.messages.Registration;
 import brown.messages.auctions.Bid;
 import brown.messages.auctions.BidRequest;
+import brown.messages.markets.BookUpdate;
 import brown.messages.markets.GameReport;
 import brown.messages.markets.MarketOrder;
+import brown.messages.markets.OrderType;
 import brown.messages.markets.TradeRequest;
 import brown.messages.trades.NegotiateRequest;
 import brown.messages.trades.Trade;
@@ -50,9 +56,13 @@ import brown.rules.paymentrules.library.FirstPriceRule;
 import brown.rules.paymentrules.library.SecondPriceRule;
 import brown.rules.clearingrules.ClearingRule;
 import brown.rules.clearingrules.ClosestMatchClearing;
+import brown.rules.clearingrules.LMSRBatch;
+import brown.rules.clearingrules.LMSRBatchClearing;
 import brown.rules.clearingrules.LMSRNoClearing;
 import brown.rules.clearingrules.LMSRYesClearing;
 import brown.rules.clearingrules.LowestPriceClearing;
+import brown.rules.clearingrules.PriceLadderClearing;
+import brown.rules.clearingrules.UniformPriceClearing;
 import brown.tradeables.Tradeable;
 import brown.valuation.Valuation;
 import brown.valuation.ValuationBundle;
@@ -72,6 +82,7 @@ public final class Startup {
 		kryo.register(TreeMap.class);
 		kryo.register(java.util.Collections.reverseOrder().getClass());
 		kryo.register(int[].class);
+		kryo.register(double[].class);
 		
 		kryo.register(Agent.class);
 		kryo.register(Message.class);
@@ -88,6 +99,7 @@ public final class Startup {
 		kryo.register(TradeRequest.class);
 		kryo.register(Ack.class);
 		kryo.register(LMSRBackend.class);
+		kryo.register(LMSRBackend.State.class);
 		kryo.register(Timestamp.class);
 		kryo.register(Date.class);
 		kryo.register(BidBundle.class);
@@ -95,6 +107,8 @@ public final class Startup {
 		kryo.register(SimpleBidBundle.class);
 		kryo.register(BundleType.class);
 		kryo.register(MarketOrder.class);
+		kryo.register(OrderType.class);
+		kryo.register(BookUpdate.class);
 		kryo.register(TwoSidedAuction.class);
 		kryo.register(ITwoSidedAuction.class);
 		kryo.register(MechanismType.class);
@@ -102,14 +116,22 @@ public final class Startup {
 		kryo.register(LMSR.class);
 		kryo.register(ContinuousDoubleAuction.class);
 		kryo.register(LMSRServer.class);
+		kryo.register(MultiLMSRBackend.class);
+		kryo.register(MultiLMSRServer.Outcome.class);
+		kryo.register(BinaryLMSRServer.class);
+		kryo.register(BinaryLMSR.class);
 		kryo.register(ClearingRule.class);
 		kryo.register(LMSRYesClearing.class);
 		kryo.register(LMSRNoClearing.class);
+		kryo.register(LMSRBatch.class);
+		kryo.register(LMSRBatchClearing.class);
 		kryo.register(TradeableType.class);
 		kryo.register(FullType.class);
 		kryo.register(CDAServer.class);
 		kryo.register(ClosestMatchClearing.class);
 		kryo.register(LowestPriceClearing.class);
+		kryo.register(PriceLadderClearing.class);
+		kryo.register(UniformPriceClearing.class);
 		kryo.register(Order.class);
 		kryo.register(Ledger.class);
 		kryo.register(HashMap.class);
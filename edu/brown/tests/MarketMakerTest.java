@@ -0,0 +1,442 @@
+package brown.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import brown.assets.accounting.Order;
+import brown.assets.value.TradeableType;
+import brown.markets.BinaryLMSR;
+import brown.markets.BinaryLMSRServer;
+import brown.markets.LMSR;
+import brown.markets.LMSRBackend;
+import brown.markets.LMSRServer;
+import brown.markets.LiquiditySensitive;
+import brown.markets.MultiLMSRBackend;
+import brown.markets.MultiLMSRServer;
+import brown.markets.NoRegret;
+import brown.markets.NoRegretWeights;
+import brown.markets.OnlineWeighedAverage;
+import brown.markets.RootFinder;
+import brown.markets.TwoSidedAuction;
+import brown.markets.WeightedMajority;
+import brown.messages.markets.MarketOrder;
+import brown.rules.clearingrules.LMSRBatch;
+import brown.rules.clearingrules.LMSRNoClearing;
+import brown.rules.clearingrules.LMSRYesClearing;
+import brown.server.ClearingHouse;
+import brown.securities.prediction.simulator.LiquidityCalibrator;
+import brown.securities.prediction.simulator.Utilities;
+import brown.tradeables.Tradeable;
+
+public class MarketMakerTest {
+
+	@Test
+	public void testBrent() {
+		assertEquals(Math.sqrt(2), RootFinder.brent(x -> x * x - 2, 0, 2, 1e-12), 1e-12);
+		assertEquals(Math.PI, RootFinder.brent(Math::sin, 3, 4, 1e-12), 1e-12);
+		assertEquals(0, RootFinder.brent(x -> x, 0, 1, 1e-12), 0);
+	}
+
+	@Test
+	public void testSharesToPrice() {
+		// The numeric inverse agrees with LMSR's closed form
+		LMSRBackend lmsr = new LMSRBackend(0, 10, 3, 1);
+		assertEquals(lmsr.howMany(.8, true), lmsr.sharesToPrice(.8, true), 1e-7);
+		assertEquals(lmsr.howMany(.3, false), lmsr.sharesToPrice(.3, false), 1e-7);
+		assertEquals(0, lmsr.sharesToPrice(.3, true), 0);
+		assertEquals(1, lmsr.price(3 + lmsr.sharesToPrice(1, true), 1, true), 0);
+
+		LiquiditySensitive ls = new LiquiditySensitive(.1);
+		double shares = ls.howMany(.7, true);
+		ls.yes(null, shares);
+		assertEquals(.7, ls.price(true), 1e-9);
+		shares = ls.howMany(.6, false);
+		ls.no(null, shares);
+		assertEquals(.6, ls.price(true), 1e-9);
+
+		// A looser tolerance stops sooner, within it of the exact answer
+		LiquiditySensitive loose = new LiquiditySensitive(.1);
+		loose.setTolerance(1e-3);
+		assertEquals(new LiquiditySensitive(.1).howMany(.8, true), loose.howMany(.8, true), 1e-3);
+	}
+
+	@Test
+	public void testSmallB() {
+		// With b far below the quantities the market acts like a max
+		LMSRBackend lmsr = new LMSRBackend(0, .001);
+		lmsr.yes(null, 5);
+		lmsr.no(null, 2);
+		assertEquals(1, lmsr.price(true), 0);
+		assertEquals(1, lmsr.cost(1, 0), 1e-9);
+		assertEquals(1, lmsr.cost(0, 4), 1e-9);
+		assertEquals(4, lmsr.budgetToShares(1, false), 1e-9);
+
+		LiquiditySensitive ls = new LiquiditySensitive(.0001);
+		ls.yes(null, 30);
+		assertEquals(1, ls.price(true), 1e-9);
+		assertEquals(1, ls.cost(1, 0), 1e-9);
+	}
+
+	@Test
+	public void testCalibration() {
+		Double[] values = new Double[] {.8, .7, .6};
+		Double[] budgets = new Double[] {1.0, 1.0, 1.0};
+		LiquidityCalibrator calibrator = new LiquidityCalibrator();
+		double b = calibrator.calibrate(values, budgets, .55, 0, 0);
+		assertEquals(b, calibrator.getLast(), 0);
+
+		assertEquals(.55, replay(values, budgets, b), LiquidityCalibrator.TOLERANCE);
+
+		// Traders who end at .6 or below can never leave it at .7
+		assertEquals(-1, calibrator.calibrate(values, budgets, .7, 0, 0), 0);
+		assertEquals(b, Utilities.findBWeighted(values, budgets, .55, 0, 0), 1e-6);
+	}
+
+	@Test
+	public void testCalibrationRoots() {
+		// The budget holds the first trader back at small b, so the price
+		// rises past .6 and falls back toward .5 as b grows
+		Double[] values = new Double[] {.9, .3};
+		Double[] budgets = new Double[] {2.0, .5};
+		double low = new LiquidityCalibrator(1).calibrate(values, budgets, .6, 0, 0);
+		double high = new LiquidityCalibrator(10).calibrate(values, budgets, .6, 0, 0);
+		assertTrue(low < 2 && high > 4);
+		assertEquals(.6, replay(values, budgets, low), LiquidityCalibrator.TOLERANCE);
+		assertEquals(.6, replay(values, budgets, high), LiquidityCalibrator.TOLERANCE);
+
+		// A fresh search starts at 1, so it finds the smaller root
+		assertEquals(low, Utilities.findBWeighted(values, budgets, .6, 0, 0), 1e-6);
+	}
+
+	/*
+	 * Yes price after each trader buys toward their value within budget
+	 */
+	private static double replay(Double[] values, Double[] budgets, double b) {
+		LMSRBackend replay = new LMSRBackend(0, b);
+		for (int i = 0; i < values.length; i++) {
+			boolean dir = values[i] > replay.price(true);
+			double shares = Math.min(replay.howMany(values[i], dir),
+					replay.budgetToShares(budgets[i], dir));
+			if (dir) {
+				replay.yes(i, shares);
+			} else {
+				replay.no(i, shares);
+			}
+		}
+		return replay.price(true);
+	}
+
+	@Test
+	public void testMultiOutcome() {
+		// Two outcomes price and cost exactly as yes and no
+		MultiLMSRBackend two = new MultiLMSRBackend(0, new double[] {3, 1}, 10);
+		LMSRBackend lmsr = new LMSRBackend(0, 10, 3, 1);
+		assertEquals(lmsr.price(true), two.price(0), 1e-12);
+		assertEquals(lmsr.bid(4), two.cost(0, 4), 1e-9);
+		assertEquals(lmsr.ask(-2), two.cost(1, -2), 1e-9);
+		assertEquals(lmsr.howMany(.8, true), two.sharesToPrice(0, .8), 1e-9);
+		assertEquals(lmsr.budgetToShares(2, false), two.budgetToShares(1, 2), 1e-9);
+
+		MultiLMSRBackend backend = new MultiLMSRBackend(0, 4, 5);
+		double[] prices = backend.prices(null);
+		assertArrayEquals(new double[] {.25, .25, .25, .25}, prices, 1e-12);
+		double cost = backend.cost(2, 7);
+		assertEquals(cost, backend.buy(null, 2, 7), 0);
+		assertEquals(cost, backend.getProfit(), 0);
+		backend.prices(prices);
+		assertEquals(1, prices[0] + prices[1] + prices[2] + prices[3], 1e-12);
+		assertEquals(Math.exp(7. / 5) / (3 + Math.exp(7. / 5)), prices[2], 1e-12);
+
+		// A bundle costs what its legs cost one after another
+		double[] bundle = new double[] {1, -2, 0, 3};
+		double legs = 0;
+		MultiLMSRBackend copy = new MultiLMSRBackend(0, backend.getQuantities(), 5);
+		for (int i = 0; i < bundle.length; i++) {
+			legs += copy.buy(null, i, bundle[i]);
+		}
+		assertEquals(legs, backend.cost(bundle), 1e-9);
+		assertEquals(legs, backend.buy(null, bundle), 1e-9);
+		assertArrayEquals(copy.prices(null), backend.prices(null), 1e-12);
+
+		// Far past where exp overflows, prices come from the shifted terms
+		backend.buy(null, 1, 10000);
+		assertEquals(1, backend.price(1), 1e-12);
+		assertEquals(10000 - 2 - 1, backend.sharesToPrice(0, .5), 1e-6);
+		backend.buy(null, 1, -10000);
+		assertEquals(copy.price(3), backend.price(3), 1e-9);
+
+		double shares = backend.sharesToPrice(3, .6);
+		backend.buy(null, 3, shares);
+		assertEquals(.6, backend.price(3), 1e-9);
+		shares = backend.budgetToShares(0, 1.5);
+		assertEquals(1.5, backend.cost(0, shares), 1e-9);
+	}
+
+	@Test
+	public void testMultiOutcomeServer() {
+		MultiLMSRServer server = new MultiLMSRServer(10, new MultiLMSRBackend(0, 3, 2), true);
+		assertEquals(3, server.getOutcomes().size());
+		MultiLMSRServer.Outcome second = server.getOutcome(1);
+		assertEquals(11, second.getID().intValue());
+		assertEquals(1, second.getOutcome());
+
+		double quote = second.quoteBid(2, -1);
+		assertEquals(quote, second.buy(0, 2, -1).get(0).COST, 0);
+		assertEquals(server.prices()[1], second.price(), 0);
+		// Every outcome trades against the one backend
+		assertEquals(server.getOutcome(0).price(), server.getOutcome(2).price(), 0);
+		assertEquals(1 - second.price(), 2 * server.getOutcome(2).price(), 1e-12);
+		assertEquals(quote, -1 * second.quoteAsk(2, -1), 1e-9);
+	}
+
+	@Test
+	public void testConcurrentTrades() throws InterruptedException {
+		// Yes and no markets share one backend but not one lock
+		LMSRBackend backend = new LMSRBackend(0, 20);
+		LMSRYesClearing yes = new LMSRYesClearing(backend, true);
+		LMSRNoClearing no = new LMSRNoClearing(backend, true);
+		DoubleAdder charged = new DoubleAdder();
+		int trades = 20000;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			boolean dir = t % 2 == 0;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < trades; i++) {
+					charged.add((dir ? yes.buy(0, 1, -1) : no.buy(0, 1, -1)).get(0).COST);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		LMSRBackend.State state = backend.snapshot();
+		assertEquals(2 * trades, state.YES, 0);
+		assertEquals(2 * trades, state.NO, 0);
+		assertEquals(4 * trades, state.TRADES);
+		// Every trade was priced in the state it replaced, so the costs
+		// charged add up to the change in the cost function
+		double total = new LMSRBackend(0, 20).cost(2 * trades, 2 * trades);
+		assertEquals(total, charged.sum(), 1e-6);
+		assertEquals(charged.sum(), backend.getProfit(), 1e-6);
+		assertEquals(.5, backend.price(true), 1e-12);
+	}
+
+	@Test
+	public void testBatch() {
+		LMSRBackend backend = new LMSRBackend(0, 10);
+		LMSRBatch batch = new LMSRBatch(backend, 0);
+		LMSRServer yes = new LMSRServer(0, true, batch, true);
+		LMSRServer no = new LMSRServer(1, false, batch, true);
+		assertTrue(yes.buy(1, 5, -1).isEmpty());
+		assertTrue(no.buy(2, 1, -1).isEmpty());
+		assertTrue(yes.sell(3, new Tradeable(null, 2, (Integer) null), -1).isEmpty());
+		assertEquals(3, batch.pending());
+		assertEquals(.5, backend.price(true), 0);
+
+		// The first side to tick fills the whole net move of 3 yes, 1 no
+		List<Order> yesFills = yes.tick(0);
+		assertEquals(0, batch.pending());
+		double cost = new LMSRBackend(0, 10).cost(3, 1);
+		assertEquals(cost, backend.getProfit(), 1e-12);
+		assertEquals(new LMSRBackend(0, 10, 3, 1).price(true), backend.price(true), 1e-12);
+		assertEquals(2, yesFills.size());
+		List<Order> noFills = no.tick(0);
+		assertEquals(1, noFills.size());
+		assertTrue(no.tick(1).isEmpty());
+
+		// One price per side, complementary, charging the batch cost in all
+		double p = yesFills.get(0).COST / 5;
+		assertEquals(1, (int) yesFills.get(0).TO);
+		assertEquals(3, (int) yesFills.get(1).FROM);
+		assertEquals(-2 * p, yesFills.get(1).COST, 1e-12);
+		assertEquals(1 - p, noFills.get(0).COST, 1e-12);
+		assertEquals(cost, yesFills.get(0).COST + yesFills.get(1).COST + noFills.get(0).COST, 1e-12);
+
+		// Arrival order within a batch changes nothing
+		LMSRBatch reversed = new LMSRBatch(new LMSRBackend(0, 10), 0);
+		reversed.add(true, 3, -2, new Tradeable(null, 2, 3));
+		reversed.add(false, 2, 1, null);
+		reversed.add(true, 1, 5, null);
+		assertEquals(-2 * p, reversed.tick(true, 0).get(0).COST, 1e-12);
+
+		// Buying a yes and a no together costs one
+		yes.buy(1, 4, -1);
+		no.buy(2, 4, -1);
+		assertEquals(4, no.tick(2).get(0).COST + yes.tick(2).get(0).COST, 1e-12);
+	}
+
+	@Test
+	public void testBatchFunds() {
+		// Agent 1 could pay for either buy alone at the quote, but not
+		// both at the batch's price
+		LMSRBackend backend = new LMSRBackend(0, 10);
+		LMSRBatch batch = new LMSRBatch(backend, 0, agentID -> agentID == 1 ? 2.6 : 100);
+		batch.add(true, 1, 2, null);
+		batch.add(true, 1, 3, null);
+		batch.add(true, 2, 5, null);
+		assertTrue(backend.bid(3) - backend.bid(0) < 2.6);
+
+		// Its later buy is dropped before the market maker moves
+		List<Order> fills = batch.tick(true, 0);
+		assertEquals(2, fills.size());
+		assertEquals(1, (int) fills.get(0).TO);
+		assertEquals(2, fills.get(0).QUANTITY, 0);
+		assertTrue(fills.get(0).COST <= 2.6);
+		assertEquals(2, (int) fills.get(1).TO);
+		assertEquals(new LMSRBackend(0, 10).cost(7, 0) - new LMSRBackend(0, 10).cost(0, 0),
+				backend.getProfit(), 1e-12);
+		assertEquals(backend.getProfit(), fills.get(0).COST + fills.get(1).COST, 1e-12);
+	}
+
+	@Test
+	public void testReplica() {
+		LMSRBackend backend = new LMSRBackend(0, 10, 4, 1);
+		LMSRServer server = new LMSRServer(0, true, backend, false);
+		Kryo kryo = new Kryo();
+		Output out = new Output(4096);
+		kryo.writeObject(out, server.wrap(null));
+		LMSR copy = kryo.readObject(new Input(out.toBytes()), LMSR.class);
+
+		// The agent's copy quotes exactly what the server would
+		assertEquals(server.price(), copy.price(), 0);
+		assertEquals(server.quoteBid(3, -1), copy.quoteBid(3), 0);
+		assertEquals(server.moniesToShares(2), copy.moniesToShares(2), 0);
+		assertEquals(backend.getSequence(), copy.getSequence());
+
+		MarketOrder order = new MarketOrder(0, 0, copy.moniesToShares(2), 0, 1, copy.getSequence());
+		assertTrue(!order.isStale(server.getSequence()));
+		// An order over budget against the current state is rejected
+		assertEquals(0, ClearingHouse.repriced(server, new MarketOrder(0, 0,
+				copy.moniesToShares(3), 0, 1, copy.getSequence()), 2), 0);
+
+		// Once the market moves, the order is cut to what 2 buys now
+		backend.yes(null, 5);
+		assertTrue(order.isStale(server.getSequence()));
+		assertTrue(server.quoteBid(order.buyShares, 1) > 2);
+		double shares = ClearingHouse.repriced(server, order, 2);
+		assertEquals(2, server.quoteBid(shares, 1), 1e-9);
+	}
+
+	@Test
+	public void testBinaryMarket() {
+		LMSRBackend backend = new LMSRBackend(0, 10);
+		BinaryLMSRServer market = new BinaryLMSRServer(3, backend, true);
+		Kryo kryo = new Kryo();
+		Output out = new Output(4096);
+		kryo.writeObject(out, market.wrap(null));
+		BinaryLMSR copy = kryo.readObject(new Input(out.toBytes()), BinaryLMSR.class);
+		LMSR no = copy.side(false);
+
+		// One update carries both sides, each ordering under one ID
+		assertEquals(3, no.getAuctionID().intValue());
+		assertEquals(TradeableType.PredictionNo, no.getTradeableType().TYPE);
+		assertEquals(1, copy.price(true) + copy.price(false), 1e-12);
+		MarketOrder order = new MarketOrder(0, 3, no.moniesToShares(2), 0, 1,
+				no.getSequence(), TradeableType.PredictionNo);
+		TwoSidedAuction side = ClearingHouse.route(market, order);
+		assertEquals(3, side.getID().intValue());
+		assertEquals(TradeableType.PredictionNo, side.getTradeableType().TYPE);
+		assertEquals(market.side(TradeableType.PredictionYes),
+				ClearingHouse.route(market, new MarketOrder(0, 3, 1, 0, 1)));
+
+		// Both sides trade the one backend
+		Order fill = side.buy(0, order.buyShares, 1).get(0);
+		assertEquals(2, fill.COST, 1e-9);
+		assertTrue(market.price(false) > .5);
+		assertEquals(1 - market.price(false), market.price(), 1e-12);
+
+		// Shares sold go back to the side they were bought in
+		market.sell(0, fill.GOOD, 1);
+		assertEquals(.5, market.price(), 1e-12);
+		assertEquals(0, backend.getNo(), 1e-12);
+	}
+
+	@Test
+	public void testNoRegretWeights() {
+		NoRegretWeights weights = new NoRegretWeights(.3);
+		int agents = 1000;
+		double[] losses = new double[agents];
+		for (int round = 0; round < 200; round++) {
+			boolean outcome = round % 3 != 0;
+			for (int i = 0; i < agents; i++) {
+				boolean prediction = (i * 7 + round) % 5 < i % 5;
+				weights.predict(weights.index(i), prediction);
+				losses[i] += prediction == outcome ? 0 : 1;
+			}
+			weights.update(outcome);
+		}
+
+		// Kept weights match the weights worked out from scratch
+		double norm = 0;
+		for (double loss : losses) {
+			norm += Math.exp(-.3 * loss);
+		}
+		double[] all = weights.weights(null);
+		double total = 0;
+		for (int i = 0; i < agents; i++) {
+			assertEquals(losses[i], weights.getLoss(i), 0);
+			assertEquals(Math.exp(-.3 * losses[i]) / norm, all[i], 1e-12);
+			total += all[i];
+		}
+		assertEquals(1, total, 1e-9);
+	}
+
+	@Test
+	public void testWeightedMajority() {
+		WeightedMajority first = new WeightedMajority(0, 10,
+				new NoRegret.NoRegretMemory(null, 1));
+		first.yes(1, 2);
+		first.no(2, 2);
+		NoRegret.NoRegretMemory memory = first.update(true);
+		assertEquals(1, memory.WEIGHTS.getLoss(memory.WEIGHTS.index(2)), 0);
+
+		// The agent that was right now moves the market further
+		WeightedMajority second = new WeightedMajority(0, 10, memory);
+		second.yes(1, 2);
+		double right = second.getYes();
+		second.no(2, 2);
+		assertTrue(right > second.getNo());
+		assertEquals(right + second.getNo(), 2, 1e-12);
+	}
+
+	@Test
+	public void testOnlineWeighedAverage() {
+		OnlineWeighedAverage market = new OnlineWeighedAverage(0, 1, 0, 0);
+		double weight = 0;
+		for (int i = 0; i < 1000; i++) {
+			double value = .05 + .9 * ((i * 37) % 101) / 100.0;
+			double budget = 1 + i % 3;
+			double price = market.price(true);
+			double target = (weight * price + budget * value) / (budget + weight);
+			double before = market.getYes() - market.getNo();
+			double shares = market.enterMarket(i, budget, value);
+			weight += Math.abs(shares);
+			assertEquals(before + shares, market.getYes() - market.getNo(), 1e-9);
+			if (shares != 0) {
+				// The b found is one the calibrator would accept
+				assertEquals(target, market.price(true), LiquidityCalibrator.TOLERANCE);
+			}
+		}
+		assertEquals(weight, market.getMemory().PASTWEIGHT, 0);
+
+		// Far from the first trader's value, their budget just reaches it
+		OnlineWeighedAverage fresh = new OnlineWeighedAverage(0, 1, 3, 0);
+		double shares = fresh.enterMarket(0, 1, .2);
+		assertEquals(.2, fresh.price(true), 1e-9);
+		// Selling the shares back returns the whole budget
+		assertEquals(-1, fresh.cost(0, shares), 1e-9);
+	}
+
+}
@@ -0,0 +1,242 @@
+package brown.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import brown.assets.accounting.Account;
+import brown.assets.accounting.AccountManager;
+import brown.assets.accounting.MarketManager;
+import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
+import brown.markets.CDAServer;
+import brown.messages.markets.BookUpdate;
+import brown.messages.markets.MarketOrder;
+import brown.messages.markets.OrderType;
+import brown.rules.clearingrules.PriceLadderClearing;
+import brown.server.ClearingHouse;
+import brown.server.MatchingEngine;
+import brown.server.MatchingEngine.Command;
+import brown.server.MatchingEngine.Result;
+import brown.server.RingBuffer;
+import brown.tradeables.Tradeable;
+
+public class MatchingEngineTest {
+	private final FullType TYPE = new FullType(TradeableType.Good, 0);
+
+	@Test
+	public void testRingBuffer() throws InterruptedException {
+		final RingBuffer<Integer> ring = new RingBuffer<Integer>(6);
+		assertEquals(8, ring.capacity());
+		for (int i = 0; i < 8; i++) {
+			assertTrue(ring.offer(i));
+		}
+		assertFalse(ring.offer(8));
+		assertEquals(0, (int) ring.poll());
+		assertTrue(ring.offer(8));
+
+		final int each = 100000;
+		Thread[] producers = new Thread[4];
+		for (int p = 0; p < producers.length; p++) {
+			final int producer = p;
+			producers[p] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < each; i++) {
+						while (!ring.offer(producer * each + i)) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+		}
+
+		for (int i = 1; i <= 8; i++) {
+			assertEquals(i, (int) ring.poll());
+		}
+		for (Thread producer : producers) {
+			producer.start();
+		}
+
+		// Each producer's elements come out in the order it offered them
+		int[] last = new int[producers.length];
+		for (int p = 0; p < last.length; p++) {
+			last[p] = -1;
+		}
+		for (int taken = 0; taken < each * producers.length;) {
+			Integer next = ring.poll();
+			if (next == null) {
+				Thread.yield();
+				continue;
+			}
+			int producer = next / each;
+			assertEquals(last[producer] + 1, next % each);
+			last[producer] = next % each;
+			taken++;
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertNull(ring.poll());
+	}
+
+	@Test
+	public void testEngine() {
+		RingBuffer<Result> results = new RingBuffer<Result>(16);
+		CDAServer market = new CDAServer(0, TYPE, new PriceLadderClearing());
+		MatchingEngine engine = new MatchingEngine("matching", 16, results);
+		engine.open(market);
+		engine.start();
+
+		MarketOrder sell = new MarketOrder(1, 0, 0, 2, 5);
+		MarketOrder buy = new MarketOrder(2, 0, 3, 0, 6);
+		engine.submit(new Command(-1, 0, 1, sell, new Tradeable(TYPE, 2, 1), 0));
+		engine.submit(new Command(-1, 0, 2, buy, null, 0));
+		engine.submit(new Command(-1, 0, 2, buy, null, 100));
+
+		Result posted = take(results);
+		assertEquals(0, posted.TRADES.size());
+		assertEquals(0, posted.ORDERID);
+		assertTrue(take(results).REJECTED);
+
+		Result filled = take(results);
+		assertEquals(1, filled.TRADES.size());
+		assertEquals(10, filled.TRADES.get(0).COST, 1e-9);
+		assertNull(filled.SPLITS.get(0));
+		assertEquals(1, filled.ORDERID);
+		engine.stop();
+	}
+
+	@Test
+	public void testHeldBudget() {
+		RingBuffer<Result> results = new RingBuffer<Result>(16);
+		CDAServer market = new CDAServer(0, TYPE, new PriceLadderClearing());
+		MatchingEngine engine = new MatchingEngine("matching", 16, results);
+		engine.open(market);
+		engine.start();
+		engine.submit(new Command(-1, 0, 1, new MarketOrder(1, 0, 0, 4, 5),
+				new Tradeable(TYPE, 4, 1), 0));
+		take(results);
+
+		// Each buy is affordable alone, but both wait before either settles
+		AccountManager accounts = new AccountManager();
+		accounts.setAccount(2, new Account(2).add(12));
+		MarketOrder buy = new MarketOrder(2, 0, 2, 0, 6);
+		double[] held = new double[2];
+		for (int i = 0; i < held.length; i++) {
+			held[i] = ClearingHouse.toHold(market, buy, accounts.getSpendable(2));
+			accounts.hold(2, held[i]);
+			engine.submit(new Command(-1, 0, 2, buy, null, held[i], held[i]));
+		}
+		assertEquals(12, held[0], 0);
+		assertEquals(0, accounts.getSpendable(2), 0);
+
+		Result filled = take(results);
+		assertFalse(filled.REJECTED);
+		assertEquals(10, filled.TRADES.get(0).COST, 1e-9);
+		assertTrue(take(results).REJECTED);
+		accounts.release(2, held[0]);
+		accounts.release(2, held[1]);
+		assertEquals(12, accounts.getSpendable(2), 0);
+		engine.stop();
+	}
+
+	@Test
+	public void testMarketBuyPastBook() {
+		RingBuffer<Result> results = new RingBuffer<Result>(16);
+		CDAServer market = new CDAServer(0, TYPE, new PriceLadderClearing());
+		MatchingEngine engine = new MatchingEngine("matching", 16, results);
+		engine.open(market);
+		engine.start();
+
+		engine.submit(new Command(-1, 0, 1, new MarketOrder(1, 0, 0, 2, 5),
+				new Tradeable(TYPE, 2, 1), 0));
+		engine.submit(new Command(-1, 0, 1, new MarketOrder(1, 0, 0, 2, 6),
+				new Tradeable(TYPE, 2, 1), 0));
+		take(results);
+		take(results);
+
+		// Bigger than the book and the budget: takes what 13 pays for
+		MarketOrder buy = new MarketOrder(2, 0, 10, 0, 0, OrderType.Market);
+		engine.submit(new Command(-1, 0, 2, buy, null, 13));
+		Result filled = take(results);
+		assertFalse(filled.REJECTED);
+		assertEquals(2, filled.TRADES.size());
+		assertEquals(0.5, filled.TRADES.get(1).QUANTITY, 1e-9);
+		assertEquals(13, filled.TRADES.get(0).COST + filled.TRADES.get(1).COST, 1e-9);
+
+		// Bigger than the book only: takes the rest of it
+		engine.submit(new Command(-1, 0, 2, buy, null, 100));
+		filled = take(results);
+		assertFalse(filled.REJECTED);
+		assertEquals(1, filled.TRADES.size());
+		assertEquals(1.5, filled.TRADES.get(0).QUANTITY, 1e-9);
+		assertTrue(market.getSellBook().isEmpty());
+		engine.stop();
+	}
+
+	@Test
+	public void testStop() {
+		RingBuffer<Result> results = new RingBuffer<Result>(16);
+		CDAServer market = new CDAServer(0, TYPE, new PriceLadderClearing());
+		MatchingEngine engine = new MatchingEngine("matching", 16, results);
+		engine.open(market);
+		engine.start();
+
+		for (int i = 0; i < 8; i++) {
+			MarketOrder sell = new MarketOrder(1, 0, 0, 1, 5 + i);
+			assertTrue(engine.submit(new Command(-1, 0, 1, sell,
+					new Tradeable(TYPE, 1, 1), 0)));
+		}
+		engine.stop();
+
+		// Everything queued before the stop was matched and sent on
+		for (int i = 0; i < 8; i++) {
+			assertEquals(i, results.poll().ORDERID);
+		}
+		assertNull(results.poll());
+		assertFalse(engine.submit(new Command(0, false)));
+		assertFalse(engine.enter());
+		engine.stop();
+	}
+
+	@Test
+	public void testShards() {
+		RingBuffer<Result> results = new RingBuffer<Result>(16);
+		MarketManager manager = new MarketManager();
+		manager.openTwoSided(new CDAServer(0, TYPE, new PriceLadderClearing()));
+		manager.openTwoSided(new CDAServer(1, TYPE, new PriceLadderClearing()));
+		assertNull(manager.getShard(0));
+
+		manager.shard(2, 16, results);
+		manager.openTwoSided(new CDAServer(2, TYPE, new PriceLadderClearing()));
+		assertEquals(2, manager.getShardCount());
+		assertNotSame(manager.getShard(0), manager.getShard(1));
+		assertSame(manager.getShard(0), manager.getShard(2));
+		assertNotSame(manager.getLedger(0), manager.getLedger(2));
+
+		MarketOrder sell = new MarketOrder(1, 2, 0, 1, 5);
+		manager.getShard(2).submit(new Command(-1, 2, 1, sell, new Tradeable(TYPE, 1, 1), 0));
+		take(results);
+		manager.getShard(2).submit(new Command(2, true));
+		BookUpdate update = (BookUpdate) take(results).UPDATE;
+		assertEquals(2, (int) update.MARKETID);
+		assertEquals(5, update.ASKPRICES[0], 1e-9);
+		manager.unshard();
+		assertNull(manager.getShard(2));
+	}
+
+	private static Result take(RingBuffer<Result> results) {
+		Result result = results.poll();
+		while (result == null) {
+			Thread.yield();
+			result = results.poll();
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,272 @@
+package brown.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import brown.assets.accounting.Order;
+import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
+import brown.markets.BookReplica;
+import brown.markets.CDAServer;
+import brown.markets.ContinuousDoubleAuction;
+import brown.messages.markets.BookUpdate;
+import brown.messages.markets.OrderType;
+import brown.rules.clearingrules.FillBuffer;
+import brown.rules.clearingrules.OrderIndex;
+import brown.rules.clearingrules.PriceLadderClearing;
+import brown.tradeables.Tradeable;
+
+public class PriceLadderClearingTest {
+	private final FullType TYPE = new FullType(TradeableType.Good, 0);
+
+	@Test
+	public void testPriceTimePriority() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		rule.sell(1, new Tradeable(TYPE, 1, 1), 10);
+		rule.sell(2, new Tradeable(TYPE, 1, 2), 9);
+		rule.sell(3, new Tradeable(TYPE, 1, 3), 9);
+		assertEquals(9, rule.bestAsk(), 1e-9);
+
+		List<Order> fills = rule.buy(4, 2, 10);
+		assertEquals(2, fills.size());
+		assertEquals(2, (int) fills.get(0).FROM);
+		assertEquals(3, (int) fills.get(1).FROM);
+		assertEquals(9, fills.get(0).COST, 1e-9);
+		assertEquals(10, rule.bestAsk(), 1e-9);
+		assertEquals(-1, rule.bestBid(), 1e-9);
+	}
+
+	@Test
+	public void testRestingRemainder() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		rule.buy(1, 5, 3);
+		List<Order> fills = rule.sell(2, new Tradeable(TYPE, 2, 2), 2.5);
+		assertEquals(1, fills.size());
+		assertEquals(6, fills.get(0).COST, 1e-9);
+		assertEquals(3, rule.bestBid(), 1e-9);
+		assertEquals(3, rule.getBuyBook().get(3.0).iterator().next().QUANTITY, 1e-9);
+
+		assertEquals(9 + 2 * 2, rule.quoteAsk(5, 2), 1e-9);
+		assertTrue(rule.getSellBook().isEmpty());
+	}
+
+	@Test
+	public void testCancel() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		rule.sell(1, new Tradeable(TYPE, 1, 1), 5);
+		rule.cancel(1, false, 1, 5);
+		assertEquals(-1, rule.bestAsk(), 1e-9);
+		assertTrue(rule.buy(2, 1, 5).isEmpty());
+		assertEquals(5, rule.bestBid(), 1e-9);
+	}
+
+	@Test
+	public void testCancelByID() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		rule.buy(1, 2, 4);
+		long first = rule.lastOrderID();
+		rule.buy(2, 2, 4);
+		long second = rule.lastOrderID();
+		assertTrue(first != second);
+
+		assertFalse(rule.cancel(2, first));
+		assertTrue(rule.cancel(1, first));
+		assertFalse(rule.cancel(1, first));
+
+		List<Order> fills = rule.sell(3, new Tradeable(TYPE, 1, 3), 4);
+		assertEquals(2, (int) fills.get(0).TO);
+		assertEquals(-1, rule.lastOrderID());
+	}
+
+	@Test
+	public void testAmend() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		rule.buy(1, 2, 4);
+		long first = rule.lastOrderID();
+		rule.buy(2, 2, 4);
+
+		assertTrue(rule.amend(1, first, 3, 4));
+		List<Order> fills = rule.sell(3, new Tradeable(TYPE, 1, 3), 4);
+		assertEquals(2, (int) fills.get(0).TO);
+
+		assertTrue(rule.amend(1, first, 1, 0));
+		assertEquals(8, rule.quoteAsk(2, 0), 1e-9);
+	}
+
+	@Test
+	public void testAmendLimits() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		rule.buy(1, 2, 4);
+		long buy = rule.lastOrderID();
+		// Two more shares at 4 cost 8
+		assertFalse(rule.amend(1, buy, 4, 7.5));
+		assertEquals(8, rule.quoteAsk(3, 0), 1e-9);
+		assertTrue(rule.amend(1, buy, 4, 8));
+		assertEquals(16, rule.quoteAsk(4, 0), 1e-9);
+
+		Tradeable good = new Tradeable(TYPE, 5, 2);
+		rule.sell(2, good, 6);
+		long sell = rule.lastOrderID();
+		assertTrue(rule.amend(2, sell, 2, 0));
+		assertEquals(2, good.getCount(), 1e-9);
+		assertFalse(rule.amend(2, sell, 3, 100));
+
+		List<Order> fills = rule.buy(3, 5, 6);
+		assertEquals(1, fills.size());
+		assertEquals(2, fills.get(0).QUANTITY, 1e-9);
+		assertEquals(2, fills.get(0).GOOD.getCount(), 1e-9);
+	}
+
+	@Test
+	public void testDepthQuotes() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		CDAServer server = new CDAServer(0, TYPE, rule);
+		rule.sell(1, new Tradeable(TYPE, 2, 1), 5);
+		rule.sell(2, new Tradeable(TYPE, 1, 2), 6);
+		rule.sell(3, new Tradeable(TYPE, 4, 3), 8);
+		rule.buy(4, 3, 4);
+		rule.buy(5, 1, 3.5);
+
+		assertEquals(2 * 5 + 6 + 8, rule.quoteBid(4, 9), 1e-9);
+		assertEquals(2 * 5 + 6 + 7, rule.quoteBid(4, 7), 1e-9);
+		assertEquals(3 * 4 + 3.5 + 3, rule.quoteAsk(5, 3), 1e-9);
+		assertEquals(4 * 10, rule.quoteAsk(4, 10), 1e-9);
+
+		ContinuousDoubleAuction wrapper = new ContinuousDoubleAuction(server, null);
+		for (double shares = .5; shares < 9; shares += .5) {
+			for (double price = 2; price < 10; price += .25) {
+				assertEquals(rule.quoteBid(shares, price), wrapper.quoteBid(shares, price), 1e-9);
+				assertEquals(rule.quoteAsk(shares, price), wrapper.quoteAsk(shares, price), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testBookUpdates() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		CDAServer server = new CDAServer(0, TYPE, rule);
+		BookReplica replica = new BookReplica(0, TYPE);
+		rule.sell(1, new Tradeable(TYPE, 1, 1), 5);
+		rule.buy(2, 3, 4);
+		assertTrue(replica.apply(server.getBookUpdate()));
+
+		rule.buy(3, 1, 5);
+		rule.buy(4, 1, 3);
+		BookUpdate delta = server.getBookUpdate();
+		assertFalse(delta.SNAPSHOT);
+		assertEquals(1, delta.TRADEPRICES.length);
+		assertEquals(5, delta.TRADEPRICES[0], 1e-9);
+		assertTrue(replica.apply(delta));
+		assertTrue(replica.wrap().getSellBook().isEmpty());
+
+		rule.sell(1, new Tradeable(TYPE, 3, 1), 4);
+		BookUpdate missed = server.getBookUpdate();
+		assertEquals(0, missed.ASKPRICES.length);
+		rule.sell(5, new Tradeable(TYPE, 2, 5), 6);
+		assertFalse(replica.apply(server.getBookUpdate()));
+		assertEquals(-1, replica.getSequence());
+
+		assertTrue(replica.apply(rule.publish(0, TYPE, true)));
+		ContinuousDoubleAuction wrapper = new ContinuousDoubleAuction(server, null);
+		ContinuousDoubleAuction mirror = replica.wrap();
+		for (double shares = .5; shares < 5; shares += .5) {
+			for (double price = 2; price < 8; price += .25) {
+				assertEquals(wrapper.quoteBid(shares, price), mirror.quoteBid(shares, price), 1e-9);
+				assertEquals(wrapper.quoteAsk(shares, price), mirror.quoteAsk(shares, price), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testFillBuffer() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		FillBuffer fills = new FillBuffer(1);
+		Tradeable good = new Tradeable(TYPE, 5, 1);
+		rule.buy(2, 2, 6);
+		rule.buy(3, 2, 5);
+
+		assertEquals(4, rule.sell(1, good, 4, fills), 1e-9);
+		assertEquals(2, fills.size());
+		assertEquals(2, (int) fills.to(0));
+		assertEquals(6, fills.price(0), 1e-9);
+		assertEquals(5, fills.price(1), 1e-9);
+		assertTrue(good == fills.good(1));
+		assertEquals(5, good.getCount(), 1e-9);
+		assertEquals(1, rule.getSellBook().get(4.0).iterator().next().QUANTITY, 1e-9);
+
+		fills.clear();
+		assertEquals(0, fills.size());
+		assertEquals(1, rule.buy(4, 3, 4, fills), 1e-9);
+		assertEquals(4, fills.toOrder(0).COST, 1e-9);
+		assertEquals(4, rule.bestBid(), 1e-9);
+	}
+
+	@Test
+	public void testOrderIndex() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		Map<Long, Integer> resting = new HashMap<Long, Integer>();
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++) {
+			if (random.nextInt(3) > 0 || resting.isEmpty()) {
+				Integer agent = random.nextInt(5);
+				rule.buy(agent, 1, 1 + random.nextInt(100));
+				resting.put(rule.lastOrderID(), agent);
+			} else {
+				long id = (long) random.nextInt((int) rule.lastOrderID() + 1);
+				Integer agent = random.nextInt(5);
+				boolean owned = agent.equals(resting.get(id));
+				assertEquals(owned, rule.cancel(agent, id));
+				if (owned) {
+					resting.remove(id);
+				}
+			}
+		}
+		for (Map.Entry<Long, Integer> order : resting.entrySet()) {
+			assertTrue(rule.cancel(order.getValue(), order.getKey()));
+		}
+		assertEquals(-1, rule.bestBid(), 1e-9);
+	}
+
+	@Test
+	public void testOrderTypes() {
+		PriceLadderClearing rule = new PriceLadderClearing();
+		rule.sell(1, new Tradeable(TYPE, 2, 1), 10);
+		rule.sell(2, new Tradeable(TYPE, 2, 2), 11);
+
+		// Post only must not cross, and never trades
+		assertTrue(rule.buy(3, 1, 10, OrderType.PostOnly).isEmpty());
+		assertEquals(-1, rule.lastOrderID());
+		assertTrue(rule.buy(3, 1, 9, OrderType.PostOnly).isEmpty());
+		assertEquals(9, rule.bestBid(), 1e-9);
+
+		// Fill or kill needs the whole quantity within its limit
+		assertTrue(rule.buy(4, 3, 10, OrderType.FillOrKill).isEmpty());
+		assertEquals(2, rule.getSellBook().get(10.0).iterator().next().QUANTITY, 1e-9);
+		assertEquals(2, rule.buy(4, 3, 11, OrderType.FillOrKill).size());
+
+		// Immediate or cancel leaves nothing behind
+		List<Order> fills = rule.buy(5, 3, 11, OrderType.ImmediateOrCancel);
+		assertEquals(1, fills.size());
+		assertEquals(1, fills.get(0).QUANTITY, 1e-9);
+		assertEquals(-1, rule.lastOrderID());
+		assertEquals(-1, rule.bestAsk(), 1e-9);
+		assertEquals(9, rule.bestBid(), 1e-9);
+
+		// Market orders take any price
+		rule.buy(6, 1, 8);
+		fills = rule.sell(7, new Tradeable(TYPE, 3, 7), 100, OrderType.Market);
+		assertEquals(2, fills.size());
+		assertEquals(9, fills.get(0).COST, 1e-9);
+		assertEquals(8, fills.get(1).COST, 1e-9);
+		assertEquals(-1, rule.bestAsk(), 1e-9);
+	}
+
+}
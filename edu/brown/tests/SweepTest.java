@@ -0,0 +1,276 @@
+package brown.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import brown.agent.library.ShortsightedInformed;
+import brown.exceptions.AgentCreationException;
+import brown.markets.BinaryLMSRServer;
+import brown.markets.LMSRBackend;
+import brown.securities.prediction.simulator.Bidder;
+import brown.securities.prediction.simulator.BinaryResultReader;
+import brown.securities.prediction.simulator.BinaryResultWriter;
+import brown.securities.prediction.simulator.CsvResultWriter;
+import brown.securities.prediction.simulator.LMSRPlayground;
+import brown.securities.prediction.simulator.ResultCache;
+import brown.securities.prediction.simulator.SimulationResult;
+import brown.securities.prediction.simulator.Simulator;
+import brown.securities.prediction.simulator.Sweep;
+import brown.server.library.LocalExperimentalServer;
+
+public class SweepTest {
+
+	@Test
+	public void testGrid() {
+		List<Sweep.Point> grid = Sweep.grid(Sweep.Maker.values(), null,
+				new int[] {20, 10}, new int[] {10});
+		assertEquals(6, grid.size());
+		assertEquals(Sweep.Maker.LMSR.DEFAULT, grid.get(0).PARAM, 0);
+		assertEquals(10, grid.get(1).INFORMED);
+
+		grid = Sweep.grid(new Sweep.Maker[] {Sweep.Maker.Luke}, new double[] {.1, .2, .3},
+				new int[] {5}, new int[] {0, 5});
+		assertEquals(6, grid.size());
+		assertEquals(.3, grid.get(5).PARAM, 0);
+		assertEquals(5, grid.get(5).UNINFORMED);
+	}
+
+	@Test
+	public void testReproducible() {
+		List<Sweep.Point> grid = Sweep.grid(Sweep.Maker.values(), null,
+				new int[] {20}, new int[] {0, 10});
+		double[] first = new Sweep(7).stream(grid, 200).mapToDouble(Sweep.Replicate::error).toArray();
+		double[] second = new Sweep(7).stream(grid, 200).mapToDouble(Sweep.Replicate::error).toArray();
+		double[] other = new Sweep(8).stream(grid, 200).mapToDouble(Sweep.Replicate::error).toArray();
+		assertEquals(grid.size() * 200, first.length);
+		assertArrayEquals(first, second, 0);
+		assertTrue(first[0] != other[0]);
+
+		// Summaries are summed in order, so they repeat exactly too
+		List<Sweep.Summary> summaries = new Sweep(7).run(grid, 200);
+		assertEquals(grid.size(), summaries.size());
+		assertEquals(summaries.toString(), new Sweep(7).run(grid, 200).toString());
+		double mean = 0;
+		for (int i = 0; i < 200; i++) {
+			mean += first[i];
+		}
+		assertEquals(mean / 200, summaries.get(0).ERROR, 1e-12);
+	}
+
+	@Test
+	public void testRouting() {
+		List<Bidder> agents = Arrays.asList(new Bidder(.9, 1));
+		LMSRBackend thin = new LMSRBackend(0, 1);
+		LMSRBackend deep = new LMSRBackend(1, 50);
+		new Simulator(Arrays.asList(thin, deep), agents).simulate(true, true);
+		assertTrue(thin.getYes() > 0);
+		assertEquals(0, deep.getYes(), 0);
+
+		thin = new LMSRBackend(0, 1);
+		deep = new LMSRBackend(1, 50);
+		new Simulator(Arrays.asList(thin, deep), agents, Simulator.MOST).simulate(true, true);
+		assertEquals(0, thin.getYes(), 0);
+		assertTrue(deep.getYes() > thin.getYes());
+
+		// Any policy can route; this one sends everyone to the last
+		LMSRBackend last = new LMSRBackend(2, 10);
+		new Simulator(Arrays.asList(thin, deep, last), agents,
+				(agent, marketmakers, quantities) -> quantities.length - 1).simulate(true, true);
+		assertTrue(last.getYes() > 0);
+	}
+
+	@Test
+	public void testLocalServer() {
+		LocalExperimentalServer server = new LocalExperimentalServer();
+		ShortsightedInformed first = new ShortsightedInformed(server, .9);
+		ShortsightedInformed second = new ShortsightedInformed(server, .8);
+		first.setTime(0);
+		second.setTime(1);
+		server.setBanks(1);
+		LMSRBackend backend = new LMSRBackend(0, 5);
+		BinaryLMSRServer market = new BinaryLMSRServer(0, backend, true);
+		server.getManager().openTwoSided(market);
+		server.sendMarketUpdateNL(market);
+		long time = server.run();
+
+		assertTrue(server.isQuiet());
+		assertTrue(time > 0);
+		assertTrue(market.price() > .5);
+		assertEquals(1 - backend.getProfit(), server.getAccount(first.ID).monies
+				+ server.getAccount(second.ID).monies - 1, 1e-9);
+		assertTrue(server.getAccount(first.ID).monies < 1);
+		assertTrue(server.getAccount(second.ID).monies < 1);
+	}
+
+	@Test
+	public void testLocalPlayground() throws AgentCreationException, IOException {
+		LMSRPlayground first = new LMSRPlayground(10, 2, 3, 1, new StringWriter(), 3);
+		LMSRPlayground second = new LMSRPlayground(10, 2, 3, 1, new StringWriter(), 3);
+		for (int type = 0; type < 3; type++) {
+			double param = type == 0 ? 5 : .2;
+			assertEquals(first.simulate(type, param), second.simulate(type, param), 0);
+		}
+	}
+
+	@Test
+	public void testSimulationResult() {
+		SimulationResult result = new SimulationResult(1, 1);
+		LMSRBackend first = new LMSRBackend(0, 10);
+		LMSRBackend second = new LMSRBackend(0, 10);
+		assertEquals(0, result.addMarketmaker(first));
+		assertEquals(1, result.addMarketmaker(second));
+		for (int i = 0; i < 40; i++) {
+			assertEquals(i, result.addPurchase(i % 4 == 0 ? 0 : 1, i / 40.0, i, .5));
+		}
+		assertEquals(40, result.getAgentCount());
+		assertEquals(5, result.getCost(first), 1e-12);
+		assertEquals(15, result.getCost(second), 1e-12);
+		assertEquals(.25, result.getShare(0), 0);
+		assertEquals(.5, result.getValue(20), 0);
+
+		result.clear();
+		assertEquals(0, result.getAgentCount());
+		assertEquals(0, result.getCost(first), 0);
+	}
+
+	@Test
+	public void testResultWriters() throws IOException {
+		List<Sweep.Point> grid = Sweep.grid(new Sweep.Maker[] {Sweep.Maker.LMSR, Sweep.Maker.Luke},
+				null, new int[] {20}, new int[] {0, 5});
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryResultWriter binary = new BinaryResultWriter(bytes);
+		new Sweep(11).write(grid, 5, binary);
+		binary.close();
+
+		// Read back in the order the parallel stream gives the same runs
+		List<Sweep.Replicate> replicates = Arrays.asList(
+				new Sweep(11).stream(grid, 5).toArray(Sweep.Replicate[]::new));
+		BinaryResultReader reader = new BinaryResultReader(
+				new ByteArrayInputStream(bytes.toByteArray()));
+		SimulationResult result = new SimulationResult();
+		StringWriter marketmakers = new StringWriter();
+		StringWriter purchases = new StringWriter();
+		CsvResultWriter csv = new CsvResultWriter(marketmakers, purchases);
+		int runs = 0;
+		int rows = 0;
+		while (reader.next(result)) {
+			assertEquals(runs, reader.getRun());
+			assertEquals(1, result.getMarketmakerCount());
+			assertEquals(replicates.get(runs).PRICE, result.getPrice(0), 0);
+			assertEquals(replicates.get(runs).PROFIT, result.getIncome(0), 1e-9);
+			csv.write(result);
+			rows += result.getAgentCount();
+			runs++;
+		}
+		reader.close();
+		csv.close();
+		assertEquals(20, runs);
+
+		String[] lines = purchases.toString().split("\n");
+		assertEquals(rows + 1, lines.length);
+		assertEquals(CsvResultWriter.PURCHASES.trim(), lines[0]);
+		assertEquals(6, lines[1].split(",").length);
+		assertEquals(runs + 1, marketmakers.toString().split("\n").length);
+	}
+
+	@Test
+	public void testBinaryChunks() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryResultWriter binary = new BinaryResultWriter(bytes);
+		SimulationResult result = new SimulationResult();
+		int mm = result.addMarketmaker(.1);
+		result.addPurchase(mm, .7, 2, 1.2);
+		binary.write(result);
+
+		// The chunk is there to read before the writer is closed
+		BinaryResultReader reader = new BinaryResultReader(
+				new ByteArrayInputStream(bytes.toByteArray()));
+		SimulationResult read = new SimulationResult();
+		assertTrue(reader.next(read));
+		assertEquals(1, read.getAgentCount());
+		assertEquals(1.2, read.getIncome(0), 0);
+		assertFalse(reader.next(read));
+		reader.close();
+		binary.close();
+	}
+
+	@Test
+	public void testResultCache() throws IOException {
+		File directory = Files.createTempDirectory("cache").toFile();
+		try {
+			// Room for two results of one value
+			ResultCache cache = new ResultCache(directory, 32);
+			String a = ResultCache.key("a");
+			String b = ResultCache.key("b");
+			assertEquals(64, a.length());
+			assertEquals(a, ResultCache.key("a"));
+			assertNull(cache.get(a));
+
+			cache.put(a, new double[] {1});
+			cache.put(b, new double[] {2});
+			assertEquals(1, cache.get(a)[0], 0);
+			cache.put(ResultCache.key("c"), new double[] {3});
+			assertTrue(cache.contains(a));
+			assertFalse(cache.contains(b));
+			assertEquals(32, cache.size());
+
+			// A new session finds what the last one left
+			cache = new ResultCache(directory, 32);
+			assertEquals(3, cache.get(ResultCache.key("c"))[0], 0);
+			assertNull(cache.get(b));
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testCachedSweep() throws IOException {
+		File directory = Files.createTempDirectory("cache").toFile();
+		try {
+			ResultCache cache = new ResultCache(directory, 1 << 20);
+			List<Sweep.Point> small = Sweep.grid(new Sweep.Maker[] {Sweep.Maker.LMSR},
+					null, new int[] {20}, new int[] {0});
+			List<Sweep.Point> grid = Sweep.grid(new Sweep.Maker[] {Sweep.Maker.LMSR},
+					null, new int[] {10, 20}, new int[] {0, 5});
+			List<Sweep.Summary> plain = new Sweep(5).run(grid, 50);
+
+			new Sweep(5).run(small, 50, cache);
+			assertEquals(1, cache.getMisses());
+			List<Sweep.Summary> cached = new Sweep(5).run(grid, 50, cache);
+			assertEquals(1, cache.getHits());
+			assertEquals(4, cache.getMisses());
+			cached = new Sweep(5).run(grid, 50, cache);
+			assertEquals(5, cache.getHits());
+			for (int p = 0; p < grid.size(); p++) {
+				assertEquals(plain.get(p).ERROR, cached.get(p).ERROR, 0);
+				assertEquals(plain.get(p).PROFIT, cached.get(p).PROFIT, 0);
+			}
+
+			new Sweep(6).run(small, 50, cache);
+			assertEquals(5, cache.getMisses());
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package brown.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import brown.assets.accounting.Order;
+import brown.assets.value.FullType;
+import brown.assets.value.TradeableType;
+import brown.messages.markets.OrderType;
+import brown.rules.clearingrules.UniformPriceClearing;
+import brown.tradeables.Tradeable;
+
+public class UniformPriceClearingTest {
+	private final FullType TYPE = new FullType(TradeableType.Good, 0);
+
+	@Test
+	public void testUniformPrice() {
+		UniformPriceClearing rule = new UniformPriceClearing();
+		assertTrue(rule.sell(1, new Tradeable(TYPE, 2, 1), 4).isEmpty());
+		rule.sell(2, new Tradeable(TYPE, 2, 2), 6);
+		assertTrue(rule.buy(3, 3, 7).isEmpty());
+		rule.buy(4, 2, 5);
+
+		// 3 shares cross, and the part filled ask at 6 sets the price
+		List<Order> fills = rule.tick(0);
+		assertEquals(2, fills.size());
+		for (Order fill : fills) {
+			assertEquals(3, (int) fill.TO);
+			assertEquals(6 * fill.QUANTITY, fill.COST, 1e-9);
+		}
+		assertEquals(6, rule.price(), 1e-9);
+		assertEquals(1, rule.getSellBook().get(6.0).iterator().next().QUANTITY, 1e-9);
+		assertEquals(2, rule.getBuyBook().get(5.0).iterator().next().QUANTITY, 1e-9);
+		assertTrue(rule.tick(1).isEmpty());
+
+		// Next batch has slack on both sides, so the price is the midpoint
+		rule.buy(5, 1, 6.5);
+		fills = rule.tick(2);
+		assertEquals(1, fills.size());
+		assertEquals(6.25, rule.price(), 1e-9);
+	}
+
+	@Test
+	public void testInterval() {
+		UniformPriceClearing rule = new UniformPriceClearing(100);
+		rule.sell(1, new Tradeable(TYPE, 1, 1), 3);
+		rule.tick(0);
+		rule.buy(2, 1, 3);
+		assertTrue(rule.tick(50).isEmpty());
+		assertEquals(3, rule.quoteBid(1, 10), 1e-9);
+
+		List<Order> fills = rule.tick(100);
+		assertEquals(1, fills.size());
+		assertEquals(3, fills.get(0).COST, 1e-9);
+	}
+
+	@Test
+	public void testCancelAndAmend() {
+		UniformPriceClearing rule = new UniformPriceClearing();
+		rule.buy(1, 2, 5);
+		long first = rule.lastOrderID();
+		rule.buy(2, 2, 5);
+		long second = rule.lastOrderID();
+		assertFalse(rule.amend(1, first, 3, 4));
+		assertTrue(rule.amend(1, first, 3, 5));
+		assertTrue(rule.cancel(2, second));
+
+		rule.sell(3, new Tradeable(TYPE, 5, 3), 5);
+		List<Order> fills = rule.tick(0);
+		assertEquals(1, fills.size());
+		assertEquals(1, (int) fills.get(0).TO);
+		assertEquals(3, fills.get(0).QUANTITY, 1e-9);
+	}
+
+	@Test
+	public void testSelfMatch() {
+		UniformPriceClearing rule = new UniformPriceClearing();
+		rule.sell(1, new Tradeable(TYPE, 2, 1), 4);
+		rule.buy(2, 1, 6);
+		rule.buy(1, 2, 5);
+		long newer = rule.lastOrderID();
+		rule.buy(3, 2, 4.5);
+
+		// Agent 1's later buy is cancelled rather than crossed with its
+		// sell, which still trades with everyone else
+		List<Order> fills = rule.tick(0);
+		assertEquals(2, fills.size());
+		double volume = 0;
+		for (Order fill : fills) {
+			assertEquals(1, (int) fill.FROM);
+			assertFalse(fill.TO.equals(1));
+			volume += fill.QUANTITY;
+		}
+		assertEquals(2, volume, 1e-9);
+		assertEquals(4.5, rule.price(), 1e-9);
+		assertFalse(rule.cancel(1, newer));
+		assertEquals(1, rule.getBuyBook().get(4.5).iterator().next().QUANTITY, 1e-9);
+	}
+
+	@Test
+	public void testOrderTypes() {
+		UniformPriceClearing rule = new UniformPriceClearing();
+		rule.buy(1, 1, 5, OrderType.Market);
+		rule.sell(2, new Tradeable(TYPE, 1, 2), 5, OrderType.FillOrKill);
+		assertTrue(rule.getBuyBook().isEmpty());
+		assertTrue(rule.getSellBook().isEmpty());
+
+		// Immediate or cancel orders are dropped after their batch
+		rule.sell(3, new Tradeable(TYPE, 1, 3), 5, OrderType.PostOnly);
+		rule.buy(4, 3, 5, OrderType.ImmediateOrCancel);
+		assertEquals(1, rule.tick(0).size());
+		assertTrue(rule.getBuyBook().isEmpty());
+
+		rule.sell(5, new Tradeable(TYPE, 1, 5), 6, OrderType.ImmediateOrCancel);
+		rule.buy(6, 1, 4);
+		assertTrue(rule.tick(1).isEmpty());
+		assertTrue(rule.getSellBook().isEmpty());
+		assertEquals(1, rule.getBuyBook().size());
+	}
+
+}